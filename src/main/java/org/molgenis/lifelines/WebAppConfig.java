@@ -2,6 +2,8 @@ package org.molgenis.lifelines;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.validation.Schema;
 
@@ -21,16 +23,21 @@ import org.molgenis.DatabaseConfig;
 import org.molgenis.catalogmanager.CatalogManagerService;
 import org.molgenis.data.DataService;
 import org.molgenis.elasticsearch.config.EmbeddedElasticSearchConfig;
+import org.molgenis.lifelines.catalog.CatalogIndexer;
+import org.molgenis.lifelines.catalog.CatalogLoadJobExecutor;
+import org.molgenis.lifelines.catalog.CatalogLoadJobService;
 import org.molgenis.lifelines.catalog.GenericLayerCatalogManagerService;
 import org.molgenis.lifelines.catalog.LifeLinesCatalogManagerService;
 import org.molgenis.lifelines.studymanager.GenericLayerDataQueryService;
 import org.molgenis.lifelines.studymanager.GenericLayerStudyManagerService;
 import org.molgenis.lifelines.studymanager.LifeLinesStudyManagerService;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJobService;
 import org.molgenis.omx.OmxConfig;
 import org.molgenis.omx.catalogmanager.OmxCatalogManagerService;
 import org.molgenis.omx.config.DataExplorerConfig;
 import org.molgenis.omx.search.DataSetsIndexer;
 import org.molgenis.omx.studymanager.OmxStudyManagerService;
+import org.molgenis.search.SearchService;
 import org.molgenis.security.user.MolgenisUserService;
 import org.molgenis.studymanager.StudyManagerService;
 import org.molgenis.ui.MolgenisWebAppConfig;
@@ -42,6 +49,8 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 @Configuration
@@ -58,6 +67,39 @@ public class WebAppConfig extends MolgenisWebAppConfig
 	
 	@Value("${lifelines.study.definition.service.wsdl.url}")
 	private String studyDefinitionWsdlUrl;
+
+	@Value("${lifelines.catalog.load.batch.size:1000}")
+	private int catalogLoadBatchSize;
+
+	@Value("${lifelines.catalog.load.streaming:false}")
+	private boolean catalogLoadStreaming;
+
+	@Value("${lifelines.catalog.load.parallelism:1}")
+	private int catalogLoadParallelism;
+
+	@Value("${lifelines.catalog.load.threads:1}")
+	private int catalogLoadThreads;
+
+	@Value("${lifelines.catalog.index.async:true}")
+	private boolean catalogIndexAsync;
+
+	@Value("${lifelines.catalog.meta.cache.ttl:300000}")
+	private long catalogMetaCacheTtl;
+
+	@Value("${lifelines.catalog.cache.max.weight:500000}")
+	private long catalogCacheMaxWeight;
+
+	@Value("${lifelines.study.definition.retrieval.threads:4}")
+	private int studyDefinitionRetrievalThreads;
+
+	@Value("${lifelines.study.definition.retrieval.timeout:30000}")
+	private long studyDefinitionRetrievalTimeout;
+
+	@Value("${lifelines.study.definition.cache.ttl:60000}")
+	private long studyDefinitionCacheTtl;
+
+	@Value("${lifelines.study.definition.export.threads:2}")
+	private int studyDefinitionExportThreads;
 	
 	@Autowired
 	private DataService dataService;
@@ -68,6 +110,15 @@ public class WebAppConfig extends MolgenisWebAppConfig
 	@Autowired
 	private DataSetsIndexer dataSetsIndexer;
 
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private SearchService searchService;
+
+	private GenericLayerCatalogManagerService genericLayerCatalogManagerService;
+	private GenericLayerStudyManagerService genericLayerStudyManagerService;
+
 	@Bean
 	public HttpClient httpClient()
 	{
@@ -105,28 +156,109 @@ public class WebAppConfig extends MolgenisWebAppConfig
 	@Bean
 	public CatalogManagerService catalogManagerService() throws MalformedURLException
 	{
-		GenericLayerCatalogService genericLayerCatalogService = new CatalogService(new URL(catalogWsdlUrl))
-				.getBasicHttpBindingGenericLayerCatalogService();
-		GenericLayerCatalogManagerService genericLayerCatalogManagerService = new GenericLayerCatalogManagerService(
-				dataService, genericLayerCatalogService, dataSetsIndexer);
 		OmxCatalogManagerService omxCatalogManagerService = new OmxCatalogManagerService(dataService);
-		return new LifeLinesCatalogManagerService(omxCatalogManagerService, genericLayerCatalogManagerService,
+		return new LifeLinesCatalogManagerService(omxCatalogManagerService, genericLayerCatalogManagerService(),
 				dataService);
 	}
 
+	@Bean(destroyMethod = "shutdown")
+	public CatalogIndexer catalogIndexer()
+	{
+		return new CatalogIndexer(dataSetsIndexer);
+	}
+
 	@Bean
-	public StudyManagerService studyDefinitionManagerService() throws MalformedURLException
+	public CatalogLoadJobService catalogLoadJobService() throws MalformedURLException
 	{
-		GenericLayerStudyDefinitionService genericLayerStudyDefinitionService = new StudyDefinitionService(new URL(
-				studyDefinitionWsdlUrl)).getBasicHttpBindingGenericLayerStudyDefinitionService();
+		return new CatalogLoadJobService(catalogLoadJobExecutor());
+	}
 
-		GenericLayerStudyManagerService genericLayerStudyManagerService = new GenericLayerStudyManagerService(
-				genericLayerStudyDefinitionService, catalogManagerService(), genericLayerDataQueryService,
-				molgenisUserService, dataService);
+	@Bean
+	public CatalogLoadJobExecutor catalogLoadJobExecutor() throws MalformedURLException
+	{
+		return new CatalogLoadJobExecutor(genericLayerCatalogManagerService(), transactionManager);
+	}
+
+	/**
+	 * Bounds the number of catalogs that are loaded concurrently, further load jobs wait in the queue
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor catalogLoadTaskExecutor()
+	{
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(catalogLoadThreads);
+		taskExecutor.setMaxPoolSize(catalogLoadThreads);
+		taskExecutor.setThreadNamePrefix("catalog-load-");
+		return taskExecutor;
+	}
+
+	/**
+	 * Not a bean, it would be a second candidate for autowiring the catalog manager service
+	 */
+	private synchronized GenericLayerCatalogManagerService genericLayerCatalogManagerService()
+			throws MalformedURLException
+	{
+		if (genericLayerCatalogManagerService == null)
+		{
+			GenericLayerCatalogService genericLayerCatalogService = new CatalogService(new URL(catalogWsdlUrl))
+					.getBasicHttpBindingGenericLayerCatalogService();
+			genericLayerCatalogManagerService = new GenericLayerCatalogManagerService(dataService,
+					genericLayerCatalogService, dataSetsIndexer, searchService);
+			genericLayerCatalogManagerService.setBatchSize(catalogLoadBatchSize);
+			if (catalogLoadStreaming) genericLayerCatalogManagerService.setStreamingHttpClient(httpClient());
+			genericLayerCatalogManagerService.setConversionParallelism(catalogLoadParallelism);
+			if (catalogIndexAsync) genericLayerCatalogManagerService.setCatalogIndexer(catalogIndexer());
+			genericLayerCatalogManagerService.setCatalogMetaTimeToLive(catalogMetaCacheTtl);
+			genericLayerCatalogManagerService.setCatalogCacheMaximumWeight(catalogCacheMaxWeight);
+		}
+		return genericLayerCatalogManagerService;
+	}
+
+	/**
+	 * Bounds the number of concurrent Generic Layer calls when retrieving study definitions
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService studyDefinitionRetrievalExecutorService()
+	{
+		return Executors.newFixedThreadPool(studyDefinitionRetrievalThreads);
+	}
+
+	@Bean(destroyMethod = "shutdown", initMethod = "resumeExports")
+	public StudyDefinitionExportJobService studyDefinitionExportJobService() throws MalformedURLException
+	{
+		return new StudyDefinitionExportJobService(genericLayerStudyManagerService(), dataService, transactionManager,
+				studyDefinitionExportThreads);
+	}
+
+	@Bean
+	public StudyManagerService studyDefinitionManagerService() throws MalformedURLException
+	{
+		GenericLayerStudyManagerService genericLayerStudyManagerService = genericLayerStudyManagerService();
+		genericLayerStudyManagerService.setExportJobService(studyDefinitionExportJobService());
 
 		LifeLinesAppProfile lifeLinesAppProfile = appProfile != null ? LifeLinesAppProfile.valueOf(appProfile
 				.toUpperCase()) : LifeLinesAppProfile.WEBSITE;
 		return new LifeLinesStudyManagerService(new OmxStudyManagerService(dataService, molgenisUserService),
 				genericLayerStudyManagerService, lifeLinesAppProfile);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Not a bean, it would be a second candidate for autowiring the study manager service
+	 */
+	private synchronized GenericLayerStudyManagerService genericLayerStudyManagerService()
+			throws MalformedURLException
+	{
+		if (genericLayerStudyManagerService == null)
+		{
+			GenericLayerStudyDefinitionService genericLayerStudyDefinitionService = new StudyDefinitionService(
+					new URL(studyDefinitionWsdlUrl)).getBasicHttpBindingGenericLayerStudyDefinitionService();
+
+			genericLayerStudyManagerService = new GenericLayerStudyManagerService(genericLayerStudyDefinitionService,
+					catalogManagerService(), genericLayerDataQueryService, molgenisUserService, dataService);
+			genericLayerStudyManagerService.setExecutorService(studyDefinitionRetrievalExecutorService());
+			genericLayerStudyManagerService.setRetrievalTimeout(studyDefinitionRetrievalTimeout);
+			genericLayerStudyManagerService.setCacheTimeToLive(studyDefinitionCacheTtl);
+		}
+		return genericLayerStudyManagerService;
+	}
+}
@@ -0,0 +1,232 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Entity;
+import org.molgenis.data.support.QueryImpl;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+import org.molgenis.omx.observ.target.OntologyTerm;
+import org.molgenis.search.SearchService;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Deletes a catalog including its features, categories and units. Protocols, features and units that are shared with
+ * other catalogs (e.g. measurements reused by a delta load) are kept.
+ */
+class CatalogDeleter
+{
+	private static final Logger logger = Logger.getLogger(CatalogDeleter.class);
+
+	private final DataService dataService;
+	private final SearchService searchService;
+	private final int batchSize;
+
+	public CatalogDeleter(DataService dataService, SearchService searchService, int batchSize)
+	{
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.dataService = dataService;
+		this.searchService = searchService;
+		this.batchSize = batchSize;
+	}
+
+	public void delete(Protocol rootProtocol)
+	{
+		Map<Integer, Protocol> protocols = getProtocols(rootProtocol);
+		excludeSharedProtocols(rootProtocol, protocols);
+
+		Map<Integer, ObservableFeature> features = getFeatures(protocols.values());
+		excludeSharedFeatures(protocols, features);
+
+		List<Category> categories = new ArrayList<Category>();
+		for (List<ObservableFeature> featureBatch : Iterables.partition(features.values(), batchSize))
+		{
+			Iterables.addAll(categories, dataService.findAll(Category.ENTITY_NAME,
+					new QueryImpl().in(Category.OBSERVABLEFEATURE, featureBatch), Category.class));
+		}
+
+		Map<Integer, OntologyTerm> units = getUnits(features);
+
+		// delete referencing entities before the entities they reference
+		delete(Protocol.ENTITY_NAME, protocols.values());
+		delete(Category.ENTITY_NAME, categories);
+		delete(ObservableFeature.ENTITY_NAME, features.values());
+		delete(OntologyTerm.ENTITY_NAME, units.values());
+		logger.info("deleted " + protocols.size() + " protocols, " + features.size() + " features, "
+				+ categories.size() + " categories and " + units.size() + " units of catalog ["
+				+ rootProtocol.getIdentifier() + "]");
+
+		if (searchService != null)
+		{
+			searchService.deleteDocumentsByType(CatalogIndexer.getDocumentType(rootProtocol.getId()));
+		}
+	}
+
+	/**
+	 * Returns the given protocol and its descendants in breadth-first order. The protocols of each level of the tree
+	 * are retrieved together by id, the ids of the next level are taken from the subprotocols of the retrieved
+	 * protocols.
+	 */
+	private Map<Integer, Protocol> getProtocols(Protocol rootProtocol)
+	{
+		Map<Integer, Protocol> protocols = new LinkedHashMap<Integer, Protocol>();
+		Set<Integer> levelProtocolIds = Collections.singleton(rootProtocol.getId());
+		while (!levelProtocolIds.isEmpty())
+		{
+			Set<Integer> nextLevelProtocolIds = new LinkedHashSet<Integer>();
+			for (List<Integer> protocolIdBatch : Iterables.partition(levelProtocolIds, batchSize))
+			{
+				Iterable<Protocol> levelProtocols = dataService.findAll(Protocol.ENTITY_NAME,
+						new QueryImpl().in(Protocol.ID, protocolIdBatch), Protocol.class);
+				for (Protocol protocol : levelProtocols)
+				{
+					protocols.put(protocol.getId(), protocol);
+					List<Protocol> subprotocols = protocol.getSubprotocols();
+					if (subprotocols == null) continue;
+					for (Protocol subprotocol : subprotocols)
+					{
+						nextLevelProtocolIds.add(subprotocol.getId());
+					}
+				}
+			}
+			nextLevelProtocolIds.removeAll(protocols.keySet());
+			levelProtocolIds = nextLevelProtocolIds;
+		}
+		return protocols;
+	}
+
+	/**
+	 * Removes protocols from the given protocols that are also a subprotocol of a protocol that is not deleted
+	 */
+	private void excludeSharedProtocols(Protocol rootProtocol, Map<Integer, Protocol> protocols)
+	{
+		while (true)
+		{
+			List<Protocol> sharedProtocols = new ArrayList<Protocol>();
+			for (List<Protocol> protocolBatch : Iterables.partition(protocols.values(), batchSize))
+			{
+				Iterable<Protocol> parentProtocols = dataService.findAll(Protocol.ENTITY_NAME,
+						new QueryImpl().in(Protocol.SUBPROTOCOLS, protocolBatch), Protocol.class);
+				for (Protocol parentProtocol : parentProtocols)
+				{
+					if (protocols.containsKey(parentProtocol.getId())) continue;
+					for (Protocol subprotocol : parentProtocol.getSubprotocols())
+					{
+						if (protocols.containsKey(subprotocol.getId())) sharedProtocols.add(subprotocol);
+					}
+				}
+			}
+			if (sharedProtocols.isEmpty()) return;
+
+			// descendants of a shared protocol remain reachable and are shared as well
+			for (Protocol sharedProtocol : sharedProtocols)
+			{
+				if (sharedProtocol.getId().equals(rootProtocol.getId()))
+				{
+					throw new RuntimeException("Catalog [" + rootProtocol.getIdentifier()
+							+ "] is a subprotocol of another protocol");
+				}
+				protocols.keySet().removeAll(getProtocols(sharedProtocol).keySet());
+			}
+		}
+	}
+
+	/**
+	 * Returns the features of the given protocols, retrieved together by id
+	 */
+	private Map<Integer, ObservableFeature> getFeatures(Collection<Protocol> protocols)
+	{
+		Set<Integer> featureIds = new LinkedHashSet<Integer>();
+		for (Protocol protocol : protocols)
+		{
+			List<ObservableFeature> protocolFeatures = protocol.getFeatures();
+			if (protocolFeatures == null) continue;
+			for (ObservableFeature feature : protocolFeatures)
+			{
+				featureIds.add(feature.getId());
+			}
+		}
+
+		Map<Integer, ObservableFeature> features = new LinkedHashMap<Integer, ObservableFeature>();
+		for (List<Integer> featureIdBatch : Iterables.partition(featureIds, batchSize))
+		{
+			Iterable<ObservableFeature> batchFeatures = dataService.findAll(ObservableFeature.ENTITY_NAME,
+					new QueryImpl().in(ObservableFeature.ID, featureIdBatch), ObservableFeature.class);
+			for (ObservableFeature feature : batchFeatures)
+			{
+				features.put(feature.getId(), feature);
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Removes features from the given features that are also a feature of a protocol that is not deleted
+	 */
+	private void excludeSharedFeatures(Map<Integer, Protocol> protocols, Map<Integer, ObservableFeature> features)
+	{
+		List<Integer> sharedFeatureIds = new ArrayList<Integer>();
+		for (List<ObservableFeature> featureBatch : Iterables.partition(features.values(), batchSize))
+		{
+			Iterable<Protocol> featureProtocols = dataService.findAll(Protocol.ENTITY_NAME,
+					new QueryImpl().in(Protocol.FEATURES, featureBatch), Protocol.class);
+			for (Protocol featureProtocol : featureProtocols)
+			{
+				if (protocols.containsKey(featureProtocol.getId())) continue;
+				for (ObservableFeature feature : featureProtocol.getFeatures())
+				{
+					if (features.containsKey(feature.getId())) sharedFeatureIds.add(feature.getId());
+				}
+			}
+		}
+		features.keySet().removeAll(sharedFeatureIds);
+	}
+
+	/**
+	 * Returns the units of the given features that are not the unit of any other feature
+	 */
+	private Map<Integer, OntologyTerm> getUnits(Map<Integer, ObservableFeature> features)
+	{
+		Map<Integer, OntologyTerm> units = new LinkedHashMap<Integer, OntologyTerm>();
+		for (ObservableFeature feature : features.values())
+		{
+			OntologyTerm unit = feature.getUnit();
+			if (unit != null) units.put(unit.getId(), unit);
+		}
+
+		List<Integer> sharedUnitIds = new ArrayList<Integer>();
+		for (List<OntologyTerm> unitBatch : Iterables.partition(new ArrayList<OntologyTerm>(units.values()),
+				batchSize))
+		{
+			Iterable<ObservableFeature> unitFeatures = dataService.findAll(ObservableFeature.ENTITY_NAME,
+					new QueryImpl().in(ObservableFeature.UNIT, unitBatch), ObservableFeature.class);
+			for (ObservableFeature unitFeature : unitFeatures)
+			{
+				if (!features.containsKey(unitFeature.getId())) sharedUnitIds.add(unitFeature.getUnit().getId());
+			}
+		}
+		units.keySet().removeAll(sharedUnitIds);
+		return units;
+	}
+
+	private void delete(String entityName, Collection<? extends Entity> entities)
+	{
+		for (List<? extends Entity> entityBatch : Iterables.partition(entities, batchSize))
+		{
+			dataService.delete(entityName, entityBatch);
+			dataService.getCrudRepository(entityName).flush();
+		}
+	}
+}
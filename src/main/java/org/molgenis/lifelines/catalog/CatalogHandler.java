@@ -0,0 +1,27 @@
+package org.molgenis.lifelines.catalog;
+
+import org.hl7.v3.CD;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+/**
+ * Receives the organizers of a Generic Layer catalog in document order. A catalog either consists of one data source
+ * (cohorts containing measurements) or of one or more generic organizers.
+ */
+interface CatalogHandler
+{
+	void startDataSource(CD code, boolean available);
+
+	void startCohort(CD code, boolean available);
+
+	void measurement(REPCMT000100UV01Organizer measurementOrganizer);
+
+	void endCohort();
+
+	void endDataSource();
+
+	void startGeneric(CD code, boolean available);
+
+	void genericOrganizer(REPCMT000100UV01Organizer organizer);
+
+	void endGeneric();
+}
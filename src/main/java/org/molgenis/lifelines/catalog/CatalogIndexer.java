@@ -0,0 +1,99 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.molgenis.omx.search.DataSetsIndexer;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Indexes catalogs on a background thread once the transaction that wrote them is committed. Index requests for a
+ * catalog that is already waiting to be indexed are ignored.
+ */
+public class CatalogIndexer
+{
+	private static final Logger logger = Logger.getLogger(CatalogIndexer.class);
+
+	/**
+	 * Prefix of the type of the search documents that {@link DataSetsIndexer#indexProtocolsSynced(java.util.List)}
+	 * writes for a protocol tree, followed by the id of the root protocol
+	 */
+	private static final String PROTOCOL_TREE_DOCUMENT_TYPE_PREFIX = "protocolTree-";
+
+	private final DataSetsIndexer dataSetsIndexer;
+	private final ExecutorService executorService;
+	private final Set<Integer> queuedProtocolIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	public CatalogIndexer(DataSetsIndexer dataSetsIndexer)
+	{
+		if (dataSetsIndexer == null) throw new IllegalArgumentException("dataSetsIndexer is null");
+		this.dataSetsIndexer = dataSetsIndexer;
+		this.executorService = Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Index the catalog with the given root protocol id after the current transaction commits, or immediately if there
+	 * is no transaction
+	 */
+	public void index(final Integer rootProtocolId)
+	{
+		if (TransactionSynchronizationManager.isSynchronizationActive())
+		{
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+			{
+				@Override
+				public void afterCommit()
+				{
+					submit(rootProtocolId);
+				}
+			});
+		}
+		else
+		{
+			submit(rootProtocolId);
+		}
+	}
+
+	/**
+	 * Returns the type of the search documents of the catalog with the given root protocol id
+	 */
+	public static String getDocumentType(Integer rootProtocolId)
+	{
+		return PROTOCOL_TREE_DOCUMENT_TYPE_PREFIX + rootProtocolId;
+	}
+
+	public void shutdown()
+	{
+		executorService.shutdown();
+	}
+
+	private void submit(final Integer rootProtocolId)
+	{
+		if (!queuedProtocolIds.add(rootProtocolId)) return;
+		executorService.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// requests received from here on are for changes this run might not see
+				queuedProtocolIds.remove(rootProtocolId);
+				try
+				{
+					long startTime = System.currentTimeMillis();
+					dataSetsIndexer.indexProtocolsSynced(Collections.<Object> singletonList(rootProtocolId));
+					logger.info("indexed catalog protocol [" + rootProtocolId + "] in "
+							+ (System.currentTimeMillis() - startTime) + " ms");
+				}
+				catch (RuntimeException e)
+				{
+					logger.error("failed to index catalog protocol [" + rootProtocolId + "]", e);
+				}
+			}
+		});
+	}
+}
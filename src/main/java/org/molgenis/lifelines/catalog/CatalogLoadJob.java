@@ -0,0 +1,116 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a catalog load running in the background. Updated by the loading thread, read by any thread.
+ */
+public class CatalogLoadJob implements CatalogLoadMonitor
+{
+	public enum Status
+	{
+		QUEUED, RUNNING, FINISHED, FAILED
+	}
+
+	private final String catalogId;
+	private final Date submitDate;
+	private volatile Status status;
+	private volatile long startTime;
+	private volatile long endTime;
+	private volatile String errorMessage;
+	private final AtomicInteger nrLoadedMeasurements = new AtomicInteger();
+	private final AtomicInteger nrLoadedCohorts = new AtomicInteger();
+	private final AtomicLong nrConvertedItems = new AtomicLong();
+
+	public CatalogLoadJob(String catalogId)
+	{
+		if (catalogId == null) throw new IllegalArgumentException("catalogId is null");
+		this.catalogId = catalogId;
+		this.submitDate = new Date();
+		this.status = Status.QUEUED;
+	}
+
+	public String getCatalogId()
+	{
+		return catalogId;
+	}
+
+	public Date getSubmitDate()
+	{
+		return submitDate;
+	}
+
+	public Status getStatus()
+	{
+		return status;
+	}
+
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	public int getNrLoadedMeasurements()
+	{
+		return nrLoadedMeasurements.get();
+	}
+
+	public int getNrLoadedCohorts()
+	{
+		return nrLoadedCohorts.get();
+	}
+
+	public long getNrConvertedItems()
+	{
+		return nrConvertedItems.get();
+	}
+
+	/**
+	 * Returns the number of items converted per second since the job started running
+	 */
+	public double getItemsPerSecond()
+	{
+		if (startTime == 0) return 0;
+		long duration = (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+		return duration > 0 ? nrConvertedItems.get() * 1000d / duration : 0;
+	}
+
+	public boolean isDone()
+	{
+		return status == Status.FINISHED || status == Status.FAILED;
+	}
+
+	void started()
+	{
+		startTime = System.currentTimeMillis();
+		status = Status.RUNNING;
+	}
+
+	void finished()
+	{
+		endTime = System.currentTimeMillis();
+		status = Status.FINISHED;
+	}
+
+	void failed(String errorMessage)
+	{
+		endTime = System.currentTimeMillis();
+		this.errorMessage = errorMessage;
+		status = Status.FAILED;
+	}
+
+	@Override
+	public void measurementLoaded(int nrEntities)
+	{
+		nrLoadedMeasurements.incrementAndGet();
+		nrConvertedItems.addAndGet(nrEntities);
+	}
+
+	@Override
+	public void cohortLoaded(String cohortIdentifier)
+	{
+		nrLoadedCohorts.incrementAndGet();
+	}
+}
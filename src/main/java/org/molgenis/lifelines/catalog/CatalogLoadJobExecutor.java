@@ -0,0 +1,108 @@
+package org.molgenis.lifelines.catalog;
+
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Runs catalog load jobs in the background. Each cohort is committed in its own transaction, so that a failed load can
+ * be resumed by running the job again or unloaded. Jobs run on the bounded catalogLoadTaskExecutor of the application
+ * configuration.
+ */
+public class CatalogLoadJobExecutor
+{
+	private static final Logger logger = Logger.getLogger(CatalogLoadJobExecutor.class);
+
+	private final GenericLayerCatalogManagerService genericLayerCatalogManagerService;
+	private final PlatformTransactionManager transactionManager;
+
+	public CatalogLoadJobExecutor(GenericLayerCatalogManagerService genericLayerCatalogManagerService,
+			PlatformTransactionManager transactionManager)
+	{
+		if (genericLayerCatalogManagerService == null)
+		{
+			throw new IllegalArgumentException("genericLayerCatalogManagerService is null");
+		}
+		if (transactionManager == null) throw new IllegalArgumentException("transactionManager is null");
+		this.genericLayerCatalogManagerService = genericLayerCatalogManagerService;
+		this.transactionManager = transactionManager;
+	}
+
+	@Async("catalogLoadTaskExecutor")
+	public void execute(CatalogLoadJob catalogLoadJob)
+	{
+		String catalogId = catalogLoadJob.getCatalogId();
+		catalogLoadJob.started();
+
+		CohortCommitter cohortCommitter = new CohortCommitter(catalogLoadJob);
+		try
+		{
+			if (!genericLayerCatalogManagerService.isCatalogLoaded(catalogId))
+			{
+				cohortCommitter.begin();
+				genericLayerCatalogManagerService.loadCatalogWithMonitor(catalogId, cohortCommitter);
+				cohortCommitter.commit();
+			}
+			catalogLoadJob.finished();
+			logger.info("loaded catalog [" + catalogId + "] at " + catalogLoadJob.getItemsPerSecond()
+					+ " items per second");
+		}
+		catch (Exception e)
+		{
+			cohortCommitter.rollback();
+			logger.error("failed to load catalog [" + catalogId + "]", e);
+			catalogLoadJob.failed(e.getMessage());
+		}
+	}
+
+	/**
+	 * Commits the current transaction after each loaded cohort and starts a new one
+	 */
+	private class CohortCommitter implements CatalogLoadMonitor
+	{
+		private final CatalogLoadMonitor catalogLoadMonitor;
+		private TransactionStatus transactionStatus;
+
+		public CohortCommitter(CatalogLoadMonitor catalogLoadMonitor)
+		{
+			this.catalogLoadMonitor = catalogLoadMonitor;
+		}
+
+		public void begin()
+		{
+			transactionStatus = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		}
+
+		public void commit()
+		{
+			TransactionStatus committedTransactionStatus = transactionStatus;
+			transactionStatus = null;
+			transactionManager.commit(committedTransactionStatus);
+		}
+
+		public void rollback()
+		{
+			if (transactionStatus != null && !transactionStatus.isCompleted())
+			{
+				transactionManager.rollback(transactionStatus);
+			}
+			transactionStatus = null;
+		}
+
+		@Override
+		public void measurementLoaded(int nrEntities)
+		{
+			catalogLoadMonitor.measurementLoaded(nrEntities);
+		}
+
+		@Override
+		public void cohortLoaded(String cohortIdentifier)
+		{
+			commit();
+			catalogLoadMonitor.cohortLoaded(cohortIdentifier);
+			begin();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Submits catalog loads to be executed in the background and keeps track of their progress. At most one load per
+ * catalog runs at a time.
+ */
+public class CatalogLoadJobService
+{
+	private final CatalogLoadJobExecutor catalogLoadJobExecutor;
+	private final ConcurrentMap<String, CatalogLoadJob> catalogLoadJobs = new ConcurrentHashMap<String, CatalogLoadJob>();
+
+	public CatalogLoadJobService(CatalogLoadJobExecutor catalogLoadJobExecutor)
+	{
+		if (catalogLoadJobExecutor == null) throw new IllegalArgumentException("catalogLoadJobExecutor is null");
+		this.catalogLoadJobExecutor = catalogLoadJobExecutor;
+	}
+
+	/**
+	 * Starts loading the given catalog, resuming a previously failed load. Returns the running job if the catalog is
+	 * already being loaded.
+	 */
+	public CatalogLoadJob loadCatalog(String catalogId)
+	{
+		CatalogLoadJob catalogLoadJob = new CatalogLoadJob(catalogId);
+		CatalogLoadJob previousCatalogLoadJob = catalogLoadJobs.putIfAbsent(catalogId, catalogLoadJob);
+		while (previousCatalogLoadJob != null)
+		{
+			if (!previousCatalogLoadJob.isDone()) return previousCatalogLoadJob;
+			if (catalogLoadJobs.replace(catalogId, previousCatalogLoadJob, catalogLoadJob)) break;
+			previousCatalogLoadJob = catalogLoadJobs.putIfAbsent(catalogId, catalogLoadJob);
+		}
+		catalogLoadJobExecutor.execute(catalogLoadJob);
+		return catalogLoadJob;
+	}
+
+	/**
+	 * Returns the most recent load job of the given catalog or null if the catalog was not loaded in the background
+	 */
+	public CatalogLoadJob getCatalogLoadJob(String catalogId)
+	{
+		return catalogLoadJobs.get(catalogId);
+	}
+}
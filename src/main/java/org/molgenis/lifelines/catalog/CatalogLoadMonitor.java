@@ -0,0 +1,21 @@
+package org.molgenis.lifelines.catalog;
+
+/**
+ * Receives progress notifications while a catalog is being loaded. Notifications are sent by the thread loading the
+ * catalog.
+ */
+public interface CatalogLoadMonitor
+{
+	/**
+	 * Called after the entities of a measurement are passed to the database writer
+	 * 
+	 * @param nrEntities
+	 *            number of converted entities, zero if an existing measurement was reused
+	 */
+	void measurementLoaded(int nrEntities);
+
+	/**
+	 * Called after a cohort and all of its measurements are written to the database
+	 */
+	void cohortLoaded(String cohortIdentifier);
+}
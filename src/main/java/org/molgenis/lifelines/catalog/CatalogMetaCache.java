@@ -0,0 +1,78 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.catalog.CatalogMeta;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Keeps the catalog release metadata retrieved from the catalog service for a limited time. Thread-safe.
+ */
+class CatalogMetaCache
+{
+	private final Supplier<List<CatalogMeta>> catalogMetaSupplier;
+	private final long timeToLiveMillis;
+
+	private volatile Map<String, CatalogMeta> catalogMetas;
+	private volatile long expirationTime;
+
+	/**
+	 * @param catalogMetaSupplier
+	 *            retrieves the catalog release metadata from the catalog service
+	 * @param timeToLiveMillis
+	 *            time after which retrieved metadata is retrieved again, 0 disables caching
+	 */
+	public CatalogMetaCache(Supplier<List<CatalogMeta>> catalogMetaSupplier, long timeToLiveMillis)
+	{
+		if (catalogMetaSupplier == null) throw new IllegalArgumentException("catalogMetaSupplier is null");
+		if (timeToLiveMillis < 0) throw new IllegalArgumentException("timeToLiveMillis must be zero or greater");
+		this.catalogMetaSupplier = catalogMetaSupplier;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	public Iterable<CatalogMeta> getCatalogMetas()
+	{
+		return getCatalogMetaMap().values();
+	}
+
+	/**
+	 * Returns the metadata of the catalog release with the given id or null if the catalog release does not exist
+	 */
+	public CatalogMeta getCatalogMeta(String id)
+	{
+		return getCatalogMetaMap().get(id);
+	}
+
+	public void invalidate()
+	{
+		catalogMetas = null;
+	}
+
+	private Map<String, CatalogMeta> getCatalogMetaMap()
+	{
+		Map<String, CatalogMeta> currentCatalogMetas = catalogMetas;
+		if (currentCatalogMetas != null && System.currentTimeMillis() < expirationTime) return currentCatalogMetas;
+
+		synchronized (this)
+		{
+			// another thread might have retrieved the metadata while waiting
+			currentCatalogMetas = catalogMetas;
+			if (currentCatalogMetas != null && System.currentTimeMillis() < expirationTime) return currentCatalogMetas;
+
+			Map<String, CatalogMeta> newCatalogMetas = new LinkedHashMap<String, CatalogMeta>();
+			for (CatalogMeta catalogMeta : catalogMetaSupplier.get())
+			{
+				newCatalogMetas.put(catalogMeta.getId(), catalogMeta);
+			}
+			newCatalogMetas = Collections.unmodifiableMap(newCatalogMetas);
+
+			expirationTime = System.currentTimeMillis() + timeToLiveMillis;
+			catalogMetas = newCatalogMetas;
+			return newCatalogMetas;
+		}
+	}
+}
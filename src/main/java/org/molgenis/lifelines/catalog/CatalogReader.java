@@ -0,0 +1,9 @@
+package org.molgenis.lifelines.catalog;
+
+/**
+ * Reads a Generic Layer catalog and reports its organizers to a {@link CatalogHandler}
+ */
+interface CatalogReader
+{
+	void read(CatalogHandler catalogHandler);
+}
@@ -1,11 +1,17 @@
 package org.molgenis.lifelines.catalog;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import nl.umcg.hl7.service.catalog.CatalogService;
 import nl.umcg.hl7.service.catalog.GenericLayerCatalogService;
@@ -15,6 +21,7 @@ import nl.umcg.hl7.service.catalog.GenericLayerCatalogServiceGetValueSetsFAULTFa
 import nl.umcg.hl7.service.catalog.GetCatalogReleasesResponse;
 import nl.umcg.hl7.service.catalog.HumanLanguage;
 
+import org.apache.http.client.HttpClient;
 import org.apache.log4j.Logger;
 import org.hl7.v3.ANY;
 import org.hl7.v3.ArrayOfXElement;
@@ -44,48 +51,146 @@ import org.molgenis.catalog.UnknownCatalogException;
 import org.molgenis.catalogmanager.CatalogManagerService;
 import org.molgenis.data.DataService;
 import org.molgenis.data.support.QueryImpl;
+import org.molgenis.lifelines.utils.BatchingEntityWriter;
+import org.molgenis.lifelines.utils.EntityBuffer;
+import org.molgenis.lifelines.utils.EntityWriter;
 import org.molgenis.lifelines.utils.MeasurementIdConverter;
 import org.molgenis.lifelines.utils.ObservationIdConverter;
 import org.molgenis.omx.catalogmanager.OmxCatalog;
+import org.molgenis.omx.core.RuntimeProperty;
 import org.molgenis.omx.observ.Category;
 import org.molgenis.omx.observ.ObservableFeature;
 import org.molgenis.omx.observ.Protocol;
 import org.molgenis.omx.observ.target.OntologyTerm;
 import org.molgenis.omx.search.DataSetsIndexer;
 import org.molgenis.omx.study.StudyDataRequest;
-import org.molgenis.omx.utils.ProtocolUtils;
+import org.molgenis.search.SearchService;
 import org.molgenis.study.UnknownStudyDefinitionException;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 
 public class GenericLayerCatalogManagerService implements CatalogManagerService
 {
 	private static final Logger logger = Logger.getLogger(GenericLayerCatalogManagerService.class);
 
+	private static final int MAX_PENDING_MEASUREMENTS_PER_THREAD = 4;
+	private static final long DEFAULT_CATALOG_META_TIME_TO_LIVE = 5 * 60 * 1000;
+	private static final long DEFAULT_CATALOG_CACHE_MAXIMUM_WEIGHT = 500000;
+	private static final String RUNTIME_PROPERTY_CATALOG_LOAD_PREFIX = "CatalogLoad_";
+
 	private final DataService dataService;
 	private final GenericLayerCatalogService genericLayerCatalogService;
 	private final DataSetsIndexer dataSetsIndexer;
+	private final SearchService searchService;
+	private int batchSize = BatchingEntityWriter.DEFAULT_BATCH_SIZE;
+	private HttpClient streamingHttpClient;
+	private ForkJoinPool conversionPool;
+	private CatalogIndexer catalogIndexer;
+	private CatalogMetaCache catalogMetaCache;
+	private OrganizerCatalogCache organizerCatalogCache;
 
 	public GenericLayerCatalogManagerService(DataService dataService,
-			GenericLayerCatalogService genericLayerCatalogService, DataSetsIndexer dataSetsIndexer)
+			GenericLayerCatalogService genericLayerCatalogService, DataSetsIndexer dataSetsIndexer,
+			SearchService searchService)
 	{
 		if (dataService == null) throw new IllegalArgumentException("dataService is null");
 		if (genericLayerCatalogService == null) throw new IllegalArgumentException("genericLayerCatalogService is null");
 		this.dataService = dataService;
 		this.genericLayerCatalogService = genericLayerCatalogService;
 		this.dataSetsIndexer = dataSetsIndexer;
+		this.searchService = searchService;
+		setCatalogMetaTimeToLive(DEFAULT_CATALOG_META_TIME_TO_LIVE);
+		setCatalogCacheMaximumWeight(DEFAULT_CATALOG_CACHE_MAXIMUM_WEIGHT);
+	}
+
+	/**
+	 * Sets the number of entities that are written to the database at once when loading a catalog
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Enables streaming ingestion of catalog releases: the catalog service response is read with a pull parser using
+	 * the given http client instead of being unmarshalled as a whole. Passing null disables streaming ingestion.
+	 */
+	public void setStreamingHttpClient(HttpClient streamingHttpClient)
+	{
+		this.streamingHttpClient = streamingHttpClient;
+	}
+
+	/**
+	 * Sets the number of threads used to convert the measurements of a data source catalog. Converted measurements are
+	 * written to the database by the thread loading the catalog.
+	 */
+	public void setConversionParallelism(int parallelism)
+	{
+		if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be greater than 0");
+		if (conversionPool != null) conversionPool.shutdown();
+		conversionPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	/**
+	 * Indexes loaded catalogs in the background after the load is committed instead of during the load. Passing null
+	 * indexes catalogs during the load.
+	 */
+	public void setCatalogIndexer(CatalogIndexer catalogIndexer)
+	{
+		this.catalogIndexer = catalogIndexer;
+	}
+
+	/**
+	 * Sets the time in milliseconds that catalog release metadata retrieved from the catalog service is reused, 0
+	 * retrieves the metadata on every request
+	 */
+	public void setCatalogMetaTimeToLive(long timeToLiveMillis)
+	{
+		catalogMetaCache = new CatalogMetaCache(new Supplier<List<CatalogMeta>>()
+		{
+			@Override
+			public List<CatalogMeta> get()
+			{
+				return retrieveCatalogs();
+			}
+		}, timeToLiveMillis);
+	}
+
+	/**
+	 * Sets the maximum total number of organizers and observations of the catalog trees that are kept in memory for
+	 * browsing catalogs that are not loaded
+	 */
+	public void setCatalogCacheMaximumWeight(long maximumWeight)
+	{
+		organizerCatalogCache = new OrganizerCatalogCache(new Function<String, OrganizerCatalog>()
+		{
+			@Override
+			public OrganizerCatalog apply(String catalogReleaseId)
+			{
+				REPCMT000100UV01Organizer catalog = retrieveCatalog(catalogReleaseId, null, true);
+				return new OrganizerCatalog(catalog, catalogMetaCache.getCatalogMeta(catalogReleaseId));
+			}
+		}, maximumWeight);
 	}
 
 	@Override
 	public Iterable<CatalogMeta> getCatalogs()
+	{
+		return catalogMetaCache.getCatalogMetas();
+	}
+
+	private List<CatalogMeta> retrieveCatalogs()
 	{
 		try
 		{
 			GetCatalogReleasesResponse catalogReleases = genericLayerCatalogService.getCatalogReleases();
-			return convertCatalogReleases(catalogReleases);
+			return Lists.newArrayList(convertCatalogReleases(catalogReleases));
 		}
 		catch (GenericLayerCatalogServiceGetCatalogReleasesFAULTFaultMessage e)
 		{
@@ -97,19 +202,11 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 	@Override
 	public Catalog getCatalog(String id) throws UnknownCatalogException
 	{
-		CatalogMeta catalogMeta = null;
-		for (CatalogMeta aCatalogMeta : getCatalogs())
+		if (catalogMetaCache.getCatalogMeta(id) == null)
 		{
-			if (aCatalogMeta.getId().equals(id))
-			{
-				catalogMeta = aCatalogMeta;
-				break;
-			}
+			throw new UnknownCatalogException("Unknown catalog id [" + id + "]");
 		}
-		if (catalogMeta == null) throw new UnknownCatalogException("Unknown catalog id [" + id + "]");
-
-		REPCMT000100UV01Organizer catalog = retrieveCatalog(id, null, true);
-		return new OrganizerCatalog(catalog, catalogMeta);
+		return organizerCatalogCache.getCatalog(id);
 	}
 
 	@Override
@@ -140,74 +237,134 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		loadCatalog(null, id);
 	}
 
+	/**
+	 * Loads a catalog release reusing the measurements of a previously loaded catalog release that did not change.
+	 * Measurements that were added or changed are written as part of the new release. Reused measurements keep the
+	 * identifiers of the previous release and are shared by both releases, unloading one release keeps them for the
+	 * other. Measurements that were removed stay part of the previous release only and are deleted when it is unloaded.
+	 */
+	@Transactional
+	public void loadCatalogDelta(String id, String previousId) throws UnknownCatalogException
+	{
+		if (!isCatalogLoaded(previousId, null))
+		{
+			throw new UnknownCatalogException("Catalog [" + previousId + "] is not loaded");
+		}
+		loadCatalog(id, null, previousId);
+	}
+
+	/**
+	 * Loads a catalog release reporting progress to the given monitor. The monitor is notified after each cohort is
+	 * written so that it can commit the cohort, cohorts that were written by an interrupted load are not loaded again.
+	 * The root protocol is written before the first cohort and refers to each written cohort, it stays inactive until
+	 * the load finished. Until then the catalog is not loaded, but it can be unloaded including its written cohorts.
+	 */
+	public void loadCatalogWithMonitor(String id, CatalogLoadMonitor catalogLoadMonitor)
+	{
+		if (catalogLoadMonitor == null) throw new IllegalArgumentException("catalogLoadMonitor is null");
+		loadCatalog(id, null, null, catalogLoadMonitor);
+	}
+
 	private void loadCatalog(String catalogReleaseId, String studyDefinitionId)
 	{
+		loadCatalog(catalogReleaseId, studyDefinitionId, null);
+	}
+
+	private void loadCatalog(String catalogReleaseId, String studyDefinitionId, String previousCatalogReleaseId)
+	{
+		loadCatalog(catalogReleaseId, studyDefinitionId, previousCatalogReleaseId, null);
+	}
+
+	private void loadCatalog(String catalogReleaseId, String studyDefinitionId, String previousCatalogReleaseId,
+			CatalogLoadMonitor catalogLoadMonitor)
+	{
+		catalogMetaCache.invalidate();
 		boolean useOntology = true;
 		Map<String, List<Code>> valueSetsIndex = createValueSetsIndex(catalogReleaseId, studyDefinitionId);
-		REPCMT000100UV01Organizer catalog = retrieveCatalog(catalogReleaseId, studyDefinitionId, useOntology);
+		CatalogReader catalogReader = createCatalogReader(catalogReleaseId, studyDefinitionId, useOntology);
 
-		// create catalog root protocol
-		Protocol rootProtocol = new Protocol();
-		rootProtocol.setIdentifier(getCatalogIdentifier(catalogReleaseId, studyDefinitionId));
-		rootProtocol.setName("LifeLines");
-		rootProtocol.setRoot(true);
-		rootProtocol.setActive(true);
+		// referenced entities are written before the entities referencing them
+		BatchingEntityWriter entityWriter = new BatchingEntityWriter(dataService, batchSize, OntologyTerm.ENTITY_NAME,
+				ObservableFeature.ENTITY_NAME, Category.ENTITY_NAME, Protocol.ENTITY_NAME);
 
-		List<Protocol> subprotocols = new ArrayList<Protocol>();
-		for (REPCMT000100UV01Component3 component : catalog.getComponent())
+		// create catalog root protocol or continue with the root protocol of an interrupted load
+		String catalogIdentifier = getCatalogIdentifier(catalogReleaseId, studyDefinitionId);
+		RuntimeProperty catalogLoadProperty = findCatalogLoadProperty(catalogIdentifier);
+		Protocol rootProtocol = catalogLoadProperty != null ? dataService.findOne(Protocol.ENTITY_NAME,
+				new QueryImpl().eq(Protocol.IDENTIFIER, catalogIdentifier), Protocol.class) : null;
+		boolean rootProtocolPersisted = rootProtocol != null;
+		if (!rootProtocolPersisted)
 		{
-			REPCMT000100UV01Organizer organizer = component.getOrganizer().getValue();
-			String code = organizer.getCode().getCode();
-
-			if (code.equals("Generic"))
+			rootProtocol = new Protocol();
+			rootProtocol.setIdentifier(catalogIdentifier);
+			rootProtocol.setName("LifeLines");
+			rootProtocol.setRoot(true);
+			rootProtocol.setActive(true);
+		}
+		if (catalogLoadMonitor != null && !rootProtocolPersisted)
+		{
+			// cohorts committed by the monitor are reachable from the root protocol if the load is never resumed
+			rootProtocol.setActive(false);
+			entityWriter.add(Protocol.ENTITY_NAME, rootProtocol);
+			entityWriter.flush();
+			rootProtocolPersisted = true;
+			if (catalogLoadProperty == null)
 			{
-				Protocol genericProtocol = new Protocol();
-				genericProtocol.setIdentifier(UUID.randomUUID().toString());
-				genericProtocol.setName(code);
-				genericProtocol.setActive(isAvailable(organizer));
-
-				List<Protocol> genericSubprotocols = new ArrayList<Protocol>();
-				if (organizer.getComponent() != null)
-				{
-					for (REPCMT000100UV01Component3 genericComponent : organizer.getComponent())
-					{
-						Protocol protocol = parseGenericCatalogOrganizer(genericComponent.getOrganizer().getValue(),
-								useOntology, valueSetsIndex);
-						genericSubprotocols.add(protocol);
-					}
-				}
-				if (!genericSubprotocols.isEmpty()) genericProtocol.setSubprotocols(genericSubprotocols);
-				subprotocols.add(genericProtocol);
-				dataService.add(Protocol.ENTITY_NAME, genericProtocol);
+				catalogLoadProperty = new RuntimeProperty();
+				catalogLoadProperty.setIdentifier(RUNTIME_PROPERTY_CATALOG_LOAD_PREFIX + catalogIdentifier);
+				catalogLoadProperty.setName(catalogIdentifier);
+				catalogLoadProperty.setValue(catalogIdentifier);
+				dataService.add(RuntimeProperty.ENTITY_NAME, catalogLoadProperty);
 			}
-			else
-			{
-				if (catalog.getComponent().size() != 1)
-				{
-					throw new RuntimeException("Expected exactly one catalog component for code != Generic");
-				}
-				rootProtocol.setName(code);
+		}
 
-				List<Protocol> dataSourceSubprotocols = new ArrayList<Protocol>();
-				if (organizer.getComponent() != null)
-				{
-					for (REPCMT000100UV01Component3 dataSourceComponent : organizer.getComponent())
-					{
-						Protocol protocol = parseDataSourceCatalogOrganizer(dataSourceComponent.getOrganizer()
-								.getValue(), useOntology, valueSetsIndex, catalogReleaseId);
-						dataSourceSubprotocols.add(protocol);
-					}
-				}
-				if (!dataSourceSubprotocols.isEmpty()) rootProtocol.setSubprotocols(dataSourceSubprotocols);
-			}
+		UnitOntologyTermCache unitOntologyTermCache = new UnitOntologyTermCache(dataService);
+		CatalogLoader catalogLoader = new CatalogLoader(rootProtocol, useOntology, valueSetsIndex,
+				unitOntologyTermCache, catalogReleaseId, entityWriter, conversionPool);
+		if (previousCatalogReleaseId != null)
+		{
+			catalogLoader.setPreviousCatalogRelease(previousCatalogReleaseId, new ProtocolTreeComparator(dataService));
 		}
-		if (!subprotocols.isEmpty()) rootProtocol.setSubprotocols(subprotocols);
+		catalogLoader.setCatalogLoadMonitor(catalogLoadMonitor);
+		catalogLoader.setRootProtocolPersisted(rootProtocolPersisted);
+		catalogLoader.setReleaseWrittenCohorts(catalogReader instanceof StreamingCatalogReader);
+		catalogReader.read(catalogLoader);
 
-		dataService.add(Protocol.ENTITY_NAME, rootProtocol);
+		if (rootProtocolPersisted)
+		{
+			entityWriter.flush();
+			rootProtocol.setActive(true);
+			dataService.update(Protocol.ENTITY_NAME, rootProtocol);
+		}
+		else
+		{
+			entityWriter.add(Protocol.ENTITY_NAME, rootProtocol);
+			entityWriter.flush();
+		}
+		if (catalogLoadProperty != null) dataService.delete(RuntimeProperty.ENTITY_NAME, catalogLoadProperty);
+		logger.info("wrote " + entityWriter.getNrWrittenEntities() + " entities for catalog ["
+				+ rootProtocol.getIdentifier() + "]");
+		if (previousCatalogReleaseId != null)
+		{
+			logger.info("reused " + catalogLoader.getNrReusedMeasurements() + " measurements of catalog ["
+					+ previousCatalogReleaseId + "]");
+		}
 
-		dataService.getCrudRepository(Protocol.ENTITY_NAME).flush();
-		dataService.getCrudRepository(Protocol.ENTITY_NAME).clearCache();
-		dataSetsIndexer.indexProtocolsSynced(Collections.<Object> singletonList(rootProtocol.getId()));
+		if (catalogIndexer != null) catalogIndexer.index(rootProtocol.getId());
+		else dataSetsIndexer.indexProtocolsSynced(Collections.<Object> singletonList(rootProtocol.getId()));
+	}
+
+	private CatalogReader createCatalogReader(String catalogReleaseId, String studyDefinitionId, boolean useOntology)
+	{
+		if (streamingHttpClient != null && catalogReleaseId != null)
+		{
+			return new StreamingCatalogReader(streamingHttpClient, genericLayerCatalogService, catalogReleaseId,
+					useOntology);
+		}
+		else
+		{
+			return new OrganizerCatalogReader(retrieveCatalog(catalogReleaseId, studyDefinitionId, useOntology));
+		}
 	}
 
 	private Map<String, List<Code>> createValueSetsIndex(String catalogReleaseId, String studyDefinitionId)
@@ -216,96 +373,77 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		ValueSets valueSets = retrieveValueSets(catalogReleaseId, studyDefinitionId);
 		for (ValueSet valueSet : valueSets.getValueSet())
 		{
-			logger.info(valueSet.getName() + " | " + valueSet.getCode());
-			valueSetMap.put(valueSet.getName(), valueSet.getCode());
+			if (logger.isDebugEnabled()) logger.debug(valueSet.getName() + " | " + valueSet.getCode());
+			// value set codes are shared by all features (and conversion threads) using the value set
+			valueSetMap.put(valueSet.getName(), Collections.unmodifiableList(new ArrayList<Code>(valueSet.getCode())));
 		}
 		return valueSetMap;
 	}
 
-	private Protocol parseDataSourceCatalogOrganizer(REPCMT000100UV01Organizer cohortOrganizer, boolean useOntology,
-			Map<String, List<Code>> valueSetsIndex, String catalogReleaseId)
+	private Protocol parseMeasurementOrganizer(REPCMT000100UV01Organizer measurementOrganizer, CD cohortOrganizerCode,
+			boolean useOntology, Map<String, List<Code>> valueSetsIndex, UnitOntologyTermCache unitOntologyTermCache,
+			String catalogReleaseId, EntityWriter entityWriter)
 	{
-		Protocol cohortProtocol;
-		if (useOntology)
-		{
-			CD cohortOrganizerCode = cohortOrganizer.getCode();
-
-			cohortProtocol = new Protocol();
-			cohortProtocol.setIdentifier(UUID.randomUUID().toString());
-			cohortProtocol.setName(cohortOrganizer.getCode().getDisplayName());
-			cohortProtocol.setActive(isAvailable(cohortOrganizer));
+		Protocol measurementProtocol = createMeasurementProtocol(measurementOrganizer, cohortOrganizerCode,
+				catalogReleaseId);
+		String cohortId = cohortOrganizerCode.getCode();
+		String measurementId = measurementOrganizer.getCode().getCode();
 
-			String cohortId = cohortOrganizerCode.getCode();
-
-			// measurement components
-			List<Protocol> cohortSubprotocols = new ArrayList<Protocol>();
-			for (REPCMT000100UV01Component3 measurementComponent : cohortOrganizer.getComponent())
-			{
-				if (measurementComponent.getOrganizer() == null) break; // FIXME remove
-				REPCMT000100UV01Organizer measurementOrganizer = measurementComponent.getOrganizer().getValue();
-
-				CD measurementCode = measurementOrganizer.getCode();
-				String measurementCodeCode = measurementCode.getCode();
-				if (measurementCodeCode == null || measurementCodeCode.isEmpty())
-				{
-					throw new RuntimeException("Expected code for measurement [" + measurementCode.getDisplayName()
-							+ "]");
-				}
-
-				String measurementCodeCodeSystem = measurementCode.getCodeSystem();
-				if (measurementCodeCodeSystem == null || measurementCodeCodeSystem.isEmpty())
-				{
-					throw new RuntimeException("Expected code system for measurement ["
-							+ measurementCode.getDisplayName() + "]");
-				}
-
-				String cohortCodeCode = cohortOrganizerCode.getCode();
-				if (cohortCodeCode == null || cohortCodeCode.isEmpty())
-				{
-					throw new RuntimeException("Expected code for cohort [" + cohortOrganizerCode.getDisplayName()
-							+ "]");
-				}
+		List<Protocol> measurementSubprotocols = new ArrayList<Protocol>();
+		for (REPCMT000100UV01Component3 component : measurementOrganizer.getComponent())
+		{
+			REPCMT000100UV01Organizer componentOrganizer = component.getOrganizer().getValue();
+			Protocol measurementSubprotocol = parseDataSourceCatalogOrganizerRec(componentOrganizer, useOntology,
+					valueSetsIndex, unitOntologyTermCache, cohortId, measurementId, catalogReleaseId, entityWriter);
+			measurementSubprotocols.add(measurementSubprotocol);
+		}
+		if (!measurementSubprotocols.isEmpty()) measurementProtocol.setSubprotocols(measurementSubprotocols);
 
-				String cohortCodeCodeSystem = cohortOrganizerCode.getCodeSystem();
-				if (cohortCodeCodeSystem == null || cohortCodeCodeSystem.isEmpty())
-				{
-					throw new RuntimeException("Expected code system for cohort ["
-							+ cohortOrganizerCode.getDisplayName() + "]");
-				}
+		entityWriter.add(Protocol.ENTITY_NAME, measurementProtocol);
+		return measurementProtocol;
+	}
 
-				String omxProtocolIdentifier = MeasurementIdConverter.toOmxProtocolIdentifier(catalogReleaseId,
-						cohortCodeCode, cohortCodeCodeSystem, measurementCodeCode, measurementCodeCodeSystem);
-				Protocol measurementProtocol = new Protocol();
-				measurementProtocol.setIdentifier(omxProtocolIdentifier);
-				measurementProtocol.setName(measurementCode.getDisplayName());
-				String measurementId = measurementCode.getCode();
+	private Protocol createMeasurementProtocol(REPCMT000100UV01Organizer measurementOrganizer,
+			CD cohortOrganizerCode, String catalogReleaseId)
+	{
+		CD measurementCode = measurementOrganizer.getCode();
+		String measurementCodeCode = measurementCode.getCode();
+		if (measurementCodeCode == null || measurementCodeCode.isEmpty())
+		{
+			throw new RuntimeException("Expected code for measurement [" + measurementCode.getDisplayName() + "]");
+		}
 
-				List<Protocol> measurementSubprotocols = new ArrayList<Protocol>();
-				for (REPCMT000100UV01Component3 component : measurementOrganizer.getComponent())
-				{
-					REPCMT000100UV01Organizer componentOrganizer = component.getOrganizer().getValue();
-					Protocol measurementSubprotocol = parseDataSourceCatalogOrganizerRec(componentOrganizer,
-							useOntology, valueSetsIndex, cohortId, measurementId, catalogReleaseId);
-					measurementSubprotocols.add(measurementSubprotocol);
-				}
-				if (!measurementSubprotocols.isEmpty()) measurementProtocol.setSubprotocols(measurementSubprotocols);
+		String measurementCodeCodeSystem = measurementCode.getCodeSystem();
+		if (measurementCodeCodeSystem == null || measurementCodeCodeSystem.isEmpty())
+		{
+			throw new RuntimeException("Expected code system for measurement [" + measurementCode.getDisplayName()
+					+ "]");
+		}
 
-				cohortSubprotocols.add(measurementProtocol);
-				dataService.add(Protocol.ENTITY_NAME, measurementProtocol);
-			}
-			if (!cohortSubprotocols.isEmpty()) cohortProtocol.setSubprotocols(cohortSubprotocols);
+		String cohortCodeCode = cohortOrganizerCode.getCode();
+		if (cohortCodeCode == null || cohortCodeCode.isEmpty())
+		{
+			throw new RuntimeException("Expected code for cohort [" + cohortOrganizerCode.getDisplayName() + "]");
 		}
-		else
+
+		String cohortCodeCodeSystem = cohortOrganizerCode.getCodeSystem();
+		if (cohortCodeCodeSystem == null || cohortCodeCodeSystem.isEmpty())
 		{
-			throw new UnsupportedOperationException("load generic catalog for useOntology=false not implemented");
+			throw new RuntimeException("Expected code system for cohort [" + cohortOrganizerCode.getDisplayName()
+					+ "]");
 		}
 
-		dataService.add(Protocol.ENTITY_NAME, cohortProtocol);
-		return cohortProtocol;
+		String omxProtocolIdentifier = MeasurementIdConverter.toOmxProtocolIdentifier(catalogReleaseId,
+				cohortCodeCode, cohortCodeCodeSystem, measurementCodeCode, measurementCodeCodeSystem);
+		Protocol measurementProtocol = new Protocol();
+		measurementProtocol.setIdentifier(omxProtocolIdentifier);
+		measurementProtocol.setName(measurementCode.getDisplayName());
+		return measurementProtocol;
 	}
 
 	private Protocol parseDataSourceCatalogOrganizerRec(REPCMT000100UV01Organizer organizer, boolean useOntology,
-			Map<String, List<Code>> valueSetsIndex, String cohortId, String measurementId, String catalogReleaseId)
+			Map<String, List<Code>> valueSetsIndex, UnitOntologyTermCache unitOntologyTermCache, String cohortId,
+			String measurementId, String catalogReleaseId, EntityWriter entityWriter)
 	{
 		Protocol protocol;
 		if (useOntology)
@@ -332,7 +470,8 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 				{
 					REPCMT000100UV01Organizer componentOrganizer = component.getOrganizer().getValue();
 					Protocol subProtocol = parseDataSourceCatalogOrganizerRec(componentOrganizer, useOntology,
-							valueSetsIndex, cohortId, measurementId, catalogReleaseId);
+							valueSetsIndex, unitOntologyTermCache, cohortId, measurementId, catalogReleaseId,
+							entityWriter);
 					subprotocols.add(subProtocol);
 				}
 				// create feature
@@ -340,12 +479,12 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 				{
 					REPCMT000100UV01Observation componentObservation = component.getObservation().getValue();
 					ObservableFeature feature = parseDataSourceCatalogObservation(componentObservation, valueSetsIndex,
-							cohortId, measurementId, catalogReleaseId);
+							unitOntologyTermCache, cohortId, measurementId, catalogReleaseId, entityWriter);
 					features.add(feature);
 				}
 			}
 
-			boolean active = isAvailable(organizer);
+			boolean active = OrganizerCatalogReader.isAvailable(organizer);
 			if (active && !subprotocols.isEmpty())
 			{
 				boolean activeSubprotocol = false;
@@ -369,12 +508,13 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 			throw new UnsupportedOperationException("load data source catalog for useOntology=false not implemented");
 		}
 
-		dataService.add(Protocol.ENTITY_NAME, protocol);
+		entityWriter.add(Protocol.ENTITY_NAME, protocol);
 		return protocol;
 	}
 
 	private ObservableFeature parseDataSourceCatalogObservation(REPCMT000100UV01Observation observation,
-			Map<String, List<Code>> valueSetsIndex, String cohortId, String measurementId, String catalogReleaseId)
+			Map<String, List<Code>> valueSetsIndex, UnitOntologyTermCache unitOntologyTermCache, String cohortId,
+			String measurementId, String catalogReleaseId, EntityWriter entityWriter)
 	{
 		Gson gson = new Gson();
 		CD code = observation.getCode();
@@ -417,37 +557,45 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 
 		if (value instanceof PQ)
 		{
-			OntologyTerm unitOntologyTerm = new OntologyTerm();
-			unitOntologyTerm.setIdentifier(UUID.randomUUID().toString());
-			unitOntologyTerm.setName(((PQ) value).getUnit());
-			dataService.add(OntologyTerm.ENTITY_NAME, unitOntologyTerm);
-
-			observableFeature.setUnit(unitOntologyTerm);
+			// new unit ontology terms are written by the catalog loader
+			String unit = ((PQ) value).getUnit();
+			if (unit != null) observableFeature.setUnit(unitOntologyTermCache.getUnitOntologyTerm(unit));
 		}
 
-		dataService.add(ObservableFeature.ENTITY_NAME, observableFeature);
+		entityWriter.add(ObservableFeature.ENTITY_NAME, observableFeature);
 
 		if (value instanceof CD || value instanceof CO)
 		{
 			CD cdValue = (CD) value;
 			String valueSetName = cdValue.getCodeSystemName();
-			if (valueSetsIndex.get(valueSetName) == null) throw new RuntimeException(valueSetName);
-			for (Code valueCode : valueSetsIndex.get(valueSetName))
-			{
-				Category category = new Category();
-				category.setIdentifier(UUID.randomUUID().toString());
-				category.setName(valueCode.getDisplayName());
-				category.setValueCode(valueCode.getCode());
-				category.setObservableFeature(observableFeature);
-				dataService.add(Category.ENTITY_NAME, category);
-			}
+			List<Code> valueCodes = valueSetsIndex.get(valueSetName);
+			if (valueCodes == null) throw new RuntimeException(valueSetName);
+			addCategories(observableFeature, valueCodes, entityWriter);
 		}
 
 		return observableFeature;
 	}
 
+	/**
+	 * Adds a category for each code in the value set of the given feature. Categories belong to exactly one feature, so
+	 * features that share a value set each get their own categories.
+	 */
+	private void addCategories(ObservableFeature observableFeature, List<Code> valueCodes, EntityWriter entityWriter)
+	{
+		String categoryIdentifierPrefix = observableFeature.getIdentifier() + '.';
+		for (Code valueCode : valueCodes)
+		{
+			Category category = new Category();
+			category.setIdentifier(categoryIdentifierPrefix + valueCode.getCode());
+			category.setName(valueCode.getDisplayName());
+			category.setValueCode(valueCode.getCode());
+			category.setObservableFeature(observableFeature);
+			entityWriter.add(Category.ENTITY_NAME, category);
+		}
+	}
+
 	private Protocol parseGenericCatalogOrganizer(REPCMT000100UV01Organizer organizer, boolean useOntology,
-			Map<String, List<Code>> valueSetsIndex)
+			Map<String, List<Code>> valueSetsIndex, EntityWriter entityWriter)
 	{
 		Protocol protocol;
 		if (useOntology)
@@ -464,19 +612,21 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 				if (component.getOrganizer() != null)
 				{
 					REPCMT000100UV01Organizer componentOrganizer = component.getOrganizer().getValue();
-					Protocol subProtocol = parseGenericCatalogOrganizer(componentOrganizer, useOntology, valueSetsIndex);
+					Protocol subProtocol = parseGenericCatalogOrganizer(componentOrganizer, useOntology, valueSetsIndex,
+							entityWriter);
 					subprotocols.add(subProtocol);
 				}
 				// create feature
 				else if (component.getObservation() != null)
 				{
 					REPCMT000100UV01Observation componentObservation = component.getObservation().getValue();
-					ObservableFeature feature = parseGenericCatalogObservation(componentObservation, valueSetsIndex);
+					ObservableFeature feature = parseGenericCatalogObservation(componentObservation, valueSetsIndex,
+							entityWriter);
 					features.add(feature);
 				}
 			}
 
-			boolean active = isAvailable(organizer);
+			boolean active = OrganizerCatalogReader.isAvailable(organizer);
 			if (active && !subprotocols.isEmpty())
 			{
 				boolean activeSubprotocol = false;
@@ -500,12 +650,12 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 			throw new UnsupportedOperationException("load generic catalog for useOntology=false not implemented");
 		}
 
-		dataService.add(Protocol.ENTITY_NAME, protocol);
+		entityWriter.add(Protocol.ENTITY_NAME, protocol);
 		return protocol;
 	}
 
 	private ObservableFeature parseGenericCatalogObservation(REPCMT000100UV01Observation observation,
-			Map<String, List<Code>> valueSetsIndex)
+			Map<String, List<Code>> valueSetsIndex, EntityWriter entityWriter)
 	{
 		CD code = observation.getCode();
 
@@ -513,7 +663,7 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		observableFeature.setIdentifier(UUID.randomUUID().toString());
 		observableFeature.setName(code.getDisplayName());
 
-		dataService.add(ObservableFeature.ENTITY_NAME, observableFeature);
+		entityWriter.add(ObservableFeature.ENTITY_NAME, observableFeature);
 		return observableFeature;
 	}
 
@@ -535,7 +685,19 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 	private boolean isCatalogLoaded(String catalogReleaseId, String studyDefinitionId)
 	{
 		String catalogIdentifier = getCatalogIdentifier(catalogReleaseId, studyDefinitionId);
-		return dataService.count(Protocol.ENTITY_NAME, new QueryImpl().eq(Protocol.IDENTIFIER, catalogIdentifier)) == 1;
+		// catalogs of which a monitored load did not finish are not loaded
+		return dataService.count(Protocol.ENTITY_NAME, new QueryImpl().eq(Protocol.IDENTIFIER, catalogIdentifier)) == 1
+				&& findCatalogLoadProperty(catalogIdentifier) == null;
+	}
+
+	/**
+	 * Returns the property that marks the load of the given catalog as unfinished or null if no load is unfinished
+	 */
+	private RuntimeProperty findCatalogLoadProperty(String catalogIdentifier)
+	{
+		return dataService.findOne(RuntimeProperty.ENTITY_NAME,
+				new QueryImpl().eq(RuntimeProperty.IDENTIFIER, RUNTIME_PROPERTY_CATALOG_LOAD_PREFIX + catalogIdentifier),
+				RuntimeProperty.class);
 	}
 
 	public String getCatalogIdentifier(String catalogReleaseId, String studyDefinitionId)
@@ -552,7 +714,6 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		deleteCatalog(protocolIdentifier);
 	}
 
-	// FIXME does not delete full catalog
 	private void deleteCatalog(String protocolIdentifier) throws UnknownCatalogException
 	{
 		Protocol protocol = dataService.findOne(Protocol.ENTITY_NAME,
@@ -561,10 +722,10 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		{
 			throw new UnknownCatalogException("unknown catalog identifier [" + protocolIdentifier + "]");
 		}
-		List<Protocol> protocols = ProtocolUtils.getProtocolDescendants(protocol);
-
-		dataService.delete(Protocol.ENTITY_NAME, protocol);
-		dataService.delete(Protocol.ENTITY_NAME, protocols);
+		new CatalogDeleter(dataService, searchService, batchSize).delete(protocol);
+		RuntimeProperty catalogLoadProperty = findCatalogLoadProperty(protocolIdentifier);
+		if (catalogLoadProperty != null) dataService.delete(RuntimeProperty.ENTITY_NAME, catalogLoadProperty);
+		catalogMetaCache.invalidate();
 	}
 
 	@Transactional
@@ -684,9 +845,438 @@ public class GenericLayerCatalogManagerService implements CatalogManagerService
 		});
 	}
 
-	// EffectiveTime.low is set when group is unavailable.
-	private boolean isAvailable(REPCMT000100UV01Organizer organizer)
+	/**
+	 * Converts the organizers of a catalog to OMX entities and writes them. If a conversion pool is available the
+	 * measurements are converted in parallel and written in document order by the thread reading the catalog.
+	 */
+	private class CatalogLoader implements CatalogHandler
 	{
-		return (organizer.getEffectiveTime() == null);
+		private final Protocol rootProtocol;
+		private final boolean useOntology;
+		private final Map<String, List<Code>> valueSetsIndex;
+		private final UnitOntologyTermCache unitOntologyTermCache;
+		private final String catalogReleaseId;
+		private final BatchingEntityWriter entityWriter;
+		private final ForkJoinPool conversionPool;
+
+		private final List<Protocol> rootSubprotocols = new ArrayList<Protocol>();
+		private boolean dataSourceRead;
+		private Protocol protocol;
+		private List<Protocol> subprotocols;
+		private CD cohortCode;
+		private boolean cohortPersisted;
+
+		private final Deque<PendingCohort> pendingCohorts = new ArrayDeque<PendingCohort>();
+		private int nrPendingMeasurements;
+
+		private String previousCatalogReleaseId;
+		private ProtocolTreeComparator protocolTreeComparator;
+		private int nrReusedMeasurements;
+
+		private CatalogLoadMonitor catalogLoadMonitor;
+		private boolean rootProtocolPersisted;
+		private boolean releaseWrittenCohorts;
+
+		public CatalogLoader(Protocol rootProtocol, boolean useOntology, Map<String, List<Code>> valueSetsIndex,
+				UnitOntologyTermCache unitOntologyTermCache, String catalogReleaseId,
+				BatchingEntityWriter entityWriter, ForkJoinPool conversionPool)
+		{
+			this.rootProtocol = rootProtocol;
+			this.useOntology = useOntology;
+			this.valueSetsIndex = valueSetsIndex;
+			this.unitOntologyTermCache = unitOntologyTermCache;
+			this.catalogReleaseId = catalogReleaseId;
+			this.entityWriter = entityWriter;
+			this.conversionPool = conversionPool;
+		}
+
+		/**
+		 * Reuse the measurements of the given catalog release that are equal to the measurements being loaded
+		 */
+		public void setPreviousCatalogRelease(String previousCatalogReleaseId,
+				ProtocolTreeComparator protocolTreeComparator)
+		{
+			this.previousCatalogReleaseId = previousCatalogReleaseId;
+			this.protocolTreeComparator = protocolTreeComparator;
+		}
+
+		public int getNrReusedMeasurements()
+		{
+			return nrReusedMeasurements;
+		}
+
+		public void setCatalogLoadMonitor(CatalogLoadMonitor catalogLoadMonitor)
+		{
+			this.catalogLoadMonitor = catalogLoadMonitor;
+		}
+
+		/**
+		 * Whether the root protocol was written before the catalog is read, written cohorts are then added to it
+		 */
+		public void setRootProtocolPersisted(boolean rootProtocolPersisted)
+		{
+			this.rootProtocolPersisted = rootProtocolPersisted;
+		}
+
+		/**
+		 * Whether each cohort is written as soon as it is converted and only a reference to it is kept, so that the
+		 * converted entities of a streamed catalog are not kept until the root protocol is written
+		 */
+		public void setReleaseWrittenCohorts(boolean releaseWrittenCohorts)
+		{
+			this.releaseWrittenCohorts = releaseWrittenCohorts;
+		}
+
+		@Override
+		public void startDataSource(CD code, boolean available)
+		{
+			if (dataSourceRead || !rootSubprotocols.isEmpty())
+			{
+				throw new RuntimeException("Expected exactly one catalog component for code != Generic");
+			}
+			dataSourceRead = true;
+			rootProtocol.setName(code.getCode());
+		}
+
+		@Override
+		public void startCohort(CD code, boolean available)
+		{
+			if (!useOntology)
+			{
+				throw new UnsupportedOperationException("load generic catalog for useOntology=false not implemented");
+			}
+			String cohortIdentifier = createCohortProtocolIdentifier(code);
+
+			// cohort was written by an interrupted load of this catalog
+			Protocol cohortProtocol = dataService.findOne(Protocol.ENTITY_NAME,
+					new QueryImpl().eq(Protocol.IDENTIFIER, cohortIdentifier), Protocol.class);
+			boolean persisted = cohortProtocol != null;
+			if (!persisted)
+			{
+				cohortProtocol = new Protocol();
+				cohortProtocol.setIdentifier(cohortIdentifier);
+				cohortProtocol.setName(code.getDisplayName());
+				cohortProtocol.setActive(available);
+			}
+
+			if (conversionPool != null)
+			{
+				pendingCohorts.add(new PendingCohort(cohortProtocol, persisted));
+			}
+			else
+			{
+				protocol = cohortProtocol;
+				subprotocols = new ArrayList<Protocol>();
+				cohortPersisted = persisted;
+			}
+			cohortCode = code;
+		}
+
+		private String createCohortProtocolIdentifier(CD code)
+		{
+			if (catalogReleaseId == null || code.getCode() == null || code.getCodeSystem() == null)
+			{
+				return UUID.randomUUID().toString();
+			}
+			return MeasurementIdConverter.toOmxCohortProtocolIdentifier(catalogReleaseId, code.getCode(),
+					code.getCodeSystem());
+		}
+
+		@Override
+		public void measurement(REPCMT000100UV01Organizer measurementOrganizer)
+		{
+			boolean persisted = conversionPool != null ? pendingCohorts.getLast().persisted : cohortPersisted;
+			if (persisted) return;
+
+			Protocol previousMeasurementProtocol = null;
+			if (previousCatalogReleaseId != null)
+			{
+				previousMeasurementProtocol = findPreviousMeasurementProtocol(measurementOrganizer);
+			}
+
+			if (conversionPool != null)
+			{
+				MeasurementConversionTask measurementConversionTask = new MeasurementConversionTask(
+						measurementOrganizer, cohortCode, useOntology, valueSetsIndex, unitOntologyTermCache,
+						catalogReleaseId);
+				// a reused measurement is written in document order like a converted measurement
+				if (previousMeasurementProtocol != null) measurementConversionTask.complete(previousMeasurementProtocol);
+				else conversionPool.execute(measurementConversionTask);
+				pendingCohorts.getLast().measurementConversionTasks.add(measurementConversionTask);
+
+				// limit the number of converted measurements that are kept in memory
+				if (++nrPendingMeasurements > MAX_PENDING_MEASUREMENTS_PER_THREAD * conversionPool.getParallelism())
+				{
+					writePendingMeasurement();
+				}
+			}
+			else if (previousMeasurementProtocol != null)
+			{
+				subprotocols.add(previousMeasurementProtocol);
+			}
+			else
+			{
+				EntityBuffer entityBuffer = new EntityBuffer();
+				subprotocols.add(parseMeasurementOrganizer(measurementOrganizer, cohortCode, useOntology,
+						valueSetsIndex, unitOntologyTermCache, catalogReleaseId, entityBuffer));
+				writeMeasurement(entityBuffer);
+			}
+		}
+
+		/**
+		 * Returns the measurement protocol of the previous catalog release if it equals the given measurement, null
+		 * otherwise
+		 */
+		private Protocol findPreviousMeasurementProtocol(REPCMT000100UV01Organizer measurementOrganizer)
+		{
+			String previousIdentifier = createMeasurementProtocol(measurementOrganizer, cohortCode,
+					previousCatalogReleaseId).getIdentifier();
+			Protocol previousMeasurementProtocol = dataService.findOne(Protocol.ENTITY_NAME,
+					new QueryImpl().eq(Protocol.IDENTIFIER, previousIdentifier), Protocol.class);
+			if (previousMeasurementProtocol == null) return null;
+
+			// convert measurement as if it were part of the previous release and compare
+			EntityBuffer entityBuffer = new EntityBuffer();
+			Protocol measurementProtocol = parseMeasurementOrganizer(measurementOrganizer, cohortCode, useOntology,
+					valueSetsIndex, unitOntologyTermCache, previousCatalogReleaseId, entityBuffer);
+			if (!protocolTreeComparator.isEqual(measurementProtocol, entityBuffer, previousMeasurementProtocol))
+			{
+				return null;
+			}
+			++nrReusedMeasurements;
+			return previousMeasurementProtocol;
+		}
+
+		@Override
+		public void endCohort()
+		{
+			if (conversionPool != null)
+			{
+				// cohort is written after all of its measurements are written
+				pendingCohorts.getLast().ended = true;
+			}
+			else
+			{
+				writeCohort(protocol, subprotocols, cohortPersisted);
+			}
+		}
+
+		@Override
+		public void endDataSource()
+		{
+			while (!pendingCohorts.isEmpty())
+			{
+				writePendingMeasurement();
+			}
+			if (!rootSubprotocols.isEmpty()) rootProtocol.setSubprotocols(rootSubprotocols);
+		}
+
+		@Override
+		public void startGeneric(CD code, boolean available)
+		{
+			if (dataSourceRead)
+			{
+				throw new RuntimeException("Expected exactly one catalog component for code != Generic");
+			}
+			protocol = new Protocol();
+			protocol.setIdentifier(UUID.randomUUID().toString());
+			protocol.setName(code.getCode());
+			protocol.setActive(available);
+			subprotocols = new ArrayList<Protocol>();
+		}
+
+		@Override
+		public void genericOrganizer(REPCMT000100UV01Organizer organizer)
+		{
+			subprotocols.add(parseGenericCatalogOrganizer(organizer, useOntology, valueSetsIndex, entityWriter));
+		}
+
+		@Override
+		public void endGeneric()
+		{
+			writeProtocol(protocol, subprotocols);
+			rootProtocol.setSubprotocols(rootSubprotocols);
+		}
+
+		/**
+		 * Writes the oldest converted measurement followed by the cohorts that have no pending measurements left
+		 */
+		private void writePendingMeasurement()
+		{
+			PendingCohort pendingCohort = pendingCohorts.getFirst();
+			if (!pendingCohort.measurementConversionTasks.isEmpty())
+			{
+				MeasurementConversionTask measurementConversionTask = pendingCohort.measurementConversionTasks
+						.removeFirst();
+				Protocol measurementProtocol = measurementConversionTask.join();
+				writeMeasurement(measurementConversionTask.getEntityBuffer());
+				pendingCohort.subprotocols.add(measurementProtocol);
+				--nrPendingMeasurements;
+			}
+			else if (!pendingCohort.ended)
+			{
+				throw new RuntimeException("Cohort [" + pendingCohort.cohortProtocol.getName() + "] is not ended");
+			}
+
+			while (!pendingCohorts.isEmpty() && pendingCohorts.getFirst().ended
+					&& pendingCohorts.getFirst().measurementConversionTasks.isEmpty())
+			{
+				PendingCohort writableCohort = pendingCohorts.removeFirst();
+				writeCohort(writableCohort.cohortProtocol, writableCohort.subprotocols, writableCohort.persisted);
+			}
+		}
+
+		private void writeMeasurement(EntityBuffer measurementEntityBuffer)
+		{
+			writeNewUnitOntologyTerms();
+			int nrEntities = measurementEntityBuffer.size();
+			measurementEntityBuffer.writeTo(entityWriter);
+			if (catalogLoadMonitor != null) catalogLoadMonitor.measurementLoaded(nrEntities);
+		}
+
+		private void writeCohort(Protocol cohortProtocol, List<Protocol> cohortSubprotocols, boolean persisted)
+		{
+			if (persisted)
+			{
+				rootSubprotocols.add(cohortProtocol);
+			}
+			else
+			{
+				writeProtocol(cohortProtocol, cohortSubprotocols);
+				if (catalogLoadMonitor != null || releaseWrittenCohorts) entityWriter.flush();
+				if (releaseWrittenCohorts)
+				{
+					rootSubprotocols.set(rootSubprotocols.size() - 1, createProtocolReference(cohortProtocol));
+				}
+				if (catalogLoadMonitor != null)
+				{
+					if (rootProtocolPersisted)
+					{
+						rootProtocol.setSubprotocols(new ArrayList<Protocol>(rootSubprotocols));
+						dataService.update(Protocol.ENTITY_NAME, rootProtocol);
+					}
+					catalogLoadMonitor.cohortLoaded(cohortProtocol.getIdentifier());
+				}
+			}
+		}
+
+		/**
+		 * Returns a protocol that only refers to the given written protocol by id
+		 */
+		private Protocol createProtocolReference(Protocol writtenProtocol)
+		{
+			Protocol protocolReference = new Protocol();
+			protocolReference.setId(writtenProtocol.getId());
+			protocolReference.setIdentifier(writtenProtocol.getIdentifier());
+			return protocolReference;
+		}
+
+		/**
+		 * Writes the unit ontology terms created during conversion, must be called before writing the features
+		 * referencing them
+		 */
+		private void writeNewUnitOntologyTerms()
+		{
+			for (OntologyTerm unitOntologyTerm : unitOntologyTermCache.drainNewUnitOntologyTerms())
+			{
+				entityWriter.add(OntologyTerm.ENTITY_NAME, unitOntologyTerm);
+			}
+		}
+
+		private void writeProtocol(Protocol protocol, List<Protocol> subprotocols)
+		{
+			if (!subprotocols.isEmpty()) protocol.setSubprotocols(subprotocols);
+			entityWriter.add(Protocol.ENTITY_NAME, protocol);
+			rootSubprotocols.add(protocol);
+		}
+	}
+
+	private static class PendingCohort
+	{
+		private final Protocol cohortProtocol;
+		private final List<Protocol> subprotocols = new ArrayList<Protocol>();
+		private final Deque<MeasurementConversionTask> measurementConversionTasks = new ArrayDeque<MeasurementConversionTask>();
+		private final boolean persisted;
+		private boolean ended;
+
+		public PendingCohort(Protocol cohortProtocol, boolean persisted)
+		{
+			this.cohortProtocol = cohortProtocol;
+			this.persisted = persisted;
+		}
+	}
+
+	/**
+	 * Converts a measurement organizer to OMX entities, the subtrees of the measurement are converted in parallel
+	 */
+	private class MeasurementConversionTask extends RecursiveTask<Protocol>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final REPCMT000100UV01Organizer measurementOrganizer;
+		private final CD cohortCode;
+		private final boolean useOntology;
+		private final Map<String, List<Code>> valueSetsIndex;
+		private final UnitOntologyTermCache unitOntologyTermCache;
+		private final String catalogReleaseId;
+		private final EntityBuffer entityBuffer = new EntityBuffer();
+
+		public MeasurementConversionTask(REPCMT000100UV01Organizer measurementOrganizer, CD cohortCode,
+				boolean useOntology, Map<String, List<Code>> valueSetsIndex,
+				UnitOntologyTermCache unitOntologyTermCache, String catalogReleaseId)
+		{
+			this.measurementOrganizer = measurementOrganizer;
+			this.cohortCode = cohortCode;
+			this.useOntology = useOntology;
+			this.valueSetsIndex = valueSetsIndex;
+			this.unitOntologyTermCache = unitOntologyTermCache;
+			this.catalogReleaseId = catalogReleaseId;
+		}
+
+		@Override
+		protected Protocol compute()
+		{
+			Protocol measurementProtocol = createMeasurementProtocol(measurementOrganizer, cohortCode,
+					catalogReleaseId);
+			final String cohortId = cohortCode.getCode();
+			final String measurementId = measurementOrganizer.getCode().getCode();
+
+			// each subtree is converted into its own buffer
+			List<ForkJoinTask<Protocol>> subtreeTasks = new ArrayList<ForkJoinTask<Protocol>>();
+			List<EntityBuffer> subtreeEntityBuffers = new ArrayList<EntityBuffer>();
+			for (REPCMT000100UV01Component3 component : measurementOrganizer.getComponent())
+			{
+				final REPCMT000100UV01Organizer componentOrganizer = component.getOrganizer().getValue();
+				final EntityBuffer subtreeEntityBuffer = new EntityBuffer();
+				subtreeTasks.add(ForkJoinTask.adapt(new Callable<Protocol>()
+				{
+					@Override
+					public Protocol call()
+					{
+						return parseDataSourceCatalogOrganizerRec(componentOrganizer, useOntology, valueSetsIndex,
+								unitOntologyTermCache, cohortId, measurementId, catalogReleaseId,
+								subtreeEntityBuffer);
+					}
+				}));
+				subtreeEntityBuffers.add(subtreeEntityBuffer);
+			}
+			invokeAll(subtreeTasks);
+
+			List<Protocol> measurementSubprotocols = new ArrayList<Protocol>();
+			for (int i = 0; i < subtreeTasks.size(); ++i)
+			{
+				measurementSubprotocols.add(subtreeTasks.get(i).join());
+				subtreeEntityBuffers.get(i).writeTo(entityBuffer);
+			}
+			if (!measurementSubprotocols.isEmpty()) measurementProtocol.setSubprotocols(measurementSubprotocols);
+
+			entityBuffer.add(Protocol.ENTITY_NAME, measurementProtocol);
+			return measurementProtocol;
+		}
+
+		public EntityBuffer getEntityBuffer()
+		{
+			return entityBuffer;
+		}
 	}
-}
\ No newline at end of file
+}
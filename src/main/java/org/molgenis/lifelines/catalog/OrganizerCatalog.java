@@ -1,7 +1,11 @@
 package org.molgenis.lifelines.catalog;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.v3.REPCMT000100UV01Component3;
 import org.hl7.v3.REPCMT000100UV01Organizer;
@@ -10,14 +14,21 @@ import org.molgenis.catalog.CatalogFolder;
 import org.molgenis.catalog.CatalogItem;
 import org.molgenis.catalog.CatalogMeta;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 
+/**
+ * Catalog backed by a catalog organizer tree. Folder and item wrappers are created once, on first access, and are
+ * reused by subsequent traversals. Each wrapper refers to its parent folder, so paths are resolved in memory.
+ */
 public class OrganizerCatalog implements Catalog
 {
 	private final REPCMT000100UV01Organizer organizer;
 	private final CatalogMeta catalogMeta;
 
+	private volatile List<CatalogFolder> children;
+	private volatile List<CatalogItem> items;
+	private volatile Map<String, CatalogFolder> folderIndex;
+
 	public OrganizerCatalog(REPCMT000100UV01Organizer organizer, CatalogMeta catalogMeta)
 	{
 		if (organizer == null) throw new IllegalArgumentException("Organizer is null");
@@ -25,6 +36,11 @@ public class OrganizerCatalog implements Catalog
 		this.catalogMeta = catalogMeta;
 	}
 
+	REPCMT000100UV01Organizer getOrganizer()
+	{
+		return organizer;
+	}
+
 	@Override
 	public String getId()
 	{
@@ -46,22 +62,32 @@ public class OrganizerCatalog implements Catalog
 	@Override
 	public List<CatalogFolder> getChildren()
 	{
-		return Lists.transform(organizer.getComponent(), new Function<REPCMT000100UV01Component3, CatalogFolder>()
+		List<CatalogFolder> children = this.children;
+		if (children == null)
 		{
-			@Override
-			public CatalogFolder apply(REPCMT000100UV01Component3 component)
+			ImmutableList.Builder<CatalogFolder> childrenBuilder = ImmutableList.builder();
+			for (REPCMT000100UV01Component3 component : organizer.getComponent())
 			{
-				return new OrganizerCatalogFolder(component.getOrganizer().getValue());
+				childrenBuilder.add(new OrganizerCatalogFolder(component.getOrganizer().getValue()));
 			}
-		});
+			children = childrenBuilder.build();
+			this.children = children;
+		}
+		return children;
 	}
 
 	@Override
 	public List<CatalogItem> getItems()
 	{
-		List<CatalogItem> items = new ArrayList<CatalogItem>();
-		for (CatalogFolder child : getChildren())
-			items.addAll(child.getItems());
+		List<CatalogItem> items = this.items;
+		if (items == null)
+		{
+			ImmutableList.Builder<CatalogItem> itemsBuilder = ImmutableList.builder();
+			for (CatalogFolder child : getChildren())
+				itemsBuilder.addAll(child.getItems());
+			items = itemsBuilder.build();
+			this.items = items;
+		}
 		return items;
 	}
 
@@ -83,14 +109,34 @@ public class OrganizerCatalog implements Catalog
 		return null;
 	}
 
+	/**
+	 * Returns the folder with the given id, folders closer to the root take precedence over deeper folders with the
+	 * same id
+	 */
 	@Override
 	public CatalogFolder findItem(String catalogItemId)
 	{
-		for (CatalogFolder item : getChildren())
+		Map<String, CatalogFolder> folderIndex = this.folderIndex;
+		if (folderIndex == null)
 		{
-			if (item.getId().equals(catalogItemId)) return item;
+			folderIndex = createFolderIndex();
+			this.folderIndex = folderIndex;
 		}
-		return null;
+		return folderIndex.get(catalogItemId);
+	}
+
+	private Map<String, CatalogFolder> createFolderIndex()
+	{
+		Map<String, CatalogFolder> folderIndex = new HashMap<String, CatalogFolder>();
+		Deque<CatalogFolder> folders = new ArrayDeque<CatalogFolder>(getChildren());
+		while (!folders.isEmpty())
+		{
+			CatalogFolder folder = folders.removeFirst();
+			String folderId = folder.getId();
+			if (!folderIndex.containsKey(folderId)) folderIndex.put(folderId, folder);
+			folders.addAll(folder.getChildren());
+		}
+		return folderIndex;
 	}
 
 	@Override
@@ -106,9 +152,10 @@ public class OrganizerCatalog implements Catalog
 	}
 
 	@Override
-	public Iterable<CatalogFolder> getPath()
+	public List<CatalogFolder> getPath()
 	{
-		throw new UnsupportedOperationException();
+		// the catalog is not part of the path of its folders
+		return Collections.emptyList();
 	}
 	
 	@Override
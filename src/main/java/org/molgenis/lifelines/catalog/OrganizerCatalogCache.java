@@ -0,0 +1,88 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps catalogs retrieved from the catalog service in memory. Catalogs are cached including their folder and item
+ * wrappers and folder index, so these are built once per catalog instead of once per request. The weight of a catalog
+ * is the number of organizers and observations of its catalog tree. Catalogs are softly referenced, so they are evicted
+ * when memory runs low even if the maximum weight is not reached. Thread-safe.
+ */
+class OrganizerCatalogCache
+{
+	private final LoadingCache<String, OrganizerCatalog> catalogs;
+
+	/**
+	 * @param catalogRetriever
+	 *            retrieves the catalog of a catalog release id from the catalog service
+	 * @param maximumWeight
+	 *            maximum total number of organizers and observations of the cached catalogs
+	 */
+	public OrganizerCatalogCache(final Function<String, OrganizerCatalog> catalogRetriever,
+			long maximumWeight)
+	{
+		if (catalogRetriever == null) throw new IllegalArgumentException("catalogRetriever is null");
+		this.catalogs = CacheBuilder.newBuilder().maximumWeight(maximumWeight)
+				.weigher(new Weigher<String, OrganizerCatalog>()
+				{
+					@Override
+					public int weigh(String catalogReleaseId, OrganizerCatalog catalog)
+					{
+						return getNrNodes(catalog.getOrganizer());
+					}
+				}).softValues().build(new CacheLoader<String, OrganizerCatalog>()
+				{
+					@Override
+					public OrganizerCatalog load(String catalogReleaseId)
+					{
+						return catalogRetriever.apply(catalogReleaseId);
+					}
+				});
+	}
+
+	public OrganizerCatalog getCatalog(String catalogReleaseId)
+	{
+		try
+		{
+			return catalogs.getUnchecked(catalogReleaseId);
+		}
+		catch (UncheckedExecutionException e)
+		{
+			// rethrow the exception thrown by the catalog retriever
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	static int getNrNodes(REPCMT000100UV01Organizer catalog)
+	{
+		int nrNodes = 0;
+		Deque<REPCMT000100UV01Organizer> organizers = new ArrayDeque<REPCMT000100UV01Organizer>();
+		organizers.push(catalog);
+		while (!organizers.isEmpty())
+		{
+			REPCMT000100UV01Organizer organizer = organizers.pop();
+			++nrNodes;
+			List<REPCMT000100UV01Component3> components = organizer.getComponent();
+			if (components == null) continue;
+			for (REPCMT000100UV01Component3 component : components)
+			{
+				if (component.getOrganizer() != null) organizers.push(component.getOrganizer().getValue());
+				else if (component.getObservation() != null) ++nrNodes;
+			}
+		}
+		return nrNodes;
+	}
+}
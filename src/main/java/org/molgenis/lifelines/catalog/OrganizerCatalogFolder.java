@@ -1,5 +1,7 @@
 package org.molgenis.lifelines.catalog;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.hl7.v3.CD;
@@ -8,19 +10,34 @@ import org.hl7.v3.REPCMT000100UV01Organizer;
 import org.molgenis.catalog.CatalogFolder;
 import org.molgenis.catalog.CatalogItem;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 
+/**
+ * Catalog folder backed by an organizer. Folders created while traversing a catalog know their parent folder, so that
+ * their path can be determined without searching the catalog.
+ */
 public class OrganizerCatalogFolder implements CatalogFolder
 {
 	private final REPCMT000100UV01Organizer organizer;
+	private final OrganizerCatalogFolder parent;
+
+	private volatile List<CatalogFolder> children;
+	private volatile List<CatalogItem> items;
 
 	public OrganizerCatalogFolder(REPCMT000100UV01Organizer organizer)
+	{
+		this(organizer, null);
+	}
+
+	/**
+	 * @param parent
+	 *            parent folder or null for a top-level folder
+	 */
+	OrganizerCatalogFolder(REPCMT000100UV01Organizer organizer, OrganizerCatalogFolder parent)
 	{
 		if (organizer == null) throw new IllegalArgumentException("Organizer is null");
 		this.organizer = organizer;
+		this.parent = parent;
 	}
 
 	@Override
@@ -48,33 +65,41 @@ public class OrganizerCatalogFolder implements CatalogFolder
 	@Override
 	public List<CatalogFolder> getChildren()
 	{
-		return Lists.newArrayList(Iterables.filter(
-				Iterables.transform(organizer.getComponent(), new Function<REPCMT000100UV01Component3, CatalogFolder>()
+		List<CatalogFolder> children = this.children;
+		if (children == null)
+		{
+			ImmutableList.Builder<CatalogFolder> childrenBuilder = ImmutableList.builder();
+			for (REPCMT000100UV01Component3 component : organizer.getComponent())
+			{
+				if (component.getOrganizer() != null)
 				{
-
-					@Override
-					public CatalogFolder apply(REPCMT000100UV01Component3 component)
-					{
-						return component.getOrganizer() != null ? new OrganizerCatalogFolder(component.getOrganizer()
-								.getValue()) : null;
-					}
-				}), Predicates.notNull()));
+					childrenBuilder.add(new OrganizerCatalogFolder(component.getOrganizer().getValue(), this));
+				}
+			}
+			children = childrenBuilder.build();
+			this.children = children;
+		}
+		return children;
 	}
 
 	@Override
 	public List<CatalogItem> getItems()
 	{
-		return Lists.newArrayList(Iterables.filter(
-				Iterables.transform(organizer.getComponent(), new Function<REPCMT000100UV01Component3, CatalogItem>()
+		List<CatalogItem> items = this.items;
+		if (items == null)
+		{
+			ImmutableList.Builder<CatalogItem> itemsBuilder = ImmutableList.builder();
+			for (REPCMT000100UV01Component3 component : organizer.getComponent())
+			{
+				if (component.getObservation() != null)
 				{
-
-					@Override
-					public CatalogItem apply(REPCMT000100UV01Component3 component)
-					{
-						return component.getObservation() != null ? new RepcObservationCatalogItem(component
-								.getObservation().getValue()) : null;
-					}
-				}), Predicates.notNull()));
+					itemsBuilder.add(new RepcObservationCatalogItem(component.getObservation().getValue(), this));
+				}
+			}
+			items = itemsBuilder.build();
+			this.items = items;
+		}
+		return items;
 	}
 
 	@Override
@@ -89,12 +114,26 @@ public class OrganizerCatalogFolder implements CatalogFolder
 		return organizer.getCode().getCodeSystem();
 	}
 
+	OrganizerCatalogFolder getParent()
+	{
+		return parent;
+	}
+
+	/**
+	 * Returns the folders from the top-level folder down to and including this folder
+	 */
 	@Override
-	public Iterable<CatalogFolder> getPath()
+	public List<CatalogFolder> getPath()
 	{
-		throw new UnsupportedOperationException();
+		List<CatalogFolder> path = new ArrayList<CatalogFolder>();
+		for (OrganizerCatalogFolder folder = this; folder != null; folder = folder.getParent())
+		{
+			path.add(folder);
+		}
+		Collections.reverse(path);
+		return path;
 	}
-	
+
 	@Override
 	public List<String> getGroup()
 	{
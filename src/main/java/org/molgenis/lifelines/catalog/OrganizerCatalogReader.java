@@ -0,0 +1,72 @@
+package org.molgenis.lifelines.catalog;
+
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+/**
+ * Reads a catalog that is completely available in memory
+ */
+class OrganizerCatalogReader implements CatalogReader
+{
+	static final String CODE_GENERIC = "Generic";
+
+	private final REPCMT000100UV01Organizer catalog;
+
+	public OrganizerCatalogReader(REPCMT000100UV01Organizer catalog)
+	{
+		if (catalog == null) throw new IllegalArgumentException("catalog is null");
+		this.catalog = catalog;
+	}
+
+	@Override
+	public void read(CatalogHandler catalogHandler)
+	{
+		for (REPCMT000100UV01Component3 component : catalog.getComponent())
+		{
+			REPCMT000100UV01Organizer organizer = component.getOrganizer().getValue();
+			boolean available = isAvailable(organizer);
+
+			if (organizer.getCode().getCode().equals(CODE_GENERIC))
+			{
+				catalogHandler.startGeneric(organizer.getCode(), available);
+				if (organizer.getComponent() != null)
+				{
+					for (REPCMT000100UV01Component3 genericComponent : organizer.getComponent())
+					{
+						catalogHandler.genericOrganizer(genericComponent.getOrganizer().getValue());
+					}
+				}
+				catalogHandler.endGeneric();
+			}
+			else
+			{
+				catalogHandler.startDataSource(organizer.getCode(), available);
+				if (organizer.getComponent() != null)
+				{
+					for (REPCMT000100UV01Component3 dataSourceComponent : organizer.getComponent())
+					{
+						readCohort(dataSourceComponent.getOrganizer().getValue(), catalogHandler);
+					}
+				}
+				catalogHandler.endDataSource();
+			}
+		}
+	}
+
+	private void readCohort(REPCMT000100UV01Organizer cohortOrganizer, CatalogHandler catalogHandler)
+	{
+		catalogHandler.startCohort(cohortOrganizer.getCode(), isAvailable(cohortOrganizer));
+		for (REPCMT000100UV01Component3 measurementComponent : cohortOrganizer.getComponent())
+		{
+			if (measurementComponent.getOrganizer() == null) break; // FIXME remove
+			catalogHandler.measurement(measurementComponent.getOrganizer().getValue());
+		}
+		catalogHandler.endCohort();
+	}
+
+	// EffectiveTime.low is set when group is unavailable.
+	static boolean isAvailable(REPCMT000100UV01Organizer organizer)
+	{
+		return (organizer.getEffectiveTime() == null);
+	}
+}
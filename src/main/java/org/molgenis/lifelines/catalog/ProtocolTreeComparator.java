@@ -0,0 +1,135 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.support.QueryImpl;
+import org.molgenis.lifelines.utils.EntityBuffer;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+import org.molgenis.omx.observ.target.OntologyTerm;
+
+import com.google.common.base.Objects;
+
+/**
+ * Compares a converted (not yet written) protocol tree with a protocol tree in the database. Protocols, features and
+ * units are compared by identifier and content, categories by value code and name.
+ */
+class ProtocolTreeComparator
+{
+	private final DataService dataService;
+
+	public ProtocolTreeComparator(DataService dataService)
+	{
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		this.dataService = dataService;
+	}
+
+	/**
+	 * @param convertedProtocol
+	 *            root of the converted protocol tree
+	 * @param convertedEntities
+	 *            entities created while converting the protocol tree
+	 * @param persistedProtocol
+	 *            root of the protocol tree in the database
+	 */
+	public boolean isEqual(Protocol convertedProtocol, EntityBuffer convertedEntities, Protocol persistedProtocol)
+	{
+		Map<String, Map<String, String>> convertedCategories = getCategoryNames(convertedEntities.getEntities(
+				Category.ENTITY_NAME, Category.class));
+
+		List<ObservableFeature> persistedFeatures = new ArrayList<ObservableFeature>();
+		if (!isEqual(convertedProtocol, persistedProtocol, persistedFeatures)) return false;
+
+		Map<String, Map<String, String>> persistedCategories;
+		if (!persistedFeatures.isEmpty())
+		{
+			persistedCategories = getCategoryNames(dataService.findAll(Category.ENTITY_NAME,
+					new QueryImpl().in(Category.OBSERVABLEFEATURE, persistedFeatures), Category.class));
+		}
+		else
+		{
+			persistedCategories = Collections.emptyMap();
+		}
+		return convertedCategories.equals(persistedCategories);
+	}
+
+	private boolean isEqual(Protocol convertedProtocol, Protocol persistedProtocol,
+			List<ObservableFeature> persistedFeatures)
+	{
+		if (!Objects.equal(convertedProtocol.getIdentifier(), persistedProtocol.getIdentifier())
+				|| !Objects.equal(convertedProtocol.getName(), persistedProtocol.getName())
+				|| isActive(convertedProtocol) != isActive(persistedProtocol))
+		{
+			return false;
+		}
+
+		List<ObservableFeature> convertedProtocolFeatures = nullToEmpty(convertedProtocol.getFeatures());
+		List<ObservableFeature> persistedProtocolFeatures = nullToEmpty(persistedProtocol.getFeatures());
+		if (convertedProtocolFeatures.size() != persistedProtocolFeatures.size()) return false;
+		for (int i = 0; i < convertedProtocolFeatures.size(); ++i)
+		{
+			if (!isEqual(convertedProtocolFeatures.get(i), persistedProtocolFeatures.get(i))) return false;
+		}
+		persistedFeatures.addAll(persistedProtocolFeatures);
+
+		List<Protocol> convertedSubprotocols = nullToEmpty(convertedProtocol.getSubprotocols());
+		List<Protocol> persistedSubprotocols = nullToEmpty(persistedProtocol.getSubprotocols());
+		if (convertedSubprotocols.size() != persistedSubprotocols.size()) return false;
+		for (int i = 0; i < convertedSubprotocols.size(); ++i)
+		{
+			if (!isEqual(convertedSubprotocols.get(i), persistedSubprotocols.get(i), persistedFeatures)) return false;
+		}
+		return true;
+	}
+
+	private boolean isEqual(ObservableFeature convertedFeature, ObservableFeature persistedFeature)
+	{
+		return Objects.equal(convertedFeature.getIdentifier(), persistedFeature.getIdentifier())
+				&& Objects.equal(convertedFeature.getName(), persistedFeature.getName())
+				&& Objects.equal(convertedFeature.getDescription(), persistedFeature.getDescription())
+				&& Objects.equal(convertedFeature.getDataType(), persistedFeature.getDataType())
+				&& Objects.equal(getName(convertedFeature.getUnit()), getName(persistedFeature.getUnit()));
+	}
+
+	/**
+	 * Returns the category names by value code per feature identifier, so that categories are compared regardless of
+	 * the order in which they were written or retrieved
+	 */
+	private static Map<String, Map<String, String>> getCategoryNames(Iterable<Category> categories)
+	{
+		Map<String, Map<String, String>> categoryNames = new HashMap<String, Map<String, String>>();
+		for (Category category : categories)
+		{
+			String featureIdentifier = category.getObservableFeature().getIdentifier();
+			Map<String, String> featureCategoryNames = categoryNames.get(featureIdentifier);
+			if (featureCategoryNames == null)
+			{
+				featureCategoryNames = new HashMap<String, String>();
+				categoryNames.put(featureIdentifier, featureCategoryNames);
+			}
+			featureCategoryNames.put(category.getValueCode(), category.getName());
+		}
+		return categoryNames;
+	}
+
+	private static boolean isActive(Protocol protocol)
+	{
+		return protocol.getActive() == null || protocol.getActive().booleanValue();
+	}
+
+	private static String getName(OntologyTerm ontologyTerm)
+	{
+		return ontologyTerm != null ? ontologyTerm.getName() : null;
+	}
+
+	private static <T> List<T> nullToEmpty(List<T> list)
+	{
+		return list != null ? list : Collections.<T> emptyList();
+	}
+}
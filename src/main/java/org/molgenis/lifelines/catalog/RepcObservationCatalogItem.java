@@ -1,5 +1,6 @@
 package org.molgenis.lifelines.catalog;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.hl7.v3.CD;
@@ -10,11 +11,22 @@ import org.molgenis.catalog.CatalogItem;
 public class RepcObservationCatalogItem implements CatalogItem
 {
 	private final REPCMT000100UV01Observation observation;
+	private final OrganizerCatalogFolder parent;
 
 	public RepcObservationCatalogItem(REPCMT000100UV01Observation observation)
+	{
+		this(observation, null);
+	}
+
+	/**
+	 * @param parent
+	 *            folder containing this item or null if unknown
+	 */
+	RepcObservationCatalogItem(REPCMT000100UV01Observation observation, OrganizerCatalogFolder parent)
 	{
 		if (observation == null) throw new IllegalArgumentException("observation is null");
 		this.observation = observation;
+		this.parent = parent;
 	}
 
 	@Override
@@ -59,9 +71,10 @@ public class RepcObservationCatalogItem implements CatalogItem
 	}
 
 	@Override
-	public Iterable<CatalogFolder> getPath()
+	public List<CatalogFolder> getPath()
 	{
-		throw new UnsupportedOperationException();
+		if (parent == null) return Collections.emptyList();
+		return parent.getPath();
 	}
 
 	@Override
@@ -0,0 +1,394 @@
+package org.molgenis.lifelines.catalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.jws.WebMethod;
+import javax.jws.WebParam;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.RequestWrapper;
+
+import nl.umcg.hl7.service.catalog.GenericLayerCatalogService;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.log4j.Logger;
+import org.hl7.v3.CD;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.molgenis.lifelines.utils.OutputStreamHttpEntity;
+
+/**
+ * Reads a catalog from the Generic Layer catalog service response with a pull parser. Only the measurement organizers
+ * (or generic organizers) are unmarshalled, one at a time, so memory use is bounded by the size of the largest
+ * measurement instead of the size of the catalog.
+ *
+ * The SOAP request is created from the JAX-WS annotations of {@link GenericLayerCatalogService} so that it matches the
+ * request sent by the generated client.
+ */
+class StreamingCatalogReader implements CatalogReader
+{
+	private static final Logger logger = Logger.getLogger(StreamingCatalogReader.class);
+
+	private static final String SOAP_ENVELOPE_NAMESPACE = "http://schemas.xmlsoap.org/soap/envelope/";
+	private static final String OPERATION_GET_CATALOG = "getCatalog";
+
+	private static final String ELEMENT_ORGANIZER = "organizer";
+	private static final String ELEMENT_COMPONENT = "component";
+	private static final String ELEMENT_CODE = "code";
+	private static final String ELEMENT_EFFECTIVE_TIME = "effectiveTime";
+
+	private static final int LEVEL_DATA_SOURCE = 1;
+	private static final int LEVEL_COHORT = 2;
+	private static final int LEVEL_MEASUREMENT = 3;
+
+	private static final JAXBContext JAXB_CONTEXT_ORGANIZER;
+
+	static
+	{
+		try
+		{
+			JAXB_CONTEXT_ORGANIZER = JAXBContext.newInstance(REPCMT000100UV01Organizer.class);
+		}
+		catch (JAXBException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final HttpClient httpClient;
+	private final GenericLayerCatalogService genericLayerCatalogService;
+	private final String catalogReleaseId;
+	private final boolean useOntology;
+
+	public StreamingCatalogReader(HttpClient httpClient, GenericLayerCatalogService genericLayerCatalogService,
+			String catalogReleaseId, boolean useOntology)
+	{
+		if (httpClient == null) throw new IllegalArgumentException("httpClient is null");
+		if (genericLayerCatalogService == null) throw new IllegalArgumentException("genericLayerCatalogService is null");
+		if (catalogReleaseId == null) throw new IllegalArgumentException("catalogReleaseId is null");
+		this.httpClient = httpClient;
+		this.genericLayerCatalogService = genericLayerCatalogService;
+		this.catalogReleaseId = catalogReleaseId;
+		this.useOntology = useOntology;
+	}
+
+	@Override
+	public void read(CatalogHandler catalogHandler)
+	{
+		HttpPost httpPost = createGetCatalogRequest();
+		InputStream xmlStream = null;
+		try
+		{
+			HttpResponse response = httpClient.execute(httpPost);
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode < 200 || statusCode > 299) throw new IOException("Error retrieving catalog ["
+					+ catalogReleaseId + "] (statuscode " + statusCode + ")");
+			xmlStream = response.getEntity().getContent();
+
+			XMLStreamReader xmlStreamReader = XMLInputFactory.newInstance().createXMLStreamReader(xmlStream);
+			try
+			{
+				parse(xmlStreamReader, catalogHandler);
+			}
+			finally
+			{
+				xmlStreamReader.close();
+			}
+		}
+		catch (IOException e)
+		{
+			httpPost.abort();
+			logger.error("", e);
+			throw new RuntimeException(e);
+		}
+		catch (XMLStreamException e)
+		{
+			httpPost.abort();
+			logger.error("", e);
+			throw new RuntimeException(e);
+		}
+		catch (JAXBException e)
+		{
+			httpPost.abort();
+			logger.error("", e);
+			throw new RuntimeException(e);
+		}
+		catch (RuntimeException e)
+		{
+			httpPost.abort();
+			throw e;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(xmlStream);
+		}
+	}
+
+	private void parse(XMLStreamReader reader, CatalogHandler catalogHandler) throws XMLStreamException,
+			JAXBException
+	{
+		Unmarshaller unmarshaller = JAXB_CONTEXT_ORGANIZER.createUnmarshaller();
+
+		// element names of open elements and open organizers above measurement level
+		Deque<String> elements = new ArrayDeque<String>();
+		Deque<OrganizerHeader> organizers = new ArrayDeque<OrganizerHeader>();
+
+		int event = reader.next();
+		while (event != XMLStreamConstants.END_DOCUMENT)
+		{
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String localName = reader.getLocalName();
+				OrganizerHeader parentOrganizer = organizers.peek();
+				boolean isOrganizerChild = parentOrganizer != null && elements.size() == parentOrganizer.depth;
+
+				if (localName.equals(ELEMENT_ORGANIZER) && ELEMENT_COMPONENT.equals(elements.peek()))
+				{
+					int level = organizers.size() + 1;
+					if (parentOrganizer != null && parentOrganizer.skipComponents)
+					{
+						skipElement(reader);
+						event = reader.getEventType();
+						continue;
+					}
+					else if (level == LEVEL_MEASUREMENT || (level == LEVEL_COHORT && parentOrganizer.generic))
+					{
+						// unmarshal complete organizer, reader is positioned after the organizer afterwards
+						REPCMT000100UV01Organizer organizer = unmarshaller.unmarshal(reader,
+								REPCMT000100UV01Organizer.class).getValue();
+						if (level == LEVEL_MEASUREMENT)
+						{
+							parentOrganizer.componentHasOrganizer = true;
+							catalogHandler.measurement(organizer);
+						}
+						else
+						{
+							catalogHandler.genericOrganizer(organizer);
+						}
+						event = reader.getEventType();
+						continue;
+					}
+					elements.push(localName);
+					organizers.push(new OrganizerHeader(level, elements.size()));
+				}
+				else if (isOrganizerChild && localName.equals(ELEMENT_CODE))
+				{
+					parentOrganizer.code = unmarshaller.unmarshal(reader, CD.class).getValue();
+					event = reader.getEventType();
+					continue;
+				}
+				else
+				{
+					if (isOrganizerChild)
+					{
+						if (localName.equals(ELEMENT_EFFECTIVE_TIME))
+						{
+							parentOrganizer.available = false;
+						}
+						else if (localName.equals(ELEMENT_COMPONENT))
+						{
+							startOrganizer(parentOrganizer, organizers, catalogHandler);
+							parentOrganizer.componentHasOrganizer = false;
+						}
+					}
+					elements.push(localName);
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				OrganizerHeader organizer = organizers.peek();
+				if (organizer != null)
+				{
+					if (elements.size() == organizer.depth)
+					{
+						startOrganizer(organizer, organizers, catalogHandler);
+						endOrganizer(organizer, catalogHandler);
+						organizers.pop();
+					}
+					else if (elements.size() == organizer.depth + 1 && organizer.level == LEVEL_COHORT
+							&& ELEMENT_COMPONENT.equals(elements.peek()) && !organizer.componentHasOrganizer)
+					{
+						// measurements after a component without organizer are ignored, same as OrganizerCatalogReader
+						organizer.skipComponents = true;
+					}
+				}
+				elements.pop();
+			}
+			event = reader.next();
+		}
+	}
+
+	private void startOrganizer(OrganizerHeader organizer, Deque<OrganizerHeader> organizers,
+			CatalogHandler catalogHandler)
+	{
+		if (organizer.started) return;
+		organizer.started = true;
+
+		if (organizer.code == null)
+		{
+			throw new RuntimeException("Expected code for organizer at level [" + organizer.level + "]");
+		}
+
+		if (organizer.level == LEVEL_DATA_SOURCE)
+		{
+			if (OrganizerCatalogReader.CODE_GENERIC.equals(organizer.code.getCode()))
+			{
+				organizer.generic = true;
+				catalogHandler.startGeneric(organizer.code, organizer.available);
+			}
+			else
+			{
+				catalogHandler.startDataSource(organizer.code, organizer.available);
+			}
+		}
+		else
+		{
+			catalogHandler.startCohort(organizer.code, organizer.available);
+		}
+	}
+
+	private void endOrganizer(OrganizerHeader organizer, CatalogHandler catalogHandler)
+	{
+		if (organizer.level == LEVEL_DATA_SOURCE)
+		{
+			if (organizer.generic) catalogHandler.endGeneric();
+			else catalogHandler.endDataSource();
+		}
+		else
+		{
+			catalogHandler.endCohort();
+		}
+	}
+
+	/**
+	 * Skips the current element including its descendants, the reader is positioned after the element afterwards
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) ++depth;
+			else if (event == XMLStreamConstants.END_ELEMENT) --depth;
+		}
+		reader.next();
+	}
+
+	private HttpPost createGetCatalogRequest()
+	{
+		final Method getCatalogMethod = getWebMethod(OPERATION_GET_CATALOG);
+		WebMethod webMethod = getCatalogMethod.getAnnotation(WebMethod.class);
+		final RequestWrapper requestWrapper = getCatalogMethod.getAnnotation(RequestWrapper.class);
+		if (webMethod == null || requestWrapper == null)
+		{
+			throw new RuntimeException("Operation [" + OPERATION_GET_CATALOG + "] is not a wrapped web method");
+		}
+
+		// same arguments as GenericLayerCatalogManagerService.retrieveCatalog
+		final Object[] args = new Object[]
+		{ catalogReleaseId, null, useOntology };
+		final Annotation[][] parameterAnnotations = getCatalogMethod.getParameterAnnotations();
+		if (parameterAnnotations.length != args.length)
+		{
+			throw new RuntimeException("Expected " + args.length + " parameters for operation ["
+					+ OPERATION_GET_CATALOG + "]");
+		}
+
+		String endpointAddress = (String) ((BindingProvider) genericLayerCatalogService).getRequestContext().get(
+				BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+
+		HttpPost httpPost = new HttpPost(endpointAddress);
+		httpPost.setHeader("Content-Type", "text/xml; charset=utf-8");
+		httpPost.setHeader("SOAPAction", '"' + webMethod.action() + '"');
+		httpPost.setEntity(new OutputStreamHttpEntity()
+		{
+			@Override
+			public void writeTo(OutputStream outstream) throws IOException
+			{
+				try
+				{
+					XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outstream, "UTF-8");
+					writer.writeStartDocument("UTF-8", "1.0");
+					writer.writeStartElement("s", "Envelope", SOAP_ENVELOPE_NAMESPACE);
+					writer.writeNamespace("s", SOAP_ENVELOPE_NAMESPACE);
+					writer.writeStartElement("s", "Body", SOAP_ENVELOPE_NAMESPACE);
+					writer.writeStartElement("", requestWrapper.localName(), requestWrapper.targetNamespace());
+					writer.writeDefaultNamespace(requestWrapper.targetNamespace());
+					for (int i = 0; i < args.length; ++i)
+					{
+						if (args[i] == null) continue;
+						WebParam webParam = getWebParam(parameterAnnotations[i]);
+						writer.writeStartElement("", webParam.name(), webParam.targetNamespace());
+						writer.writeDefaultNamespace(webParam.targetNamespace());
+						writer.writeCharacters(args[i].toString());
+						writer.writeEndElement();
+					}
+					writer.writeEndElement();
+					writer.writeEndElement();
+					writer.writeEndElement();
+					writer.writeEndDocument();
+					writer.close();
+				}
+				catch (XMLStreamException e)
+				{
+					throw new IOException(e);
+				}
+				outstream.close();
+			}
+		});
+		return httpPost;
+	}
+
+	private static Method getWebMethod(String methodName)
+	{
+		for (Method method : GenericLayerCatalogService.class.getMethods())
+		{
+			if (method.getName().equals(methodName)) return method;
+		}
+		throw new RuntimeException("Unknown operation [" + methodName + "]");
+	}
+
+	private static WebParam getWebParam(Annotation[] annotations)
+	{
+		for (Annotation annotation : annotations)
+		{
+			if (annotation instanceof WebParam) return (WebParam) annotation;
+		}
+		throw new RuntimeException("Missing @WebParam for operation [" + OPERATION_GET_CATALOG + "]");
+	}
+
+	private static class OrganizerHeader
+	{
+		private final int level;
+		private final int depth;
+		private CD code;
+		private boolean available = true;
+		private boolean generic;
+		private boolean started;
+		private boolean componentHasOrganizer;
+		private boolean skipComponents;
+
+		public OrganizerHeader(int level, int depth)
+		{
+			this.level = level;
+			this.depth = depth;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.molgenis.lifelines.catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.support.QueryImpl;
+import org.molgenis.lifelines.utils.OmxIdentifierGenerator;
+import org.molgenis.omx.observ.target.OntologyTerm;
+
+/**
+ * Provides one unit ontology term per unit for the duration of a catalog load. Unit ontology terms have an identifier
+ * derived from the unit, so that terms written by previous loads are reused. Thread-safe.
+ */
+class UnitOntologyTermCache
+{
+	private static final String CODE_SYSTEM_UCUM = "2.16.840.1.113883.6.8";
+	private static final String IDENTIFIER_PREFIX = OmxIdentifierGenerator.from(OntologyTerm.class, CODE_SYSTEM_UCUM)
+			+ '.';
+
+	private final ConcurrentMap<String, OntologyTerm> unitOntologyTerms = new ConcurrentHashMap<String, OntologyTerm>();
+	private final Queue<OntologyTerm> newUnitOntologyTerms = new ConcurrentLinkedQueue<OntologyTerm>();
+
+	/**
+	 * Creates a cache containing the unit ontology terms that were written by previous catalog loads
+	 */
+	public UnitOntologyTermCache(DataService dataService)
+	{
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		Iterable<OntologyTerm> ontologyTerms = dataService.findAll(OntologyTerm.ENTITY_NAME,
+				new QueryImpl().like(OntologyTerm.IDENTIFIER, IDENTIFIER_PREFIX), OntologyTerm.class);
+		for (OntologyTerm ontologyTerm : ontologyTerms)
+		{
+			if (ontologyTerm.getIdentifier().startsWith(IDENTIFIER_PREFIX))
+			{
+				unitOntologyTerms.put(ontologyTerm.getName(), ontologyTerm);
+			}
+		}
+	}
+
+	/**
+	 * Returns the ontology term for the given unit, terms that do not exist yet are created and can be retrieved with
+	 * {@link #drainNewUnitOntologyTerms()}
+	 */
+	public OntologyTerm getUnitOntologyTerm(String unit)
+	{
+		if (unit == null) throw new IllegalArgumentException("unit is null");
+
+		OntologyTerm unitOntologyTerm = unitOntologyTerms.get(unit);
+		return unitOntologyTerm != null ? unitOntologyTerm : createUnitOntologyTerm(unit);
+	}
+
+	/**
+	 * Queues a new term before publishing it, so that a term used by another thread is always drained before or with
+	 * the features that reference it
+	 */
+	private synchronized OntologyTerm createUnitOntologyTerm(String unit)
+	{
+		OntologyTerm unitOntologyTerm = unitOntologyTerms.get(unit);
+		if (unitOntologyTerm == null)
+		{
+			unitOntologyTerm = new OntologyTerm();
+			unitOntologyTerm.setIdentifier(IDENTIFIER_PREFIX + unit);
+			unitOntologyTerm.setName(unit);
+
+			newUnitOntologyTerms.add(unitOntologyTerm);
+			unitOntologyTerms.put(unit, unitOntologyTerm);
+		}
+		return unitOntologyTerm;
+	}
+
+	/**
+	 * Returns and forgets the unit ontology terms that were created since the previous call
+	 */
+	public List<OntologyTerm> drainNewUnitOntologyTerms()
+	{
+		List<OntologyTerm> ontologyTerms = new ArrayList<OntologyTerm>();
+		OntologyTerm ontologyTerm;
+		while ((ontologyTerm = newUnitOntologyTerms.poll()) != null)
+		{
+			ontologyTerms.add(ontologyTerm);
+		}
+		return ontologyTerms;
+	}
+}
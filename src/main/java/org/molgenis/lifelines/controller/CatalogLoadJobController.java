@@ -0,0 +1,117 @@
+package org.molgenis.lifelines.controller;
+
+import static org.molgenis.lifelines.controller.CatalogLoadJobController.URI;
+
+import java.util.Date;
+
+import org.molgenis.framework.ui.MolgenisPluginController;
+import org.molgenis.lifelines.catalog.CatalogLoadJob;
+import org.molgenis.lifelines.catalog.CatalogLoadJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller that starts catalog loads in the background and reports their progress
+ */
+@Controller
+@RequestMapping(URI)
+public class CatalogLoadJobController extends MolgenisPluginController
+{
+	public static final String ID = "catalogload";
+	public static final String URI = MolgenisPluginController.PLUGIN_URI_PREFIX + ID;
+
+	private final CatalogLoadJobService catalogLoadJobService;
+
+	@Autowired
+	public CatalogLoadJobController(CatalogLoadJobService catalogLoadJobService)
+	{
+		super(URI);
+		if (catalogLoadJobService == null) throw new IllegalArgumentException("catalogLoadJobService is null");
+		this.catalogLoadJobService = catalogLoadJobService;
+	}
+
+	@RequestMapping(value = "/{catalogId}", method = RequestMethod.POST)
+	public ResponseEntity<CatalogLoadJobResponse> loadCatalog(@PathVariable String catalogId)
+	{
+		CatalogLoadJob catalogLoadJob = catalogLoadJobService.loadCatalog(catalogId);
+		return new ResponseEntity<CatalogLoadJobResponse>(new CatalogLoadJobResponse(catalogLoadJob),
+				HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/{catalogId}", method = RequestMethod.GET)
+	public ResponseEntity<CatalogLoadJobResponse> getCatalogLoadJob(@PathVariable String catalogId)
+	{
+		CatalogLoadJob catalogLoadJob = catalogLoadJobService.getCatalogLoadJob(catalogId);
+		if (catalogLoadJob == null) return new ResponseEntity<CatalogLoadJobResponse>(HttpStatus.NOT_FOUND);
+		return new ResponseEntity<CatalogLoadJobResponse>(new CatalogLoadJobResponse(catalogLoadJob), HttpStatus.OK);
+	}
+
+	static class CatalogLoadJobResponse
+	{
+		private final String catalogId;
+		private final Date submitDate;
+		private final String status;
+		private final String errorMessage;
+		private final int nrLoadedCohorts;
+		private final int nrLoadedMeasurements;
+		private final long nrConvertedItems;
+		private final double itemsPerSecond;
+
+		public CatalogLoadJobResponse(CatalogLoadJob catalogLoadJob)
+		{
+			this.catalogId = catalogLoadJob.getCatalogId();
+			this.submitDate = catalogLoadJob.getSubmitDate();
+			this.status = catalogLoadJob.getStatus().toString();
+			this.errorMessage = catalogLoadJob.getErrorMessage();
+			this.nrLoadedCohorts = catalogLoadJob.getNrLoadedCohorts();
+			this.nrLoadedMeasurements = catalogLoadJob.getNrLoadedMeasurements();
+			this.nrConvertedItems = catalogLoadJob.getNrConvertedItems();
+			this.itemsPerSecond = catalogLoadJob.getItemsPerSecond();
+		}
+
+		public String getCatalogId()
+		{
+			return catalogId;
+		}
+
+		public Date getSubmitDate()
+		{
+			return submitDate;
+		}
+
+		public String getStatus()
+		{
+			return status;
+		}
+
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+
+		public int getNrLoadedCohorts()
+		{
+			return nrLoadedCohorts;
+		}
+
+		public int getNrLoadedMeasurements()
+		{
+			return nrLoadedMeasurements;
+		}
+
+		public long getNrConvertedItems()
+		{
+			return nrConvertedItems;
+		}
+
+		public double getItemsPerSecond()
+		{
+			return itemsPerSecond;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.molgenis.lifelines.controller;
+
+import static org.molgenis.lifelines.controller.StudyDefinitionExportJobController.URI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.framework.ui.MolgenisPluginController;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller that starts study definition exports to the Generic Layer and reports their progress
+ */
+@Controller
+@RequestMapping(URI)
+public class StudyDefinitionExportJobController extends MolgenisPluginController
+{
+	public static final String ID = "studydefinitionexport";
+	public static final String URI = MolgenisPluginController.PLUGIN_URI_PREFIX + ID;
+
+	private final StudyDefinitionExportJobService studyDefinitionExportJobService;
+
+	@Autowired
+	public StudyDefinitionExportJobController(StudyDefinitionExportJobService studyDefinitionExportJobService)
+	{
+		super(URI);
+		if (studyDefinitionExportJobService == null)
+		{
+			throw new IllegalArgumentException("studyDefinitionExportJobService is null");
+		}
+		this.studyDefinitionExportJobService = studyDefinitionExportJobService;
+	}
+
+	/**
+	 * Queues the export of the given study data requests and returns the export job of each study data request
+	 */
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<List<StudyDefinitionExportJobResponse>> exportStudyDefinitions(
+			@RequestBody List<String> studyDataRequestIds)
+	{
+		Map<String, StudyDefinitionExportJob> exportJobs = studyDefinitionExportJobService.export(studyDataRequestIds);
+		List<StudyDefinitionExportJobResponse> exportJobResponses = new ArrayList<StudyDefinitionExportJobResponse>(
+				exportJobs.size());
+		for (StudyDefinitionExportJob exportJob : exportJobs.values())
+		{
+			exportJobResponses.add(new StudyDefinitionExportJobResponse(exportJob));
+		}
+		return new ResponseEntity<List<StudyDefinitionExportJobResponse>>(exportJobResponses, HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/{studyDataRequestId}", method = RequestMethod.GET)
+	public ResponseEntity<StudyDefinitionExportJobResponse> getExportJob(@PathVariable String studyDataRequestId)
+	{
+		StudyDefinitionExportJob exportJob = studyDefinitionExportJobService.getExportJob(studyDataRequestId);
+		if (exportJob == null) return new ResponseEntity<StudyDefinitionExportJobResponse>(HttpStatus.NOT_FOUND);
+		return new ResponseEntity<StudyDefinitionExportJobResponse>(new StudyDefinitionExportJobResponse(exportJob),
+				HttpStatus.OK);
+	}
+
+	static class StudyDefinitionExportJobResponse
+	{
+		private final String studyDataRequestId;
+		private final String status;
+		private final List<String> remainingSteps;
+		private final String errorMessage;
+
+		public StudyDefinitionExportJobResponse(StudyDefinitionExportJob exportJob)
+		{
+			this.studyDataRequestId = exportJob.getStudyDataRequestId();
+			this.status = exportJob.getStatus().toString();
+			this.remainingSteps = new ArrayList<String>();
+			for (Step step : exportJob.getRemainingSteps())
+			{
+				this.remainingSteps.add(step.toString());
+			}
+			this.errorMessage = exportJob.getErrorMessage();
+		}
+
+		public String getStudyDataRequestId()
+		{
+			return studyDataRequestId;
+		}
+
+		public String getStatus()
+		{
+			return status;
+		}
+
+		public List<String> getRemainingSteps()
+		{
+			return remainingSteps;
+		}
+
+		public String getErrorMessage()
+		{
+			return errorMessage;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.molgenis.omx.observ.value.Value;
+
+/**
+ * Observations of a participant converted from a participant organizer. Features are referenced by identifier and
+ * categories by the value code within their feature, they are resolved by the thread writing the participant.
+ */
+class ConvertedParticipant
+{
+	private final List<Observation> observations;
+
+	public ConvertedParticipant(List<Observation> observations)
+	{
+		if (observations == null) throw new IllegalArgumentException("observations is null");
+		this.observations = Collections.unmodifiableList(new ArrayList<Observation>(observations));
+	}
+
+	public List<Observation> getObservations()
+	{
+		return observations;
+	}
+
+	static class Observation
+	{
+		private final String featureIdentifier;
+		private final Value value;
+		private final String categoryValueCode;
+
+		/**
+		 * Creates an observation with either a value or the value code of a category of the feature
+		 */
+		public Observation(String featureIdentifier, Value value, String categoryValueCode)
+		{
+			if (featureIdentifier == null) throw new IllegalArgumentException("featureIdentifier is null");
+			this.featureIdentifier = featureIdentifier;
+			this.value = value;
+			this.categoryValueCode = categoryValueCode;
+		}
+
+		public String getFeatureIdentifier()
+		{
+			return featureIdentifier;
+		}
+
+		public Value getValue()
+		{
+			return value;
+		}
+
+		public String getCategoryValueCode()
+		{
+			return categoryValueCode;
+		}
+	}
+}
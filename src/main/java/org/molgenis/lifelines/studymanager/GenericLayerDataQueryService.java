@@ -1,11 +1,21 @@
 package org.molgenis.lifelines.studymanager;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.IOUtils;
@@ -13,46 +23,46 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.log4j.Logger;
-import org.hl7.v3.ANY;
-import org.hl7.v3.BL;
-import org.hl7.v3.CD;
-import org.hl7.v3.INT;
 import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
-import org.hl7.v3.PQ;
-import org.hl7.v3.REAL;
-import org.hl7.v3.REPCMT000100UV01Component3;
-import org.hl7.v3.REPCMT000100UV01Observation;
-import org.hl7.v3.REPCMT000100UV01Organizer;
 import org.hl7.v3.REPCMT000400UV01ActCategory;
 import org.hl7.v3.REPCMT000400UV01Component4;
-import org.hl7.v3.ST;
-import org.hl7.v3.TS;
 import org.molgenis.catalog.UnknownCatalogException;
 import org.molgenis.data.DataService;
 import org.molgenis.data.support.QueryImpl;
 import org.molgenis.lifelines.catalog.CatalogIdConverter;
-import org.molgenis.lifelines.utils.OmxIdentifierGenerator;
+import org.molgenis.lifelines.utils.BatchingEntityWriter;
+import org.molgenis.lifelines.utils.EntityWriter;
 import org.molgenis.lifelines.utils.OutputStreamHttpEntity;
+import org.molgenis.omx.core.RuntimeProperty;
 import org.molgenis.omx.observ.Category;
 import org.molgenis.omx.observ.DataSet;
 import org.molgenis.omx.observ.ObservableFeature;
 import org.molgenis.omx.observ.ObservationSet;
 import org.molgenis.omx.observ.ObservedValue;
-import org.molgenis.omx.observ.value.BoolValue;
 import org.molgenis.omx.observ.value.CategoricalValue;
-import org.molgenis.omx.observ.value.LongValue;
-import org.molgenis.omx.observ.value.StringValue;
 import org.molgenis.study.UnknownStudyDefinitionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class GenericLayerDataQueryService
 {
 	private static final Logger logger = Logger.getLogger(GenericLayerDataQueryService.class);
 
+	private static final String RUNTIME_PROPERTY_LOAD_OFFSET_PREFIX = "StudyDataLoad_";
+	private static final String STAGING_DATA_SET_IDENTIFIER_PREFIX = "Staging_";
+	private static final String STAGING_DATA_SET_NAME_SUFFIX = " (loading)";
+	/** number of participants per transaction when resuming an interrupted load while chunked loading is disabled */
+	private static final int RESUME_CHUNK_SIZE = 1000;
+	private static final int SPOOL_BUFFER_SIZE = 65536;
+
 	private static final JAXBContext JAXB_CONTEXT_QUALITY_MEASURE_DOCUMENT;
 	private static final JAXBContext JAXB_CONTEXT_ACT_CATEGORY;
 
@@ -86,9 +96,186 @@ public class GenericLayerDataQueryService
 	private String dataQueryServiceUrl; // Specify in molgenis-server.properties
 	@Autowired
 	private DataService dataService;
+	@Value("${lifelines.data.query.streaming:false}")
+	private boolean streaming;
+	@Value("${lifelines.data.query.spool:false}")
+	private boolean spoolToDisk;
+	@Value("${lifelines.data.query.batch.size:1000}")
+	private int batchSize;
+	@Value("${lifelines.data.query.conversion.parallelism:1}")
+	private int conversionParallelism;
+	@Value("${lifelines.data.query.chunk.size:0}")
+	private int chunkSize; // number of participants per transaction, 0 loads all participants in one transaction
+	@Autowired
+	private PlatformTransactionManager transactionManager;
 
-	@Transactional
+	/**
+	 * Retrieves the data of a study definition from the Generic Layer and stores it in the data set of the study
+	 * definition. Observation sets and values are written in batches. In streaming mode participants are read from the
+	 * response one at a time instead of reading the whole response into memory first. In spool mode the response is
+	 * first copied to a compressed temporary file, so that the connection to the Generic Layer is not held open while
+	 * the data is written to the database.
+	 * 
+	 * By default the data is loaded in one transaction. In chunked mode a transaction is committed every chunk size
+	 * participants together with the number of loaded participants, a broken load is resumed after the last committed
+	 * participant. An interrupted load is always resumed in chunks, also if chunked mode was disabled since. Chunks are
+	 * written to a staging data set, the data set of the study definition stays empty until the last chunk was
+	 * committed and the staging data set takes its place.
+	 * 
+	 * Participants are converted by conversion parallelism threads if it is greater than 1. The response is then read
+	 * by a separate thread, so that reading continues while the calling thread writes the converted participants in
+	 * document order.
+	 */
 	public void loadStudyDefinitionData(final POQMMT000001UVQualityMeasureDocument studyDefinition)
+	{
+		final ForkJoinPool conversionPool = conversionParallelism > 1 ? new ForkJoinPool(conversionParallelism) : null;
+		try
+		{
+			String id = studyDefinition.getId().getExtension();
+			final String dataSetIdentifier = CatalogIdConverter.catalogOfStudyDefinitionIdToOmxIdentifier(id);
+			if (chunkSize > 0 || findLoadOffsetProperty(dataSetIdentifier) != null)
+			{
+				loadStudyDefinitionDataInChunks(studyDefinition, dataSetIdentifier, conversionPool);
+				return;
+			}
+
+			new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult()
+			{
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status)
+				{
+					final DataSet dataSet = getDataSet(dataSetIdentifier);
+					final StudyDataResolutionCache resolutionCache = createResolutionCache(dataSet);
+
+					// referenced observation sets are written before observed values
+					final BatchingEntityWriter entityWriter = new BatchingEntityWriter(dataService, batchSize,
+							ObservationSet.ENTITY_NAME, ObservedValue.ENTITY_NAME);
+					final ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(
+							new ParticipantConverter(), new ParticipantWriter()
+							{
+								@Override
+								public void write(ConvertedParticipant participant)
+								{
+									addObservationSet(participant, dataSet, resolutionCache, entityWriter);
+								}
+							}, conversionPool, 0);
+					conversionPipeline.process(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							readStudyData(studyDefinition, conversionPipeline);
+						}
+					});
+					entityWriter.flush();
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			logger.error(e);
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			if (conversionPool != null) conversionPool.shutdownNow();
+		}
+	}
+
+	private void loadStudyDefinitionDataInChunks(final POQMMT000001UVQualityMeasureDocument studyDefinition,
+			final String dataSetIdentifier, ForkJoinPool conversionPool)
+	{
+		// chunks are committed independently of the transaction of the caller
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		final String stagingDataSetIdentifier = STAGING_DATA_SET_IDENTIFIER_PREFIX + dataSetIdentifier;
+		final int nrParticipantsPerChunk = chunkSize > 0 ? chunkSize : RESUME_CHUNK_SIZE;
+		ChunkedParticipantWriter participantWriter = transactionTemplate
+				.execute(new TransactionCallback<ChunkedParticipantWriter>()
+				{
+					@Override
+					public ChunkedParticipantWriter doInTransaction(TransactionStatus status)
+					{
+						DataSet dataSet = getDataSet(dataSetIdentifier);
+						DataSet stagingDataSet = findDataSet(stagingDataSetIdentifier);
+						boolean createStagingDataSet = stagingDataSet == null;
+						if (createStagingDataSet)
+						{
+							stagingDataSet = new DataSet();
+							stagingDataSet.setIdentifier(stagingDataSetIdentifier);
+							stagingDataSet.setName(dataSet.getName() + STAGING_DATA_SET_NAME_SUFFIX);
+							stagingDataSet.setProtocolUsed(dataSet.getProtocolUsed());
+							dataService.add(DataSet.ENTITY_NAME, stagingDataSet);
+						}
+
+						RuntimeProperty loadOffsetProperty = findLoadOffsetProperty(dataSetIdentifier);
+						if (loadOffsetProperty == null)
+						{
+							loadOffsetProperty = new RuntimeProperty();
+							loadOffsetProperty.setIdentifier(RUNTIME_PROPERTY_LOAD_OFFSET_PREFIX + dataSetIdentifier);
+							loadOffsetProperty.setName(dataSetIdentifier);
+							loadOffsetProperty.setValue("0");
+							dataService.add(RuntimeProperty.ENTITY_NAME, loadOffsetProperty);
+						}
+						else if (createStagingDataSet)
+						{
+							// nothing to resume without the staging data set
+							loadOffsetProperty.setValue("0");
+							dataService.update(RuntimeProperty.ENTITY_NAME, loadOffsetProperty);
+						}
+						long committedOffset = Long.parseLong(loadOffsetProperty.getValue());
+						if (committedOffset > 0)
+						{
+							logger.info("resuming load of data set [" + dataSetIdentifier + "] after participant ["
+									+ committedOffset + "]");
+						}
+
+						return new ChunkedParticipantWriter(dataSetIdentifier, stagingDataSetIdentifier,
+								createResolutionCache(dataSet), committedOffset, nrParticipantsPerChunk);
+					}
+				});
+		participantWriter.setTransactionTemplate(transactionTemplate);
+
+		// participants committed by a previous load are skipped before conversion
+		final ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(
+				new ParticipantConverter(), participantWriter, conversionPool, participantWriter.getNrParticipants());
+		conversionPipeline.process(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readStudyData(studyDefinition, conversionPipeline);
+			}
+		});
+		participantWriter.commitChunk();
+
+		// the staging data set replaces the empty data set once all participants were committed
+		transactionTemplate.execute(new TransactionCallbackWithoutResult()
+		{
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status)
+			{
+				DataSet dataSet = getDataSet(dataSetIdentifier);
+				DataSet stagingDataSet = getDataSet(stagingDataSetIdentifier);
+				dataService.delete(DataSet.ENTITY_NAME, dataSet);
+				stagingDataSet.setIdentifier(dataSetIdentifier);
+				stagingDataSet.setName(dataSet.getName());
+				dataService.update(DataSet.ENTITY_NAME, stagingDataSet);
+
+				RuntimeProperty loadOffsetProperty = findLoadOffsetProperty(dataSetIdentifier);
+				if (loadOffsetProperty != null) dataService.delete(RuntimeProperty.ENTITY_NAME, loadOffsetProperty);
+			}
+		});
+		logger.info("loaded " + participantWriter.getNrParticipants() + " participants in data set ["
+				+ dataSetIdentifier + "]");
+	}
+
+	/**
+	 * Sends the study definition to the Generic Layer and passes the participants of the response to the handler
+	 */
+	private void readStudyData(final POQMMT000001UVQualityMeasureDocument studyDefinition,
+			StudyDataHandler studyDataHandler)
 	{
 		try
 		{
@@ -113,9 +300,9 @@ public class GenericLayerDataQueryService
 				}
 			});
 
-			// parse study data response from GL
-			REPCMT000400UV01ActCategory actCategory;
+			// parse study data response from GL and convert participants to OMX
 			InputStream xmlStream = null;
+			File spoolFile = null;
 			try
 			{
 				HttpResponse response = httpClient.execute(httpPost);
@@ -123,63 +310,44 @@ public class GenericLayerDataQueryService
 				if (statusCode < 200 || statusCode > 299) throw new IOException(
 						"Error persisting study definition (statuscode " + statusCode + ")");
 				xmlStream = response.getEntity().getContent();
-				actCategory = JAXB_CONTEXT_ACT_CATEGORY.createUnmarshaller()
-						.unmarshal(new StreamSource(xmlStream), REPCMT000400UV01ActCategory.class).getValue();
+				if (spoolToDisk)
+				{
+					// reading the response to the end releases the connection before conversion starts
+					spoolFile = spool(xmlStream);
+					xmlStream.close();
+					xmlStream = new GZIPInputStream(new FileInputStream(spoolFile), SPOOL_BUFFER_SIZE);
+				}
+				if (streaming)
+				{
+					new StreamingStudyDataReader().read(xmlStream, studyDataHandler);
+				}
+				else
+				{
+					REPCMT000400UV01ActCategory actCategory = JAXB_CONTEXT_ACT_CATEGORY.createUnmarshaller()
+							.unmarshal(new StreamSource(xmlStream), REPCMT000400UV01ActCategory.class).getValue();
+					for (REPCMT000400UV01Component4 rootComponent : actCategory.getComponent())
+					{
+						studyDataHandler.participant(rootComponent.getOrganizer().getValue());
+					}
+				}
 			}
 			catch (RuntimeException e)
 			{
 				httpPost.abort();
 				throw e;
 			}
-			finally
+			catch (XMLStreamException e)
 			{
-				IOUtils.closeQuietly(xmlStream);
+				httpPost.abort();
+				throw new IOException(e);
 			}
-
-			// convert REPCMT000400UV01ActCategory to OMX and put in database
-			String id = studyDefinition.getId().getExtension();
-			String omxId = CatalogIdConverter.catalogOfStudyDefinitionIdToOmxIdentifier(id);
-			DataSet dataSet = dataService.findOne(DataSet.ENTITY_NAME, new QueryImpl().eq(DataSet.IDENTIFIER, omxId),
-					DataSet.class);
-
-			for (REPCMT000400UV01Component4 rootComponent : actCategory.getComponent())
+			finally
 			{
-				// create observation set
-				ObservationSet observationSet = new ObservationSet();
-				observationSet.setPartOfDataSet(dataSet);
-
-				REPCMT000100UV01Organizer organizer = rootComponent.getOrganizer().getValue();
-				// COCTMT050000UV01Patient patient = organizer.getRecordTarget().getValue().getPatient().getValue();
-				// JAXBElement<?> postalCodeSerializable = (JAXBElement<?>)
-				// patient.getAddr().get(0).getContent().get(0);
-				// if (postalCodeSerializable.getDeclaredType().equals(AdxpPostalCode.class))
-				// {
-				// AdxpPostalCode postalCode = (AdxpPostalCode) postalCodeSerializable;
-				// postalCodez
-				// }
-
-				// create other features and values
-				for (REPCMT000100UV01Component3 organizerComponent : organizer.getComponent())
+				IOUtils.closeQuietly(xmlStream);
+				if (spoolFile != null && !spoolFile.delete())
 				{
-					REPCMT000100UV01Observation observation = organizerComponent.getObservation().getValue();
-					String featureId = observation.getId().get(0).getRoot();
-					ObservableFeature observableFeature = dataService.findOne(ObservableFeature.ENTITY_NAME,
-							new QueryImpl().eq(ObservableFeature.IDENTIFIER, featureId), ObservableFeature.class);
-					if (observableFeature == null) throw new RuntimeException(
-							"missing ObservableFeature with identifier " + featureId);
-
-					org.molgenis.omx.observ.value.Value value = toValue(observation.getValue());
-					if (value != null)
-					{
-						ObservedValue observedValue = new ObservedValue();
-						observedValue.setObservationSet(observationSet);
-						observedValue.setFeature(observableFeature);
-						observedValue.setValue(value);
-
-						dataService.add(ObservedValue.ENTITY_NAME, observedValue);
-					}
+					logger.warn("failed to delete spool file [" + spoolFile + "]");
 				}
-				dataService.add(ObservationSet.ENTITY_NAME, observationSet);
 			}
 		}
 		catch (IOException e)
@@ -192,17 +360,130 @@ public class GenericLayerDataQueryService
 			logger.error(e);
 			throw new RuntimeException(e);
 		}
-		catch (RuntimeException e)
+	}
+
+	/**
+	 * Copies the response to a compressed temporary file
+	 */
+	private File spool(InputStream xmlStream) throws IOException
+	{
+		File spoolFile = File.createTempFile("studydata", ".xml.gz");
+		OutputStream spoolStream = null;
+		try
 		{
-			logger.error(e);
-			throw new RuntimeException(e);
+			// fastest compression so that spooling keeps up with the network
+			spoolStream = new GZIPOutputStream(new FileOutputStream(spoolFile), SPOOL_BUFFER_SIZE)
+			{
+				{
+					def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+			long nrBytes = IOUtils.copyLarge(xmlStream, spoolStream);
+			spoolStream.close();
+			logger.info("spooled " + nrBytes + " bytes of study data to [" + spoolFile + "] ("
+					+ spoolFile.length() + " bytes compressed)");
+			return spoolFile;
+		}
+		catch (IOException e)
+		{
+			IOUtils.closeQuietly(spoolStream);
+			if (!spoolFile.delete()) logger.warn("failed to delete spool file [" + spoolFile + "]");
+			throw e;
+		}
+	}
+
+	private DataSet findDataSet(String dataSetIdentifier)
+	{
+		return dataService.findOne(DataSet.ENTITY_NAME, new QueryImpl().eq(DataSet.IDENTIFIER, dataSetIdentifier),
+				DataSet.class);
+	}
+
+	/**
+	 * Returns the data set with the given identifier, fails if it does not exist in the current transaction
+	 */
+	private DataSet getDataSet(String dataSetIdentifier)
+	{
+		DataSet dataSet = findDataSet(dataSetIdentifier);
+		if (dataSet == null) throw new RuntimeException("DataSet [" + dataSetIdentifier + "] does not exist");
+		return dataSet;
+	}
+
+	private StudyDataResolutionCache createResolutionCache(DataSet dataSet)
+	{
+		return new StudyDataResolutionCache(dataService, dataSet.getProtocolUsed(), batchSize);
+	}
+
+	private RuntimeProperty findLoadOffsetProperty(String dataSetIdentifier)
+	{
+		return dataService.findOne(RuntimeProperty.ENTITY_NAME,
+				new QueryImpl().eq(RuntimeProperty.IDENTIFIER, RUNTIME_PROPERTY_LOAD_OFFSET_PREFIX + dataSetIdentifier),
+				RuntimeProperty.class);
+	}
+
+	private void addObservationSet(ConvertedParticipant participant, DataSet dataSet,
+			StudyDataResolutionCache resolutionCache, EntityWriter entityWriter)
+	{
+		// create observation set
+		ObservationSet observationSet = new ObservationSet();
+		observationSet.setPartOfDataSet(dataSet);
+		entityWriter.add(ObservationSet.ENTITY_NAME, observationSet);
+
+		// create other features and values
+		for (ConvertedParticipant.Observation observation : participant.getObservations())
+		{
+			String featureId = observation.getFeatureIdentifier();
+			ObservableFeature observableFeature = resolutionCache.getFeature(featureId);
+			if (observableFeature == null) throw new RuntimeException("missing ObservableFeature with identifier "
+					+ featureId);
+
+			String categoryValueCode = observation.getCategoryValueCode();
+			org.molgenis.omx.observ.value.Value value = categoryValueCode != null ? toCategoricalValue(
+					observableFeature, categoryValueCode, resolutionCache) : observation.getValue();
+			if (value != null)
+			{
+				ObservedValue observedValue = new ObservedValue();
+				observedValue.setObservationSet(observationSet);
+				observedValue.setFeature(observableFeature);
+				observedValue.setValue(value);
+
+				entityWriter.add(ObservedValue.ENTITY_NAME, observedValue);
+			}
+		}
+	}
+
+	private CategoricalValue toCategoricalValue(ObservableFeature observableFeature, String valueCode,
+			StudyDataResolutionCache resolutionCache)
+	{
+		Category category = resolutionCache.getCategory(observableFeature, valueCode);
+		if (category == null)
+		{
+			logger.error("missing category with value code [" + valueCode + "] for feature ["
+					+ observableFeature.getIdentifier() + "]");
+			return null;
 		}
+		CategoricalValue categoricalValue = new CategoricalValue();
+		categoricalValue.setValue(category);
+		return categoricalValue;
 	}
 
+	/**
+	 * Returns whether the data set of the given study definition exists and no chunked load of it is unfinished
+	 */
 	public boolean isStudyDataLoaded(String id)
 	{
 		String dataSetId = CatalogIdConverter.catalogOfStudyDefinitionIdToOmxIdentifier(id);
-		return dataService.count(DataSet.ENTITY_NAME, new QueryImpl().eq(DataSet.IDENTIFIER, dataSetId)) == 1;
+		// data sets of which a chunked load did not finish are not loaded
+		return dataService.count(DataSet.ENTITY_NAME, new QueryImpl().eq(DataSet.IDENTIFIER, dataSetId)) == 1
+				&& findLoadOffsetProperty(dataSetId) == null;
+	}
+
+	/**
+	 * Returns whether a chunked load of the data of the given study definition was started but did not finish
+	 */
+	public boolean isStudyDataLoadInterrupted(String id)
+	{
+		String dataSetId = CatalogIdConverter.catalogOfStudyDefinitionIdToOmxIdentifier(id);
+		return findLoadOffsetProperty(dataSetId) != null;
 	}
 
 	public boolean isStudyDataActivated(String id) throws UnknownStudyDefinitionException, UnknownCatalogException
@@ -217,75 +498,78 @@ public class GenericLayerDataQueryService
 		return dataset.getProtocolUsed().getActive();
 	}
 
-	private org.molgenis.omx.observ.value.Value toValue(ANY anyValue)
+	/**
+	 * Collects converted participants and commits them to the staging data set in chunks together with the number of
+	 * loaded participants. Participants committed by a previous load are skipped when reading, this relies on the
+	 * Generic Layer returning the participants of a study definition in the same order.
+	 */
+	private class ChunkedParticipantWriter implements ParticipantWriter
 	{
-		if (anyValue instanceof INT)
-		{
-			// integer
-			INT value = (INT) anyValue;
-			// convert to long, not to int
-			LongValue longValue = new LongValue();
-			longValue.setValue(value.getValue().longValue());
-			return longValue;
-		}
-		else if (anyValue instanceof ST)
-		{
-			// string
-			ST value = (ST) anyValue;
-			StringValue stringValue = new StringValue();
-			stringValue.setValue(value.getRepresentation().value());
-			return stringValue;
-		}
-		else if (anyValue instanceof PQ)
+		private final String dataSetIdentifier;
+		private final String stagingDataSetIdentifier;
+		private final StudyDataResolutionCache resolutionCache;
+		private final int nrParticipantsPerChunk;
+		private final List<ConvertedParticipant> chunk;
+		private TransactionTemplate transactionTemplate;
+		private long nrParticipants;
+
+		public ChunkedParticipantWriter(String dataSetIdentifier, String stagingDataSetIdentifier,
+				StudyDataResolutionCache resolutionCache, long committedOffset, int nrParticipantsPerChunk)
 		{
-			// physical quantity
-			PQ value = (PQ) anyValue;
-			StringValue stringValue = new StringValue();
-			stringValue.setValue(value.getValue());
-			return stringValue;
+			this.dataSetIdentifier = dataSetIdentifier;
+			this.stagingDataSetIdentifier = stagingDataSetIdentifier;
+			this.resolutionCache = resolutionCache;
+			this.nrParticipantsPerChunk = nrParticipantsPerChunk;
+			this.chunk = new ArrayList<ConvertedParticipant>(nrParticipantsPerChunk);
+			this.nrParticipants = committedOffset;
 		}
-		else if (anyValue instanceof TS)
+
+		public void setTransactionTemplate(TransactionTemplate transactionTemplate)
 		{
-			// time
-			TS value = (TS) anyValue;
-			StringValue stringValue = new StringValue();
-			stringValue.setValue(value.getValue());
-			return stringValue;
+			this.transactionTemplate = transactionTemplate;
 		}
-		else if (anyValue instanceof REAL)
+
+		/**
+		 * Returns the number of participants of the response that were written, including the participants committed
+		 * by a previous load
+		 */
+		public long getNrParticipants()
 		{
-			// fractional number
-			REAL value = (REAL) anyValue;
-			// conversion to double not always possible, see HL7 docs
-			StringValue stringValue = new StringValue();
-			stringValue.setValue(value.getValue());
-			return stringValue;
+			return nrParticipants;
 		}
-		else if (anyValue instanceof BL)
+
+		@Override
+		public void write(ConvertedParticipant participant)
 		{
-			// boolean
-			BL value = (BL) anyValue;
-			BoolValue boolValue = new BoolValue();
-			boolValue.setValue(value.isValue());
-			return boolValue;
+			chunk.add(participant);
+			++nrParticipants;
+			if (chunk.size() >= nrParticipantsPerChunk) commitChunk();
 		}
-		else if (anyValue instanceof CD) // for CD and CO values
+
+		public void commitChunk()
 		{
-			// categorical
-			CD value = (CD) anyValue;
-			String identifier = OmxIdentifierGenerator.from(Category.class, value.getCodeSystem(), value.getCode());
-			Category category = dataService.findOne(Category.ENTITY_NAME,
-					new QueryImpl().eq(Category.IDENTIFIER, identifier), Category.class);
-			if (category == null)
+			if (chunk.isEmpty()) return;
+			transactionTemplate.execute(new TransactionCallbackWithoutResult()
 			{
-				logger.error("missing category identifier: " + identifier);
-				return null;
-			}
-			CategoricalValue categoricalValue = new CategoricalValue();
-			categoricalValue.setValue(category);
-			return categoricalValue;
-		}
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status)
+				{
+					// the data set of the first transaction is not part of this transaction
+					DataSet dataSet = getDataSet(stagingDataSetIdentifier);
+					BatchingEntityWriter entityWriter = new BatchingEntityWriter(dataService, batchSize,
+							ObservationSet.ENTITY_NAME, ObservedValue.ENTITY_NAME);
+					for (ConvertedParticipant participant : chunk)
+					{
+						addObservationSet(participant, dataSet, resolutionCache, entityWriter);
+					}
+					entityWriter.flush();
 
-		throw new UnsupportedOperationException("ANY instance not supported: " + anyValue.getClass());
+					RuntimeProperty loadOffsetProperty = findLoadOffsetProperty(dataSetIdentifier);
+					loadOffsetProperty.setValue(Long.toString(nrParticipants));
+					dataService.update(RuntimeProperty.ENTITY_NAME, loadOffsetProperty);
+				}
+			});
+			chunk.clear();
+		}
 	}
-}
\ No newline at end of file
+}
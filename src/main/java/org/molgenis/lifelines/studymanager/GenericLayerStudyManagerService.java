@@ -2,7 +2,20 @@ package org.molgenis.lifelines.studymanager;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import nl.umcg.hl7.service.studydefinition.CreateResponse;
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionService;
@@ -15,12 +28,11 @@ import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceGet
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceReviseFAULTFaultMessage;
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceSubmitFAULTFaultMessage;
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceWithdrawFAULTFaultMessage;
-import nl.umcg.hl7.service.studydefinition.GetByEmailResponse;
-import nl.umcg.hl7.service.studydefinition.GetSubmittedResponse;
 
 import org.apache.log4j.Logger;
 import org.hl7.v3.ArrayOfXElement;
 import org.hl7.v3.HL7Container;
+import org.hl7.v3.II;
 import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
 import org.molgenis.catalog.UnknownCatalogException;
 import org.molgenis.catalogmanager.CatalogManagerService;
@@ -28,6 +40,7 @@ import org.molgenis.data.CrudRepository;
 import org.molgenis.data.DataService;
 import org.molgenis.data.Query;
 import org.molgenis.data.support.QueryImpl;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
 import org.molgenis.lifelines.studymanager.hl7.HL7StudyConverter;
 import org.molgenis.lifelines.studymanager.hl7.StudyBean;
 import org.molgenis.omx.auth.MolgenisUser;
@@ -38,16 +51,27 @@ import org.molgenis.study.StudyDefinition.Status;
 import org.molgenis.study.UnknownStudyDefinitionException;
 import org.molgenis.studymanager.StudyManagerService;
 
+import com.google.common.collect.Iterables;
+
 public class GenericLayerStudyManagerService implements StudyManagerService
 {
 	private static final Logger logger = Logger.getLogger(GenericLayerStudyManagerService.class);
 
+	/** maximum number of identifiers in a single 'in' query */
+	private static final int IDENTIFIER_QUERY_BATCH_SIZE = 1000;
+	public static final long DEFAULT_RETRIEVAL_TIMEOUT = 30000;
+	public static final long DEFAULT_CACHE_TIME_TO_LIVE = 60000;
+
 	private final GenericLayerStudyDefinitionService studyDefinitionService;
 	private final CatalogManagerService catalogLoaderService;
 	private final GenericLayerDataQueryService dataQueryService;
 	private final MolgenisUserService userService;
 	final DataService dataService;
 	private final HL7StudyConverter hl7Converter;
+	private ExecutorService executorService;
+	private long retrievalTimeout = DEFAULT_RETRIEVAL_TIMEOUT;
+	private volatile QualityMeasureDocumentCache qualityMeasureDocumentCache;
+	private StudyDefinitionExportJobService exportJobService;
 
 	public GenericLayerStudyManagerService(GenericLayerStudyDefinitionService studyDefinitionService,
 			CatalogManagerService catalogLoaderService, GenericLayerDataQueryService dataQueryService,
@@ -63,6 +87,43 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 		this.userService = userService;
 		this.dataService = dataService;
 		this.hl7Converter = new HL7StudyConverter();
+		this.qualityMeasureDocumentCache = new QualityMeasureDocumentCache(DEFAULT_CACHE_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Sets the executor service used to retrieve study definitions of multiple statuses or users concurrently. The
+	 * number of threads of the executor service bounds the number of concurrent calls to the Generic Layer.
+	 */
+	public void setExecutorService(ExecutorService executorService)
+	{
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds to wait for concurrently retrieved study definitions
+	 */
+	public void setRetrievalTimeout(long retrievalTimeout)
+	{
+		if (retrievalTimeout <= 0) throw new IllegalArgumentException("retrievalTimeout must be greater than 0");
+		this.retrievalTimeout = retrievalTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which cached study definitions are retrieved again from the study
+	 * definition service, 0 disables caching. Study definitions changed by this service are retrieved again
+	 * immediately.
+	 */
+	public void setCacheTimeToLive(long timeToLiveMillis)
+	{
+		this.qualityMeasureDocumentCache = new QualityMeasureDocumentCache(timeToLiveMillis);
+	}
+
+	/**
+	 * Sets the export job service used to export study definitions to the Generic Layer in the background
+	 */
+	public void setExportJobService(StudyDefinitionExportJobService exportJobService)
+	{
+		this.exportJobService = exportJobService;
 	}
 
 	/**
@@ -95,134 +156,305 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 	@Override
 	public List<StudyDefinition> getStudyDefinitions()
 	{
-		GetSubmittedResponse submittedResponse;
-		try
+		List<StudyDefinition> studyDefinitions = new ArrayList<StudyDefinition>();
+		for (POQMMT000001UVQualityMeasureDocument qualityMeasureDocument : retrieveStudyDefinitions(Status.SUBMITTED))
+		{
+			studyDefinitions.add(new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService));
+		}
+		return studyDefinitions;
+	}
+
+	@Override
+	public List<StudyDefinition> getStudyDefinitions(Status status)
+	{
+		return toStudyDefinitionList(retrieveStudyDefinitions(status));
+	}
+
+	/**
+	 * Returns the study definitions for each of the given statuses. If an executor service is set the study definitions
+	 * are retrieved concurrently.
+	 */
+	public Map<Status, List<StudyDefinition>> getStudyDefinitions(Set<Status> statuses)
+	{
+		// approved and exported study definitions are retrieved with the same call
+		Map<Status, Callable<List<POQMMT000001UVQualityMeasureDocument>>> retrievals = new EnumMap<Status, Callable<List<POQMMT000001UVQualityMeasureDocument>>>(
+				Status.class);
+		for (final Status status : statuses)
 		{
-			submittedResponse = studyDefinitionService.getSubmitted(null);
+			Status retrievalStatus = status == Status.EXPORTED ? Status.APPROVED : status;
+			if (!retrievals.containsKey(retrievalStatus))
+			{
+				retrievals.put(retrievalStatus, new Callable<List<POQMMT000001UVQualityMeasureDocument>>()
+				{
+					@Override
+					public List<POQMMT000001UVQualityMeasureDocument> call()
+					{
+						return retrieveStudyDefinitions(status);
+					}
+				});
+			}
 		}
-		catch (GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage e)
+		Map<Status, List<POQMMT000001UVQualityMeasureDocument>> retrievedDocuments = retrieveAll(retrievals);
+
+		Map<Status, List<StudyDefinition>> studyDefinitions = new EnumMap<Status, List<StudyDefinition>>(
+				Status.class);
+		for (Status status : statuses)
 		{
-			logger.error(e.getMessage());
-			throw new RuntimeException(e);
+			Status retrievalStatus = status == Status.EXPORTED ? Status.APPROVED : status;
+			studyDefinitions.put(status, toStudyDefinitionList(retrievedDocuments.get(retrievalStatus)));
 		}
+		return studyDefinitions;
+	}
 
-		List<StudyDefinition> studyDefinitions = new ArrayList<StudyDefinition>();
-		ArrayOfXElement elements = submittedResponse.getHL7Containers();
-		if (elements != null)
+	@Override
+	public List<StudyDefinition> getStudyDefinitions(String username)
+	{
+		return toStudyDefinitionList(retrieveStudyDefinitions(username));
+	}
+
+	/**
+	 * Returns the study definitions for each of the given users. If an executor service is set the study definitions
+	 * are retrieved concurrently.
+	 */
+	public Map<String, List<StudyDefinition>> getStudyDefinitionsOfUsers(Set<String> usernames)
+	{
+		Map<String, Callable<List<POQMMT000001UVQualityMeasureDocument>>> retrievals = new LinkedHashMap<String, Callable<List<POQMMT000001UVQualityMeasureDocument>>>();
+		for (final String username : usernames)
 		{
-			List<HL7Container> hl7Containers = elements.getHL7Container();
-			if (hl7Containers != null)
+			retrievals.put(username, new Callable<List<POQMMT000001UVQualityMeasureDocument>>()
 			{
-				for (HL7Container hl7Container : hl7Containers)
+				@Override
+				public List<POQMMT000001UVQualityMeasureDocument> call()
 				{
-					POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = hl7Container
-							.getQualityMeasureDocument();
-					studyDefinitions
-							.add(new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService));
+					return retrieveStudyDefinitions(username);
 				}
-			}
+			});
+		}
+		Map<String, List<POQMMT000001UVQualityMeasureDocument>> retrievedDocuments = retrieveAll(retrievals);
+
+		Map<String, List<StudyDefinition>> studyDefinitions = new LinkedHashMap<String, List<StudyDefinition>>();
+		for (Map.Entry<String, List<POQMMT000001UVQualityMeasureDocument>> entry : retrievedDocuments.entrySet())
+		{
+			studyDefinitions.put(entry.getKey(), toStudyDefinitionList(entry.getValue()));
 		}
 		return studyDefinitions;
 	}
 
-	@Override
-	public List<StudyDefinition> getStudyDefinitions(Status status)
+	/**
+	 * Retrieves the study definitions with the given status, returns an empty list if the status is not supported
+	 */
+	private List<POQMMT000001UVQualityMeasureDocument> retrieveStudyDefinitions(Status status)
+	{
+		if (status == Status.REJECTED)
+		{
+			// Study manager service does not support state REJECTED
+			return Collections.emptyList();
+		}
+		// approved and exported study definitions are retrieved with the same call
+		Status retrievalStatus = status == Status.EXPORTED ? Status.APPROVED : status;
+		return qualityMeasureDocumentCache.getQualityMeasureDocuments(retrievalStatus,
+				createStudyDefinitionsLoader(retrievalStatus));
+	}
+
+	private Callable<List<POQMMT000001UVQualityMeasureDocument>> createStudyDefinitionsLoader(final Status status)
+	{
+		return new Callable<List<POQMMT000001UVQualityMeasureDocument>>()
+		{
+			@Override
+			public List<POQMMT000001UVQualityMeasureDocument> call()
+			{
+				return toQualityMeasureDocuments(retrieveStudyDefinitionElements(status));
+			}
+		};
+	}
+
+	private ArrayOfXElement retrieveStudyDefinitionElements(Status status)
 	{
-		ArrayOfXElement hl7Containers;
 		switch (status)
 		{
 			case APPROVED:
 			case EXPORTED:
 				try
 				{
-					hl7Containers = studyDefinitionService.getApproved(null).getHL7Containers();
+					return studyDefinitionService.getApproved(null).getHL7Containers();
 				}
 				catch (GenericLayerStudyDefinitionServiceGetApprovedFAULTFaultMessage e)
 				{
 					logger.error(e.getMessage());
 					throw new RuntimeException(e);
 				}
-				break;
 			case DRAFT:
 				try
 				{
-					hl7Containers = studyDefinitionService.getDraft(null).getHL7Containers();
+					return studyDefinitionService.getDraft(null).getHL7Containers();
 				}
 				catch (GenericLayerStudyDefinitionServiceGetDraftFAULTFaultMessage e)
 				{
 					logger.error(e.getMessage());
 					throw new RuntimeException(e);
 				}
-				break;
-			case REJECTED:
-				// Study manager service does not support state REJECTED
-				return Collections.emptyList();
 			case SUBMITTED:
 				try
 				{
-					hl7Containers = studyDefinitionService.getSubmitted(null).getHL7Containers();
+					return studyDefinitionService.getSubmitted(null).getHL7Containers();
 				}
 				catch (GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage e)
 				{
 					logger.error(e.getMessage());
 					throw new RuntimeException(e);
 				}
-				break;
 			default:
 				throw new RuntimeException("Unknown status: " + status);
 		}
-		return toStudyDefinitionList(hl7Containers);
 	}
 
-	@Override
-	public List<StudyDefinition> getStudyDefinitions(String username)
+	private List<POQMMT000001UVQualityMeasureDocument> retrieveStudyDefinitions(final String username)
 	{
-		MolgenisUser user = userService.getUser(username);
-		if (user == null) throw new RuntimeException("Unknown user [" + username + "]");
+		return qualityMeasureDocumentCache.getQualityMeasureDocumentsOfUser(username,
+				new Callable<List<POQMMT000001UVQualityMeasureDocument>>()
+				{
+					@Override
+					public List<POQMMT000001UVQualityMeasureDocument> call()
+					{
+						MolgenisUser user = userService.getUser(username);
+						if (user == null) throw new RuntimeException("Unknown user [" + username + "]");
+
+						try
+						{
+							return toQualityMeasureDocuments(studyDefinitionService.getByEmail(user.getEmail())
+									.getHL7Containers());
+						}
+						catch (GenericLayerStudyDefinitionServiceGetByEmailFAULTFaultMessage e)
+						{
+							logger.error(e.getMessage());
+							throw new RuntimeException(e);
+						}
+					}
+				});
+	}
 
-		GetByEmailResponse emailResponse;
+	private static List<POQMMT000001UVQualityMeasureDocument> toQualityMeasureDocuments(ArrayOfXElement elements)
+	{
+		if (elements == null || elements.getHL7Container() == null) return Collections.emptyList();
+
+		List<POQMMT000001UVQualityMeasureDocument> qualityMeasureDocuments = new ArrayList<POQMMT000001UVQualityMeasureDocument>();
+		for (HL7Container hl7Container : elements.getHL7Container())
+		{
+			qualityMeasureDocuments.add(hl7Container.getQualityMeasureDocument());
+		}
+		return qualityMeasureDocuments;
+	}
+
+	/**
+	 * Performs the given retrievals, concurrently if an executor service is set. Fails if not all retrievals completed
+	 * within the retrieval timeout.
+	 */
+	private <K, V> Map<K, V> retrieveAll(Map<K, Callable<V>> retrievals)
+	{
+		Map<K, V> retrievedValues = new LinkedHashMap<K, V>();
+		if (executorService == null || retrievals.size() <= 1)
+		{
+			for (Map.Entry<K, Callable<V>> entry : retrievals.entrySet())
+			{
+				try
+				{
+					retrievedValues.put(entry.getKey(), entry.getValue().call());
+				}
+				catch (RuntimeException e)
+				{
+					throw e;
+				}
+				catch (Exception e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+			return retrievedValues;
+		}
+
+		List<K> keys = new ArrayList<K>(retrievals.keySet());
+		List<Future<V>> futures;
 		try
 		{
-			emailResponse = studyDefinitionService.getByEmail(user.getEmail());
+			futures = executorService.invokeAll(retrievals.values(), retrievalTimeout, TimeUnit.MILLISECONDS);
 		}
-		catch (GenericLayerStudyDefinitionServiceGetByEmailFAULTFaultMessage e)
+		catch (InterruptedException e)
 		{
-			logger.error(e.getMessage());
+			Thread.currentThread().interrupt();
 			throw new RuntimeException(e);
 		}
-		return toStudyDefinitionList(emailResponse.getHL7Containers());
+
+		for (int i = 0; i < futures.size(); ++i)
+		{
+			try
+			{
+				retrievedValues.put(keys.get(i), futures.get(i).get());
+			}
+			catch (CancellationException e)
+			{
+				throw new RuntimeException("Retrieving study definitions [" + keys.get(i) + "] took longer than "
+						+ retrievalTimeout + " ms");
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new RuntimeException(cause);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+		return retrievedValues;
 	}
 
-	private List<StudyDefinition> toStudyDefinitionList(ArrayOfXElement elements)
+	private List<StudyDefinition> toStudyDefinitionList(List<POQMMT000001UVQualityMeasureDocument> qualityMeasureDocuments)
 	{
-		List<StudyDefinition> studyDefinitions = new ArrayList<StudyDefinition>();
-		if (elements != null)
+		List<String> omxIdentifiers = new ArrayList<String>(qualityMeasureDocuments.size());
+		for (POQMMT000001UVQualityMeasureDocument qualityMeasureDocument : qualityMeasureDocuments)
+		{
+			String studyDefinitionId = qualityMeasureDocument.getId().getExtension();
+			omxIdentifiers.add(StudyDefinitionIdConverter.studyDefinitionIdToOmxIdentifier(studyDefinitionId));
+		}
+		Map<String, StudyDataRequest> studyDataRequests = findStudyDataRequests(omxIdentifiers);
+
+		List<StudyDefinition> studyDefinitions = new ArrayList<StudyDefinition>(qualityMeasureDocuments.size());
+		for (int i = 0; i < qualityMeasureDocuments.size(); ++i)
 		{
-			List<HL7Container> hl7Containers = elements.getHL7Container();
-			if (hl7Containers != null)
+			POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = qualityMeasureDocuments.get(i);
+
+			String omxIdentifier = omxIdentifiers.get(i);
+			StudyDataRequest sdr = studyDataRequests.get(omxIdentifier);
+			if (sdr == null)
 			{
-				for (HL7Container hl7Container : hl7Containers)
-				{
-					POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = hl7Container
-							.getQualityMeasureDocument();
-
-					String omxIdentifier = StudyDefinitionIdConverter
-							.studyDefinitionIdToOmxIdentifier(qualityMeasureDocument.getId().getExtension());
-					Query q = new QueryImpl().eq(StudyDataRequest.IDENTIFIER, omxIdentifier);
-					StudyDataRequest sdr = dataService.findOne(StudyDataRequest.ENTITY_NAME, q, StudyDataRequest.class);
-					if (sdr == null)
-					{
-						throw new RuntimeException("Unknow studydatarequest with idenfifier [" + omxIdentifier + "]");
-					}
-					qualityMeasureDocument.getId().setExtension(sdr.getId().toString());
-					studyDefinitions
-							.add(new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService));
-				}
+				throw new RuntimeException("Unknow studydatarequest with idenfifier [" + omxIdentifier + "]");
 			}
+			qualityMeasureDocument.getId().setExtension(sdr.getId().toString());
+			studyDefinitions.add(new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService));
 		}
 		return studyDefinitions;
 	}
 
+	/**
+	 * Retrieves the study data requests with the given identifiers using one query per batch of identifiers
+	 */
+	private Map<String, StudyDataRequest> findStudyDataRequests(List<String> omxIdentifiers)
+	{
+		Map<String, StudyDataRequest> studyDataRequests = new HashMap<String, StudyDataRequest>();
+		for (List<String> identifierBatch : Iterables.partition(new LinkedHashSet<String>(omxIdentifiers),
+				IDENTIFIER_QUERY_BATCH_SIZE))
+		{
+			Query q = new QueryImpl().in(StudyDataRequest.IDENTIFIER, identifierBatch);
+			for (StudyDataRequest sdr : dataService.findAll(StudyDataRequest.ENTITY_NAME, q, StudyDataRequest.class))
+			{
+				studyDataRequests.put(sdr.getIdentifier(), sdr);
+			}
+		}
+		return studyDataRequests;
+	}
+
 	@Override
 	public boolean canLoadStudyData()
 	{
@@ -230,14 +462,19 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 	}
 
 	/**
-	 * Get a specific studydefinition and save it in the database
+	 * Get a specific studydefinition and save it in the database. An interrupted chunked load is resumed, in that case
+	 * the catalog of the study definition was loaded before.
 	 */
 	@Override
 	public void loadStudyData(String id) throws UnknownStudyDefinitionException
 	{
 		try
 		{
-			catalogLoaderService.loadCatalogOfStudyDefinition(id);
+			if (!dataQueryService.isStudyDataLoadInterrupted(id)
+					&& !catalogLoaderService.isCatalogOfStudyDefinitionLoaded(id))
+			{
+				catalogLoaderService.loadCatalogOfStudyDefinition(id);
+			}
 		}
 		catch (UnknownCatalogException e)
 		{
@@ -283,6 +520,10 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error(t.getMessage());
 			throw new RuntimeException(t);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(null);
+		}
 		return new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService);
 	}
 
@@ -318,6 +559,10 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error(e.getMessage());
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(studyDefinition.getId());
+		}
 	}
 
 	@Override
@@ -333,44 +578,78 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error(e.getMessage());
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(id);
+		}
 	}
 
-	private POQMMT000001UVQualityMeasureDocument getStudyDefinitionAsQualityMeasureDocument(String id)
+	private POQMMT000001UVQualityMeasureDocument getStudyDefinitionAsQualityMeasureDocument(final String id)
 			throws UnknownStudyDefinitionException
 	{
-		try
-		{
-			HL7Container hl7Container = studyDefinitionService.getById(id);
-			return hl7Container.getQualityMeasureDocument();
-		}
-		catch (GenericLayerStudyDefinitionServiceGetByIdFAULTFaultMessage e)
-		{
-			logger.error(e.getMessage());
-			throw new RuntimeException(e);
-		}
+		return qualityMeasureDocumentCache.getQualityMeasureDocument(id,
+				new Callable<POQMMT000001UVQualityMeasureDocument>()
+				{
+					@Override
+					public POQMMT000001UVQualityMeasureDocument call()
+					{
+						try
+						{
+							HL7Container hl7Container = studyDefinitionService.getById(id);
+							return hl7Container.getQualityMeasureDocument();
+						}
+						catch (GenericLayerStudyDefinitionServiceGetByIdFAULTFaultMessage e)
+						{
+							logger.error(e.getMessage());
+							throw new RuntimeException(e);
+						}
+					}
+				});
 	}
 
+	/**
+	 * Finds the study definitions with the given status of which the title, authors, author email or selected item
+	 * codes contain words starting with each of the words in the search query
+	 */
 	@Override
 	public List<StudyDefinition> findStudyDefinitions(Status status, String search)
 	{
-		throw new UnsupportedOperationException();
+		if (status == Status.REJECTED)
+		{
+			// Study manager service does not support state REJECTED
+			return Collections.emptyList();
+		}
+		// approved and exported study definitions are retrieved with the same call
+		Status retrievalStatus = status == Status.EXPORTED ? Status.APPROVED : status;
+		return toStudyDefinitionList(qualityMeasureDocumentCache.findQualityMeasureDocuments(retrievalStatus, search,
+				createStudyDefinitionsLoader(retrievalStatus)));
 	}
 
+	/**
+	 * Exports the study data request to the Generic Layer in the background if an export job service is set, otherwise
+	 * exports it before returning
+	 */
 	@Override
 	public void exportStudyDefinition(String id, String catalogId) throws UnknownStudyDefinitionException,
 			UnknownCatalogException
 	{
+		if (exportJobService != null)
+		{
+			exportJobService.export(id);
+			return;
+		}
+
 		CrudRepository repository = dataService.getCrudRepository(StudyDataRequest.ENTITY_NAME);
 		StudyDataRequest studyDataRequest = repository.findOne(id, StudyDataRequest.class);
 		if (studyDataRequest == null)
 		{
 			throw new UnknownStudyDefinitionException("StudyDataRequest does not exist [" + id + "]");
 		}
-		String externalStudyDefinitionId = sendStudyDataRequestToGenericLayer(studyDataRequest);
-
-		// store external id
-		studyDataRequest.setExternalId(externalStudyDefinitionId);
-		repository.update(studyDataRequest);
+		for (Step step : StudyDefinitionExportJobService.getExportSteps(studyDataRequest))
+		{
+			String createdExternalId = prepareExportStep(studyDataRequest, step, false).call();
+			exportStepPerformed(studyDataRequest, step, createdExternalId);
+		}
 	}
 
 	@Override
@@ -393,52 +672,181 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error(e.getMessage());
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(externalId);
+		}
 	}
 
-	private String sendStudyDataRequestToGenericLayer(StudyDataRequest studyDataRequest)
+	/**
+	 * Prepares one step of the export of a study data request to the Generic Layer. Reads everything the step needs
+	 * from the study data request, so it must be called in a transaction, and returns the Generic Layer calls of the
+	 * step. The calls do not access the database so that they can be performed outside of a transaction, afterwards
+	 * {@link #exportStepPerformed} stores the result of the step.
+	 * 
+	 * If the calls of the step were sent before without recording the result, the create step first looks for the
+	 * study definition that it created: a draft of the user that does not belong to any of the user's study data
+	 * requests. Create steps of the same user must not be performed concurrently.
+	 */
+	ExportStepCall prepareExportStep(StudyDataRequest studyDataRequest, Step step, boolean sentBefore)
 	{
-		MolgenisUser molgenisUser = studyDataRequest.getMolgenisUser();
+		final String externalId = studyDataRequest.getExternalId();
+		switch (step)
+		{
+			case CREATE:
+				// skipped if the study definition was created before
+				final boolean created = externalId != null;
+				final String email = !created ? studyDataRequest.getMolgenisUser().getEmail() : null;
+				final Set<String> userExternalIds = !created && sentBefore ? findExternalIds(studyDataRequest
+						.getMolgenisUser()) : null;
+				return new ExportStepCall()
+				{
+					@Override
+					public String call()
+					{
+						if (created) return null;
+						if (userExternalIds != null)
+						{
+							String createdExternalId = findCreatedStudyDefinition(email, userExternalIds);
+							if (createdExternalId != null) return createdExternalId;
+						}
+						// create empty study definition
+						return createStudyDefinition(email).getId().getExtension();
+					}
+				};
+			case REVISE:
+				final String reviseExternalId = getExternalId(studyDataRequest);
+				final StudyBean studyBean = new StudyBean(studyDataRequest);
+				return new ExportStepCall()
+				{
+					@Override
+					public String call()
+					{
+						POQMMT000001UVQualityMeasureDocument qualityMeasureDocument;
+						try
+						{
+							qualityMeasureDocument = getStudyDefinitionAsQualityMeasureDocument(reviseExternalId);
+						}
+						catch (UnknownStudyDefinitionException e)
+						{
+							logger.error(e.getMessage());
+							throw new RuntimeException(e);
+						}
+						updateStudyDefinition(qualityMeasureDocument, studyBean);
+						return null;
+					}
+				};
+			case SUBMIT:
+				final String submitExternalId = getExternalId(studyDataRequest);
+				return new ExportStepCall()
+				{
+					@Override
+					public String call()
+					{
+						submitStudyDefinition(submitExternalId);
+						return null;
+					}
+				};
+			case APPROVE:
+				final String approveExternalId = getExternalId(studyDataRequest);
+				return new ExportStepCall()
+				{
+					@Override
+					public String call()
+					{
+						approveStudyDefinition(approveExternalId);
+						return null;
+					}
+				};
+			default:
+				throw new RuntimeException("unknown export step [" + step + "]");
+		}
+	}
 
-		POQMMT000001UVQualityMeasureDocument qualityMeasureDocument;
-		if (studyDataRequest.getExternalId() == null)
+	/**
+	 * Stores the result of a performed export step, must be called in a transaction. The create step stores the
+	 * external id of the created study definition, so that a resumed export does not create it again.
+	 */
+	void exportStepPerformed(StudyDataRequest studyDataRequest, Step step, String createdExternalId)
+	{
+		if (step == Step.CREATE && createdExternalId != null)
 		{
-			// create empty study definition
-			qualityMeasureDocument = createStudyDefinition(molgenisUser);
+			studyDataRequest.setExternalId(createdExternalId);
+			dataService.update(StudyDataRequest.ENTITY_NAME, studyDataRequest);
 		}
-		else
+	}
+
+	/**
+	 * Generic Layer calls of an export step
+	 */
+	interface ExportStepCall
+	{
+		/**
+		 * Returns the external id of the created study definition for the create step and null for other steps
+		 */
+		String call();
+	}
+
+	/**
+	 * Returns the external ids of the study data requests of the given user that were created in the Generic Layer
+	 */
+	private Set<String> findExternalIds(MolgenisUser molgenisUser)
+	{
+		Set<String> externalIds = new HashSet<String>();
+		Query q = new QueryImpl().eq(StudyDataRequest.MOLGENISUSER, molgenisUser);
+		for (StudyDataRequest sdr : dataService.findAll(StudyDataRequest.ENTITY_NAME, q, StudyDataRequest.class))
 		{
-			// get existing study definition
-			try
-			{
-				qualityMeasureDocument = getStudyDefinitionAsQualityMeasureDocument(studyDataRequest.getExternalId());
-			}
-			catch (UnknownStudyDefinitionException e)
+			if (sdr.getExternalId() != null) externalIds.add(sdr.getExternalId());
+		}
+		return externalIds;
+	}
+
+	/**
+	 * Returns the id of a draft study definition of the user with the given email that is not one of the given
+	 * external ids or null if there is no such study definition. Bypasses the study definition cache.
+	 */
+	private String findCreatedStudyDefinition(String email, Set<String> userExternalIds)
+	{
+		List<POQMMT000001UVQualityMeasureDocument> qualityMeasureDocuments;
+		try
+		{
+			qualityMeasureDocuments = toQualityMeasureDocuments(studyDefinitionService.getByEmail(email)
+					.getHL7Containers());
+		}
+		catch (GenericLayerStudyDefinitionServiceGetByEmailFAULTFaultMessage e)
+		{
+			logger.error(e.getMessage());
+			throw new RuntimeException(e);
+		}
+		for (POQMMT000001UVQualityMeasureDocument qualityMeasureDocument : qualityMeasureDocuments)
+		{
+			String studyDefinitionId = qualityMeasureDocument.getId().getExtension();
+			if (qualityMeasureDocument.getStatusCode().getCode().equals("new")
+					&& !userExternalIds.contains(studyDefinitionId))
 			{
-				logger.error(e.getMessage());
-				throw new RuntimeException(e);
+				logger.info("reusing study definition [" + studyDefinitionId + "] created by an interrupted export");
+				return studyDefinitionId;
 			}
 		}
-		// update study definition
-		updateStudyDefinition(qualityMeasureDocument, studyDataRequest);
+		return null;
+	}
 
-		String studyDefinitionId = qualityMeasureDocument.getId().getExtension();
-		if (studyDataRequest.getExternalId() == null)
+	private static String getExternalId(StudyDataRequest studyDataRequest)
+	{
+		String externalId = studyDataRequest.getExternalId();
+		if (externalId == null)
 		{
-			// submit study definition
-			submitStudyDefinition(studyDefinitionId);
+			throw new RuntimeException("StudyDataRequest [" + studyDataRequest.getIdentifier()
+					+ "] was not created in the Generic Layer");
 		}
-
-		// approve study definition
-		approveStudyDefinition(studyDefinitionId);
-
-		return studyDefinitionId;
+		return externalId;
 	}
 
-	private POQMMT000001UVQualityMeasureDocument createStudyDefinition(MolgenisUser molgenisUser)
+	private POQMMT000001UVQualityMeasureDocument createStudyDefinition(String email)
 	{
 		try
 		{
-			CreateResponse createResponse = studyDefinitionService.create(molgenisUser.getEmail());
+			CreateResponse createResponse = studyDefinitionService.create(email);
 			if (createResponse == null) throw new RuntimeException("CreateResponse is null");
 			HL7Container hl7Container = createResponse.getHL7Container();
 			if (hl7Container == null) throw new RuntimeException("HL7Container is null");
@@ -449,12 +857,22 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error("", t);
 			throw new RuntimeException(t);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(null);
+		}
 	}
 
 	POQMMT000001UVQualityMeasureDocument updateStudyDefinition(
 			POQMMT000001UVQualityMeasureDocument qualityMeasureDocument, StudyDataRequest studyDataRequest)
 	{
-		hl7Converter.updateQualityMeasureDocument(qualityMeasureDocument, new StudyBean(studyDataRequest));
+		return updateStudyDefinition(qualityMeasureDocument, new StudyBean(studyDataRequest));
+	}
+
+	private POQMMT000001UVQualityMeasureDocument updateStudyDefinition(
+			POQMMT000001UVQualityMeasureDocument qualityMeasureDocument, StudyBean studyBean)
+	{
+		hl7Converter.updateQualityMeasureDocument(qualityMeasureDocument, studyBean);
 
 		try
 		{
@@ -467,6 +885,11 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error("", e);
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			II id = qualityMeasureDocument.getId();
+			qualityMeasureDocumentCache.invalidate(id != null ? id.getExtension() : null);
+		}
 
 		return qualityMeasureDocument;
 	}
@@ -482,6 +905,10 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error("", e);
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(studyDefinitionId);
+		}
 	}
 
 	private void approveStudyDefinition(String studyDefinitionId)
@@ -495,5 +922,9 @@ public class GenericLayerStudyManagerService implements StudyManagerService
 			logger.error("", e);
 			throw new RuntimeException(e);
 		}
+		finally
+		{
+			qualityMeasureDocumentCache.invalidate(studyDefinitionId);
+		}
 	}
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package org.molgenis.lifelines.studymanager;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.molgenis.catalog.UnknownCatalogException;
 import org.molgenis.lifelines.LifeLinesAppProfile;
@@ -13,11 +15,11 @@ import org.springframework.transaction.annotation.Transactional;
 public class LifeLinesStudyManagerService implements StudyManagerService
 {
 	private final StudyManagerService omxStudyManagerService;
-	private final StudyManagerService genericLayerStudyManagerService;
+	private final GenericLayerStudyManagerService genericLayerStudyManagerService;
 	private final LifeLinesAppProfile lifeLinesAppProfile;
 
 	public LifeLinesStudyManagerService(StudyManagerService omxStudyManagerService,
-			StudyManagerService genericLayerStudyManagerService, LifeLinesAppProfile lifeLinesAppProfile)
+			GenericLayerStudyManagerService genericLayerStudyManagerService, LifeLinesAppProfile lifeLinesAppProfile)
 	{
 		if (omxStudyManagerService == null) throw new IllegalArgumentException("studyManagerService is null");
 		if (genericLayerStudyManagerService == null)
@@ -42,12 +44,28 @@ public class LifeLinesStudyManagerService implements StudyManagerService
 		return omxStudyManagerService.getStudyDefinitions(status);
 	}
 
+	/**
+	 * Returns the study definitions in the Generic Layer for each of the given statuses, retrieved concurrently
+	 */
+	public Map<Status, List<StudyDefinition>> getStudyDefinitions(Set<Status> statuses)
+	{
+		return genericLayerStudyManagerService.getStudyDefinitions(statuses);
+	}
+
 	@Override
 	public List<StudyDefinition> getStudyDefinitions(String username)
 	{
 		return omxStudyManagerService.getStudyDefinitions(username);
 	}
 
+	/**
+	 * Returns the study definitions in the Generic Layer for each of the given users, retrieved concurrently
+	 */
+	public Map<String, List<StudyDefinition>> getStudyDefinitionsOfUsers(Set<String> usernames)
+	{
+		return genericLayerStudyManagerService.getStudyDefinitionsOfUsers(usernames);
+	}
+
 	@Override
 	public StudyDefinition getStudyDefinition(String id) throws UnknownStudyDefinitionException
 	{
@@ -0,0 +1,210 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+/**
+ * Converts participants read by the reading thread and passes them to the participant writer in document order.
+ * Without a conversion pool participants are read, converted and written by the calling thread. With a conversion pool
+ * participants are read by a separate reading thread and converted concurrently while the calling thread writes them,
+ * so that reading continues while participants are written. Writing stays on the calling thread, which owns the
+ * transaction. The number of participants that are read but not yet written is bounded, so that reading waits for
+ * writing.
+ */
+class ParticipantConversionPipeline implements StudyDataHandler
+{
+	private static final int MAX_PENDING_PARTICIPANTS_PER_THREAD = 16;
+	/** passed by the reading thread after the last participant */
+	private static final Future<ConvertedParticipant> END_OF_PARTICIPANTS = new FutureTask<ConvertedParticipant>(
+			new Callable<ConvertedParticipant>()
+			{
+				@Override
+				public ConvertedParticipant call()
+				{
+					return null;
+				}
+			});
+
+	private final ParticipantConverter participantConverter;
+	private final ParticipantWriter participantWriter;
+	private final ForkJoinPool conversionPool;
+	private final long nrSkippedParticipants;
+	private final BlockingQueue<Future<ConvertedParticipant>> pendingParticipants;
+	private volatile boolean writingStopped;
+	private long nrReadParticipants;
+
+	/**
+	 * @param conversionPool
+	 *            pool used to convert participants, null to read, convert and write participants on the calling thread
+	 * @param nrSkippedParticipants
+	 *            number of participants at the start of the response that are skipped
+	 */
+	public ParticipantConversionPipeline(ParticipantConverter participantConverter,
+			ParticipantWriter participantWriter, ForkJoinPool conversionPool, long nrSkippedParticipants)
+	{
+		if (participantConverter == null) throw new IllegalArgumentException("participantConverter is null");
+		if (participantWriter == null) throw new IllegalArgumentException("participantWriter is null");
+		if (nrSkippedParticipants < 0) throw new IllegalArgumentException("nrSkippedParticipants is negative");
+		this.participantConverter = participantConverter;
+		this.participantWriter = participantWriter;
+		this.conversionPool = conversionPool;
+		this.nrSkippedParticipants = nrSkippedParticipants;
+		this.pendingParticipants = conversionPool != null ? new ArrayBlockingQueue<Future<ConvertedParticipant>>(
+				MAX_PENDING_PARTICIPANTS_PER_THREAD * conversionPool.getParallelism()) : null;
+	}
+
+	/**
+	 * Runs the study data reading, which passes participants to this pipeline, and writes the converted participants on
+	 * the calling thread. Returns when all participants were written.
+	 */
+	public void process(Runnable studyDataReading)
+	{
+		if (conversionPool == null)
+		{
+			studyDataReading.run();
+			return;
+		}
+
+		ReadingThread readingThread = new ReadingThread(studyDataReading);
+		readingThread.start();
+		try
+		{
+			writePendingParticipants();
+			readingThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			stopReading(readingThread);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (RuntimeException e)
+		{
+			stopReading(readingThread);
+			throw e;
+		}
+		Throwable readFailure = readingThread.getReadFailure();
+		if (readFailure instanceof Error) throw (Error) readFailure;
+		if (readFailure != null) throw (RuntimeException) readFailure;
+	}
+
+	@Override
+	public void participant(final REPCMT000100UV01Organizer participantOrganizer)
+	{
+		if (nrReadParticipants++ < nrSkippedParticipants) return;
+
+		if (conversionPool == null)
+		{
+			participantWriter.write(participantConverter.convert(participantOrganizer));
+			return;
+		}
+
+		Future<ConvertedParticipant> pendingParticipant = conversionPool.submit(new Callable<ConvertedParticipant>()
+		{
+			@Override
+			public ConvertedParticipant call()
+			{
+				return participantConverter.convert(participantOrganizer);
+			}
+		});
+
+		// limit the number of participants that are kept in memory
+		try
+		{
+			pendingParticipants.put(pendingParticipant);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void writePendingParticipants() throws InterruptedException
+	{
+		while (true)
+		{
+			Future<ConvertedParticipant> pendingParticipant = pendingParticipants.take();
+			if (pendingParticipant == END_OF_PARTICIPANTS) return;
+
+			ConvertedParticipant participant;
+			try
+			{
+				participant = pendingParticipant.get();
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new RuntimeException(cause);
+			}
+			participantWriter.write(participant);
+		}
+	}
+
+	/**
+	 * Wakes up the reading thread if it waits for the writing thread that stopped
+	 */
+	private void stopReading(Thread readingThread)
+	{
+		writingStopped = true;
+		readingThread.interrupt();
+	}
+
+	private class ReadingThread extends Thread
+	{
+		private final Runnable studyDataReading;
+		private volatile Throwable readFailure;
+
+		public ReadingThread(Runnable studyDataReading)
+		{
+			super("study-data-reader");
+			setDaemon(true);
+			this.studyDataReading = studyDataReading;
+		}
+
+		public Throwable getReadFailure()
+		{
+			return readFailure;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				studyDataReading.run();
+			}
+			catch (RuntimeException e)
+			{
+				readFailure = e;
+			}
+			catch (Error e)
+			{
+				readFailure = e;
+			}
+			finally
+			{
+				// nobody waits for the end of participants if writing stopped
+				if (!writingStopped)
+				{
+					try
+					{
+						pendingParticipants.put(END_OF_PARTICIPANTS);
+					}
+					catch (InterruptedException e)
+					{
+						// writing stopped
+					}
+				}
+			}
+		}
+	}
+}
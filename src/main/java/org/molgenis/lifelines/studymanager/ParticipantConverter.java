@@ -0,0 +1,116 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.v3.ANY;
+import org.hl7.v3.BL;
+import org.hl7.v3.CD;
+import org.hl7.v3.INT;
+import org.hl7.v3.PQ;
+import org.hl7.v3.REAL;
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Observation;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.hl7.v3.ST;
+import org.hl7.v3.TS;
+import org.molgenis.omx.observ.value.BoolValue;
+import org.molgenis.omx.observ.value.LongValue;
+import org.molgenis.omx.observ.value.StringValue;
+import org.molgenis.omx.observ.value.Value;
+
+/**
+ * Converts participant organizers of a Generic Layer study data response without accessing the database. Thread-safe.
+ */
+class ParticipantConverter
+{
+	public ConvertedParticipant convert(REPCMT000100UV01Organizer participantOrganizer)
+	{
+		// COCTMT050000UV01Patient patient = organizer.getRecordTarget().getValue().getPatient().getValue();
+		// JAXBElement<?> postalCodeSerializable = (JAXBElement<?>)
+		// patient.getAddr().get(0).getContent().get(0);
+		// if (postalCodeSerializable.getDeclaredType().equals(AdxpPostalCode.class))
+		// {
+		// AdxpPostalCode postalCode = (AdxpPostalCode) postalCodeSerializable;
+		// postalCodez
+		// }
+
+		List<REPCMT000100UV01Component3> components = participantOrganizer.getComponent();
+		List<ConvertedParticipant.Observation> observations = new ArrayList<ConvertedParticipant.Observation>(
+				components.size());
+		for (REPCMT000100UV01Component3 organizerComponent : components)
+		{
+			REPCMT000100UV01Observation observation = organizerComponent.getObservation().getValue();
+			String featureId = observation.getId().get(0).getRoot();
+
+			ANY anyValue = observation.getValue();
+			if (anyValue instanceof CD) // for CD and CO values
+			{
+				// categorical, category is resolved through the feature when writing
+				CD value = (CD) anyValue;
+				observations.add(new ConvertedParticipant.Observation(featureId, null, value.getCode()));
+			}
+			else
+			{
+				observations.add(new ConvertedParticipant.Observation(featureId, toValue(anyValue), null));
+			}
+		}
+		return new ConvertedParticipant(observations);
+	}
+
+	private Value toValue(ANY anyValue)
+	{
+		if (anyValue instanceof INT)
+		{
+			// integer
+			INT value = (INT) anyValue;
+			// convert to long, not to int
+			LongValue longValue = new LongValue();
+			longValue.setValue(value.getValue().longValue());
+			return longValue;
+		}
+		else if (anyValue instanceof ST)
+		{
+			// string
+			ST value = (ST) anyValue;
+			StringValue stringValue = new StringValue();
+			stringValue.setValue(value.getRepresentation().value());
+			return stringValue;
+		}
+		else if (anyValue instanceof PQ)
+		{
+			// physical quantity
+			PQ value = (PQ) anyValue;
+			StringValue stringValue = new StringValue();
+			stringValue.setValue(value.getValue());
+			return stringValue;
+		}
+		else if (anyValue instanceof TS)
+		{
+			// time
+			TS value = (TS) anyValue;
+			StringValue stringValue = new StringValue();
+			stringValue.setValue(value.getValue());
+			return stringValue;
+		}
+		else if (anyValue instanceof REAL)
+		{
+			// fractional number
+			REAL value = (REAL) anyValue;
+			// conversion to double not always possible, see HL7 docs
+			StringValue stringValue = new StringValue();
+			stringValue.setValue(value.getValue());
+			return stringValue;
+		}
+		else if (anyValue instanceof BL)
+		{
+			// boolean
+			BL value = (BL) anyValue;
+			BoolValue boolValue = new BoolValue();
+			boolValue.setValue(value.isValue());
+			return boolValue;
+		}
+
+		throw new UnsupportedOperationException("ANY instance not supported: " + anyValue.getClass());
+	}
+}
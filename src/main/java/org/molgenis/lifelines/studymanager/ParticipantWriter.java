@@ -0,0 +1,9 @@
+package org.molgenis.lifelines.studymanager;
+
+/**
+ * Writes converted participants in document order
+ */
+interface ParticipantWriter
+{
+	void write(ConvertedParticipant participant);
+}
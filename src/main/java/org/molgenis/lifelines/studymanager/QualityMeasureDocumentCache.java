@@ -0,0 +1,168 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.util.JAXBSource;
+
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.molgenis.study.StudyDefinition.Status;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps quality measure documents retrieved from the study definition service for a limited time, by study definition
+ * id, by status and by user. Documents by status are indexed for searching. Documents are copied when they are
+ * returned, so callers can modify them without affecting the cache. Thread-safe.
+ */
+class QualityMeasureDocumentCache
+{
+	private static final JAXBContext JAXB_CONTEXT_QUALITY_MEASURE_DOCUMENT;
+
+	static
+	{
+		try
+		{
+			JAXB_CONTEXT_QUALITY_MEASURE_DOCUMENT = JAXBContext.newInstance(POQMMT000001UVQualityMeasureDocument.class);
+		}
+		catch (JAXBException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final Cache<String, POQMMT000001UVQualityMeasureDocument> documents;
+	private final Cache<Status, QualityMeasureDocumentIndex> statusDocuments;
+	private final Cache<String, List<POQMMT000001UVQualityMeasureDocument>> userDocuments;
+
+	/**
+	 * @param timeToLiveMillis
+	 *            time after which retrieved documents are retrieved again, 0 disables caching
+	 */
+	public QualityMeasureDocumentCache(long timeToLiveMillis)
+	{
+		if (timeToLiveMillis < 0) throw new IllegalArgumentException("timeToLiveMillis must be zero or greater");
+		this.documents = CacheBuilder.newBuilder().expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS).build();
+		this.statusDocuments = CacheBuilder.newBuilder().expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS)
+				.build();
+		this.userDocuments = CacheBuilder.newBuilder().expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	public POQMMT000001UVQualityMeasureDocument getQualityMeasureDocument(String id,
+			Callable<POQMMT000001UVQualityMeasureDocument> loader)
+	{
+		return copy(get(documents, id, loader));
+	}
+
+	public List<POQMMT000001UVQualityMeasureDocument> getQualityMeasureDocuments(Status status,
+			Callable<List<POQMMT000001UVQualityMeasureDocument>> loader)
+	{
+		return copy(getIndex(status, loader).getDocuments());
+	}
+
+	/**
+	 * Returns the documents with the given status that match the search query
+	 * 
+	 * @see QualityMeasureDocumentIndex#find(String)
+	 */
+	public List<POQMMT000001UVQualityMeasureDocument> findQualityMeasureDocuments(Status status, String search,
+			Callable<List<POQMMT000001UVQualityMeasureDocument>> loader)
+	{
+		return copy(getIndex(status, loader).find(search));
+	}
+
+	public List<POQMMT000001UVQualityMeasureDocument> getQualityMeasureDocumentsOfUser(String username,
+			Callable<List<POQMMT000001UVQualityMeasureDocument>> loader)
+	{
+		return copy(get(userDocuments, username, loader));
+	}
+
+	/**
+	 * Removes the document with the given id and all document lists, because a change of the document might change
+	 * the lists it is part of
+	 *
+	 * @param id
+	 *            study definition id or null if the change does not affect a cached document, e.g. on creation
+	 */
+	public void invalidate(String id)
+	{
+		if (id != null) documents.invalidate(id);
+		statusDocuments.invalidateAll();
+		userDocuments.invalidateAll();
+	}
+
+	private QualityMeasureDocumentIndex getIndex(Status status,
+			final Callable<List<POQMMT000001UVQualityMeasureDocument>> loader)
+	{
+		return get(statusDocuments, status, new Callable<QualityMeasureDocumentIndex>()
+		{
+			@Override
+			public QualityMeasureDocumentIndex call() throws Exception
+			{
+				return new QualityMeasureDocumentIndex(loader.call());
+			}
+		});
+	}
+
+	private static <K, V> V get(Cache<K, V> cache, K key, Callable<V> loader)
+	{
+		try
+		{
+			return cache.get(key, loader);
+		}
+		catch (InvalidCacheLoadException e)
+		{
+			// loader returned null, do not cache
+			return null;
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch (UncheckedExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw e;
+		}
+	}
+
+	private static List<POQMMT000001UVQualityMeasureDocument> copy(
+			List<POQMMT000001UVQualityMeasureDocument> qualityMeasureDocuments)
+	{
+		if (qualityMeasureDocuments.isEmpty()) return Collections.emptyList();
+
+		List<POQMMT000001UVQualityMeasureDocument> copies = new ArrayList<POQMMT000001UVQualityMeasureDocument>(
+				qualityMeasureDocuments.size());
+		for (POQMMT000001UVQualityMeasureDocument qualityMeasureDocument : qualityMeasureDocuments)
+		{
+			copies.add(copy(qualityMeasureDocument));
+		}
+		return copies;
+	}
+
+	private static POQMMT000001UVQualityMeasureDocument copy(POQMMT000001UVQualityMeasureDocument qualityMeasureDocument)
+	{
+		if (qualityMeasureDocument == null) return null;
+		try
+		{
+			JAXBSource source = new JAXBSource(JAXB_CONTEXT_QUALITY_MEASURE_DOCUMENT, qualityMeasureDocument);
+			return JAXB_CONTEXT_QUALITY_MEASURE_DOCUMENT.createUnmarshaller()
+					.unmarshal(source, POQMMT000001UVQualityMeasureDocument.class).getValue();
+		}
+		catch (JAXBException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
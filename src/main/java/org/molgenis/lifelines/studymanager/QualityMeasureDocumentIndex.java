@@ -0,0 +1,134 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.hl7.v3.CD;
+import org.hl7.v3.POQMMT000001UVComponent2;
+import org.hl7.v3.POQMMT000001UVEntry;
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.hl7.v3.POQMMT000001UVSection;
+
+/**
+ * Immutable list of quality measure documents with an inverted index on title, authors, author email and selected item
+ * codes. Thread-safe.
+ * 
+ * The index lives in memory next to the cached list it was built from and is not shared between application instances,
+ * each instance rebuilds it when its QualityMeasureDocumentCache reloads the list.
+ */
+class QualityMeasureDocumentIndex
+{
+	private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private final List<POQMMT000001UVQualityMeasureDocument> documents;
+	private final NavigableMap<String, BitSet> tokenDocuments;
+
+	public QualityMeasureDocumentIndex(List<POQMMT000001UVQualityMeasureDocument> documents)
+	{
+		if (documents == null) throw new IllegalArgumentException("documents is null");
+		this.documents = Collections.unmodifiableList(new ArrayList<POQMMT000001UVQualityMeasureDocument>(documents));
+		this.tokenDocuments = new TreeMap<String, BitSet>();
+		for (int i = 0; i < this.documents.size(); ++i)
+		{
+			for (String token : tokenize(getIndexedText(this.documents.get(i))))
+			{
+				BitSet documentIndices = tokenDocuments.get(token);
+				if (documentIndices == null)
+				{
+					documentIndices = new BitSet();
+					tokenDocuments.put(token, documentIndices);
+				}
+				documentIndices.set(i);
+			}
+		}
+	}
+
+	public List<POQMMT000001UVQualityMeasureDocument> getDocuments()
+	{
+		return documents;
+	}
+
+	/**
+	 * Returns the documents in which each word of the search query is the start of an indexed word, in index order. All
+	 * documents are returned if the search query contains no words.
+	 */
+	public List<POQMMT000001UVQualityMeasureDocument> find(String search)
+	{
+		List<String> terms = search != null ? tokenize(search) : Collections.<String> emptyList();
+		if (terms.isEmpty()) return documents;
+
+		BitSet matches = null;
+		for (String term : terms)
+		{
+			BitSet termMatches = new BitSet();
+			for (Map.Entry<String, BitSet> entry : tokenDocuments.subMap(term, true, term + Character.MAX_VALUE, true)
+					.entrySet())
+			{
+				termMatches.or(entry.getValue());
+			}
+
+			if (matches == null) matches = termMatches;
+			else matches.and(termMatches);
+			if (matches.isEmpty()) return Collections.emptyList();
+		}
+
+		List<POQMMT000001UVQualityMeasureDocument> foundDocuments = new ArrayList<POQMMT000001UVQualityMeasureDocument>(
+				matches.cardinality());
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+		{
+			foundDocuments.add(documents.get(i));
+		}
+		return foundDocuments;
+	}
+
+	private static String getIndexedText(POQMMT000001UVQualityMeasureDocument document)
+	{
+		QualityMeasureDocumentStudyDefinition studyDefinition = new QualityMeasureDocumentStudyDefinition(document,
+				null);
+
+		StringBuilder textBuilder = new StringBuilder();
+		if (document.getTitle() != null) textBuilder.append(studyDefinition.getName()).append(' ');
+		if (document.getAuthor() != null && !document.getAuthor().isEmpty())
+		{
+			for (String author : studyDefinition.getAuthors())
+			{
+				textBuilder.append(author).append(' ');
+			}
+			if (document.getAuthor().get(0).getAssignedPerson() != null
+					&& !document.getAuthor().get(0).getAssignedPerson().getTelecom().isEmpty())
+			{
+				textBuilder.append(studyDefinition.getAuthorEmail()).append(' ');
+			}
+		}
+		for (POQMMT000001UVComponent2 component : document.getComponent())
+		{
+			POQMMT000001UVSection section = component.getSection();
+			if (section != null)
+			{
+				for (POQMMT000001UVEntry entry : section.getEntry())
+				{
+					CD code = entry.getObservation() != null ? entry.getObservation().getCode() : null;
+					if (code != null && code.getCode() != null) textBuilder.append(code.getCode()).append(' ');
+				}
+			}
+		}
+		return textBuilder.toString();
+	}
+
+	private static List<String> tokenize(String text)
+	{
+		List<String> tokens = new ArrayList<String>();
+		for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ENGLISH)))
+		{
+			if (!token.isEmpty()) tokens.add(token);
+		}
+		return tokens;
+	}
+}
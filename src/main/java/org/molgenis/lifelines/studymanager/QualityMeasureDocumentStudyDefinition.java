@@ -3,7 +3,12 @@ package org.molgenis.lifelines.studymanager;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.bind.JAXBElement;
 
@@ -35,14 +40,19 @@ import org.molgenis.omx.study.StudyDataRequest;
 import org.molgenis.omx.utils.I18nTools;
 import org.molgenis.study.StudyDefinition;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterables;
 
 public class QualityMeasureDocumentStudyDefinition implements StudyDefinition
 {
+	/** maximum number of identifiers in a single 'in' query */
+	private static final int IDENTIFIER_QUERY_BATCH_SIZE = 1000;
+
 	private final POQMMT000001UVQualityMeasureDocument qualityMeasureDocument;
 	private final DataService dataService;
 
+	private List<CatalogFolder> items;
+	private Set<String> itemIds;
+
 	public QualityMeasureDocumentStudyDefinition(POQMMT000001UVQualityMeasureDocument qualityMeasureDocument,
 			DataService dataService)
 	{
@@ -106,8 +116,17 @@ public class QualityMeasureDocumentStudyDefinition implements StudyDefinition
 		else throw new RuntimeException("Unknown status code [" + code + "]");
 	}
 
+	/**
+	 * Returns the selected items, the protocols of the items are retrieved once and reused by subsequent calls
+	 */
 	@Override
 	public List<CatalogFolder> getItems()
+	{
+		if (items == null) items = Collections.unmodifiableList(retrieveItems());
+		return items;
+	}
+
+	private List<CatalogFolder> retrieveItems()
 	{
 		List<POQMMT000001UVComponent2> components = qualityMeasureDocument.getComponent();
 		if (components == null || components.isEmpty()) return Collections.emptyList();
@@ -117,24 +136,37 @@ public class QualityMeasureDocumentStudyDefinition implements StudyDefinition
 		POQMMT000001UVSection section = component.getSection();
 		if (section == null) return Collections.emptyList();
 
-		return Lists.newArrayList(Lists.transform(section.getEntry(),
-				new Function<POQMMT000001UVEntry, CatalogFolder>()
-				{
-					@Override
-					public CatalogFolder apply(POQMMT000001UVEntry entry)
-					{
-						Protocol protocol = dataService.findOne(Protocol.ENTITY_NAME,
-								new QueryImpl().eq(Protocol.IDENTIFIER, entry.getObservation().getCode().getCode()),
-								Protocol.class);
+		List<POQMMT000001UVEntry> entries = section.getEntry();
+		Set<String> protocolIdentifiers = new LinkedHashSet<String>();
+		for (POQMMT000001UVEntry entry : entries)
+		{
+			protocolIdentifiers.add(entry.getObservation().getCode().getCode());
+		}
 
-						if (protocol == null)
-						{
-							throw new RuntimeException("Unknown Protocol with identifier ["
-									+ entry.getObservation().getCode().getCode() + "]");
-						}
-						return new PoqmObservationCatalogItem(entry.getObservation(), protocol);
-					}
-				}));
+		// retrieve protocols with one query per batch instead of one query per entry
+		Map<String, Protocol> protocols = new HashMap<String, Protocol>();
+		for (List<String> identifierBatch : Iterables.partition(protocolIdentifiers, IDENTIFIER_QUERY_BATCH_SIZE))
+		{
+			Iterable<Protocol> protocolBatch = dataService.findAll(Protocol.ENTITY_NAME,
+					new QueryImpl().in(Protocol.IDENTIFIER, identifierBatch), Protocol.class);
+			for (Protocol protocol : protocolBatch)
+			{
+				protocols.put(protocol.getIdentifier(), protocol);
+			}
+		}
+
+		List<CatalogFolder> items = new ArrayList<CatalogFolder>(entries.size());
+		for (POQMMT000001UVEntry entry : entries)
+		{
+			String protocolIdentifier = entry.getObservation().getCode().getCode();
+			Protocol protocol = protocols.get(protocolIdentifier);
+			if (protocol == null)
+			{
+				throw new RuntimeException("Unknown Protocol with identifier [" + protocolIdentifier + "]");
+			}
+			items.add(new PoqmObservationCatalogItem(entry.getObservation(), protocol));
+		}
+		return items;
 	}
 
 	@Override
@@ -176,6 +208,8 @@ public class QualityMeasureDocumentStudyDefinition implements StudyDefinition
 
 		List<POQMMT000001UVEntry> entries = section.getEntry();
 		entries.clear();
+		this.items = null;
+		this.itemIds = null;
 		for (CatalogItem item : items)
 		{
 			POQMMT000001UVEntry entry = new POQMMT000001UVEntry();
@@ -281,16 +315,16 @@ public class QualityMeasureDocumentStudyDefinition implements StudyDefinition
 	@Override
 	public boolean containsItem(CatalogFolder anItem)
 	{
-		boolean contains = false;
-		for (CatalogItem item : getItems())
+		if (itemIds == null)
 		{
-			if (item.getId().equals(anItem.getId()))
+			Set<String> itemIds = new HashSet<String>();
+			for (CatalogItem item : getItems())
 			{
-				contains = true;
-				break;
+				itemIds.add(item.getId());
 			}
+			this.itemIds = itemIds;
 		}
-		return contains;
+		return itemIds.contains(anItem.getId());
 	}
 
 	@Override
@@ -0,0 +1,88 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+/**
+ * Reads a Generic Layer study data response (a REPCMT000400UV01ActCategory) with a pull parser. The participant
+ * organizers are unmarshalled one at a time, so memory use is bounded by the size of the largest participant instead of
+ * the size of the response.
+ */
+class StreamingStudyDataReader
+{
+	private static final String ELEMENT_COMPONENT = "component";
+	private static final String ELEMENT_ORGANIZER = "organizer";
+
+	// act category > component > organizer
+	private static final int DEPTH_COMPONENT = 2;
+
+	private static final JAXBContext JAXB_CONTEXT_ORGANIZER;
+
+	static
+	{
+		try
+		{
+			JAXB_CONTEXT_ORGANIZER = JAXBContext.newInstance(REPCMT000100UV01Organizer.class);
+		}
+		catch (JAXBException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void read(InputStream xmlStream, StudyDataHandler studyDataHandler) throws XMLStreamException,
+			JAXBException
+	{
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(xmlStream);
+		try
+		{
+			parse(reader, studyDataHandler);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private void parse(XMLStreamReader reader, StudyDataHandler studyDataHandler) throws XMLStreamException,
+			JAXBException
+	{
+		Unmarshaller unmarshaller = JAXB_CONTEXT_ORGANIZER.createUnmarshaller();
+
+		int depth = 0;
+		boolean inComponent = false;
+		int event = reader.next();
+		while (event != XMLStreamConstants.END_DOCUMENT)
+		{
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String localName = reader.getLocalName();
+				if (inComponent && depth == DEPTH_COMPONENT && localName.equals(ELEMENT_ORGANIZER))
+				{
+					// unmarshal complete organizer, reader is positioned after the organizer afterwards
+					REPCMT000100UV01Organizer organizer = unmarshaller.unmarshal(reader,
+							REPCMT000100UV01Organizer.class).getValue();
+					studyDataHandler.participant(organizer);
+					event = reader.getEventType();
+					continue;
+				}
+				++depth;
+				if (depth == DEPTH_COMPONENT) inComponent = localName.equals(ELEMENT_COMPONENT);
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				--depth;
+			}
+			event = reader.next();
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package org.molgenis.lifelines.studymanager;
+
+import org.hl7.v3.REPCMT000100UV01Organizer;
+
+/**
+ * Receives the participant organizers of a Generic Layer study data response in document order
+ */
+interface StudyDataHandler
+{
+	void participant(REPCMT000100UV01Organizer participantOrganizer);
+}
@@ -0,0 +1,128 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.support.QueryImpl;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Resolves features by identifier and categories by feature and value code while loading study data. The features of
+ * the catalog of the study and their categories are retrieved in bulk up front, features and categories that are not
+ * part of the catalog are retrieved one at a time and remembered, including the ones that do not exist. Not
+ * thread-safe, use one instance per load.
+ */
+class StudyDataResolutionCache
+{
+	private final DataService dataService;
+	private final Map<String, ObservableFeature> features;
+	private final Map<String, Category> categories;
+	private final Set<String> unknownFeatureIdentifiers;
+	private final Set<String> unknownCategoryKeys;
+
+	public StudyDataResolutionCache(DataService dataService, Protocol catalogProtocol, int batchSize)
+	{
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.dataService = dataService;
+		this.features = new HashMap<String, ObservableFeature>();
+		this.categories = new HashMap<String, Category>();
+		this.unknownFeatureIdentifiers = new HashSet<String>();
+		this.unknownCategoryKeys = new HashSet<String>();
+		if (catalogProtocol != null) preload(catalogProtocol, batchSize);
+	}
+
+	/**
+	 * Returns the feature with the given identifier or null if it does not exist
+	 */
+	public ObservableFeature getFeature(String identifier)
+	{
+		ObservableFeature feature = features.get(identifier);
+		if (feature == null && !unknownFeatureIdentifiers.contains(identifier))
+		{
+			feature = dataService.findOne(ObservableFeature.ENTITY_NAME,
+					new QueryImpl().eq(ObservableFeature.IDENTIFIER, identifier), ObservableFeature.class);
+			if (feature != null) features.put(identifier, feature);
+			else unknownFeatureIdentifiers.add(identifier);
+		}
+		return feature;
+	}
+
+	/**
+	 * Returns the category of the given feature with the given value code or null if it does not exist
+	 */
+	public Category getCategory(ObservableFeature feature, String valueCode)
+	{
+		String categoryKey = getCategoryKey(feature, valueCode);
+		Category category = categories.get(categoryKey);
+		if (category == null && !unknownCategoryKeys.contains(categoryKey))
+		{
+			category = dataService.findOne(Category.ENTITY_NAME,
+					new QueryImpl().eq(Category.OBSERVABLEFEATURE, feature).and().eq(Category.VALUECODE, valueCode),
+					Category.class);
+			if (category != null) categories.put(categoryKey, category);
+			else unknownCategoryKeys.add(categoryKey);
+		}
+		return category;
+	}
+
+	/**
+	 * Categories belong to exactly one feature and are unique by value code within that feature
+	 */
+	private static String getCategoryKey(ObservableFeature feature, String valueCode)
+	{
+		return feature.getIdentifier() + '.' + valueCode;
+	}
+
+	private void preload(Protocol catalogProtocol, int batchSize)
+	{
+		// features of the catalog protocol and its descendants in breadth-first order
+		Map<Integer, Protocol> protocols = new LinkedHashMap<Integer, Protocol>();
+		protocols.put(catalogProtocol.getId(), catalogProtocol);
+		List<Protocol> levelProtocols = new ArrayList<Protocol>();
+		levelProtocols.add(catalogProtocol);
+		while (!levelProtocols.isEmpty())
+		{
+			List<Protocol> nextLevelProtocols = new ArrayList<Protocol>();
+			for (Protocol protocol : levelProtocols)
+			{
+				List<ObservableFeature> protocolFeatures = protocol.getFeatures();
+				if (protocolFeatures != null)
+				{
+					for (ObservableFeature feature : protocolFeatures)
+					{
+						features.put(feature.getIdentifier(), feature);
+					}
+				}
+				List<Protocol> subprotocols = protocol.getSubprotocols();
+				if (subprotocols == null) continue;
+				for (Protocol subprotocol : subprotocols)
+				{
+					if (protocols.put(subprotocol.getId(), subprotocol) == null) nextLevelProtocols.add(subprotocol);
+				}
+			}
+			levelProtocols = nextLevelProtocols;
+		}
+
+		for (List<ObservableFeature> featureBatch : Iterables.partition(
+				new ArrayList<ObservableFeature>(features.values()), batchSize))
+		{
+			Iterable<Category> featureCategories = dataService.findAll(Category.ENTITY_NAME,
+					new QueryImpl().in(Category.OBSERVABLEFEATURE, featureBatch), Category.class);
+			for (Category category : featureCategories)
+			{
+				categories.put(getCategoryKey(category.getObservableFeature(), category.getValueCode()), category);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Export of a study data request to the Generic Layer running in the background. Keeps track of the export steps that
+ * remain, so that a failed export can be resumed at the step that failed. Updated by the exporting thread, read by any
+ * thread.
+ */
+public class StudyDefinitionExportJob
+{
+	public enum Status
+	{
+		QUEUED, RUNNING, FINISHED, FAILED
+	}
+
+	public enum Step
+	{
+		CREATE, REVISE, SUBMIT, APPROVE
+	}
+
+	private static final char FIELD_SEPARATOR = ';';
+	private static final char STEP_SEPARATOR = ',';
+
+	private final String studyDataRequestId;
+	private volatile Status status;
+	private volatile List<Step> remainingSteps;
+	private volatile boolean nextStepSent;
+	private volatile String errorMessage;
+
+	public StudyDefinitionExportJob(String studyDataRequestId, List<Step> steps)
+	{
+		this(studyDataRequestId, Status.QUEUED, steps, false);
+	}
+
+	private StudyDefinitionExportJob(String studyDataRequestId, Status status, List<Step> remainingSteps,
+			boolean nextStepSent)
+	{
+		if (studyDataRequestId == null) throw new IllegalArgumentException("studyDataRequestId is null");
+		if (remainingSteps == null) throw new IllegalArgumentException("remainingSteps is null");
+		this.studyDataRequestId = studyDataRequestId;
+		this.status = status;
+		this.remainingSteps = Collections.unmodifiableList(new ArrayList<Step>(remainingSteps));
+		this.nextStepSent = nextStepSent;
+	}
+
+	public String getStudyDataRequestId()
+	{
+		return studyDataRequestId;
+	}
+
+	public Status getStatus()
+	{
+		return status;
+	}
+
+	public List<Step> getRemainingSteps()
+	{
+		return remainingSteps;
+	}
+
+	/**
+	 * Returns the error message of a failed job. Error messages are not stored, a failed job that was read from the
+	 * store has no error message.
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	public boolean isDone()
+	{
+		return status == Status.FINISHED || status == Status.FAILED;
+	}
+
+	/**
+	 * Returns the next step to perform or null if all steps were performed
+	 */
+	Step getNextStep()
+	{
+		List<Step> steps = remainingSteps;
+		return steps.isEmpty() ? null : steps.get(0);
+	}
+
+	/**
+	 * Returns whether the Generic Layer calls of the next step were sent without recording the result of the step
+	 */
+	boolean isNextStepSent()
+	{
+		return nextStepSent;
+	}
+
+	void nextStepSent()
+	{
+		nextStepSent = true;
+	}
+
+	void stepCompleted()
+	{
+		List<Step> steps = remainingSteps;
+		remainingSteps = Collections.unmodifiableList(new ArrayList<Step>(steps.subList(1, steps.size())));
+		nextStepSent = false;
+	}
+
+	void setRemainingSteps(List<Step> remainingSteps)
+	{
+		this.remainingSteps = Collections.unmodifiableList(new ArrayList<Step>(remainingSteps));
+	}
+
+	void queued()
+	{
+		errorMessage = null;
+		status = Status.QUEUED;
+	}
+
+	void started()
+	{
+		status = Status.RUNNING;
+	}
+
+	void finished()
+	{
+		status = Status.FINISHED;
+	}
+
+	void failed(String errorMessage)
+	{
+		this.errorMessage = errorMessage;
+		status = Status.FAILED;
+	}
+
+	/**
+	 * Returns the status, remaining steps and whether the next step was sent of this job in the format read by
+	 * {@link #valueOf}. The error message is not stored, it is logged when the export fails.
+	 */
+	String toPropertyValue()
+	{
+		StringBuilder valueBuilder = new StringBuilder(status.toString()).append(FIELD_SEPARATOR);
+		List<Step> steps = remainingSteps;
+		for (int i = 0; i < steps.size(); ++i)
+		{
+			if (i > 0) valueBuilder.append(STEP_SEPARATOR);
+			valueBuilder.append(steps.get(i));
+		}
+		valueBuilder.append(FIELD_SEPARATOR);
+		if (nextStepSent && !steps.isEmpty()) valueBuilder.append(steps.get(0));
+		return valueBuilder.toString();
+	}
+
+	static StudyDefinitionExportJob valueOf(String studyDataRequestId, String propertyValue)
+	{
+		String[] fields = propertyValue.split(String.valueOf(FIELD_SEPARATOR), 3);
+		if (fields.length != 3)
+		{
+			throw new IllegalArgumentException("Invalid export job [" + propertyValue + "]");
+		}
+
+		Status status = Status.valueOf(fields[0]);
+		List<Step> remainingSteps = new ArrayList<Step>();
+		if (!fields[1].isEmpty())
+		{
+			for (String step : fields[1].split(String.valueOf(STEP_SEPARATOR)))
+			{
+				remainingSteps.add(Step.valueOf(step));
+			}
+		}
+		// values written by earlier versions contain an error message instead of the sent step
+		boolean nextStepSent = !remainingSteps.isEmpty() && fields[2].equals(remainingSteps.get(0).toString());
+		return new StudyDefinitionExportJob(studyDataRequestId, status, remainingSteps, nextStepSent);
+	}
+}
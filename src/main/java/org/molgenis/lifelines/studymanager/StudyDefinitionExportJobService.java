@@ -0,0 +1,466 @@
+package org.molgenis.lifelines.studymanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.data.support.QueryImpl;
+import org.molgenis.lifelines.studymanager.GenericLayerStudyManagerService.ExportStepCall;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Status;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
+import org.molgenis.omx.core.RuntimeProperty;
+import org.molgenis.omx.study.StudyDataRequest;
+import org.molgenis.study.UnknownStudyDefinitionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Exports study data requests to the Generic Layer in the background using a fixed number of threads. The state and
+ * remaining steps of export jobs are stored as runtime properties, each completed step is committed together with the
+ * job, so that queued and interrupted exports survive a restart and a failed export resumes at the step that failed.
+ * Error messages are logged and kept in memory only. The Generic Layer is called outside of a transaction, a step that
+ * was performed but could not be recorded is performed again when the export resumes, except for the create step which
+ * reuses the study definition that it created.
+ */
+public class StudyDefinitionExportJobService
+{
+	private static final Logger logger = Logger.getLogger(StudyDefinitionExportJobService.class);
+
+	static final String RUNTIME_PROPERTY_IDENTIFIER_PREFIX = "StudyDefinitionExport_";
+	private static final int QUERY_BATCH_SIZE = 1000;
+
+	private final GenericLayerStudyManagerService genericLayerStudyManagerService;
+	private final DataService dataService;
+	private final TransactionTemplate transactionTemplate;
+	private final ExecutorService executorService;
+	private final ConcurrentMap<String, StudyDefinitionExportJob> exportJobs = new ConcurrentHashMap<String, StudyDefinitionExportJob>();
+	private final Object createLock = new Object();
+
+	public StudyDefinitionExportJobService(GenericLayerStudyManagerService genericLayerStudyManagerService,
+			DataService dataService, PlatformTransactionManager transactionManager, int nrThreads)
+	{
+		if (genericLayerStudyManagerService == null)
+		{
+			throw new IllegalArgumentException("genericLayerStudyManagerService is null");
+		}
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		if (transactionManager == null) throw new IllegalArgumentException("transactionManager is null");
+		if (nrThreads <= 0) throw new IllegalArgumentException("nrThreads must be greater than 0");
+		this.genericLayerStudyManagerService = genericLayerStudyManagerService;
+		this.dataService = dataService;
+		// export jobs are committed independently of the transaction of the caller
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.executorService = Executors.newFixedThreadPool(nrThreads);
+	}
+
+	/**
+	 * Queues the export of the given study data request, resuming a previously failed export. Returns the queued or
+	 * running job if the study data request is already being exported.
+	 */
+	public synchronized StudyDefinitionExportJob export(String studyDataRequestId)
+			throws UnknownStudyDefinitionException
+	{
+		StudyDefinitionExportJob exportJob = exportJobs.get(studyDataRequestId);
+		if (exportJob != null && !exportJob.isDone()) return exportJob;
+
+		// the stored job knows which steps were committed
+		exportJob = readExportJob(studyDataRequestId);
+		if (exportJob == null || exportJob.getStatus() == Status.FINISHED)
+		{
+			StudyDataRequest studyDataRequest = dataService.findOne(StudyDataRequest.ENTITY_NAME,
+					Integer.valueOf(studyDataRequestId), StudyDataRequest.class);
+			if (studyDataRequest == null)
+			{
+				throw new UnknownStudyDefinitionException("StudyDataRequest does not exist [" + studyDataRequestId
+						+ "]");
+			}
+			exportJob = new StudyDefinitionExportJob(studyDataRequestId, getExportSteps(studyDataRequest));
+		}
+		else
+		{
+			// resume failed or interrupted export
+			exportJob.queued();
+		}
+
+		writeExportJob(exportJob);
+		submit(exportJob);
+		return exportJob;
+	}
+
+	/**
+	 * Queues the export of the given study data requests, resuming previously failed exports. Exports are executed
+	 * concurrently by the export threads in the given order. Returns the export job of each study data request in the
+	 * given order, the export job of an unknown study data request has failed.
+	 */
+	public synchronized Map<String, StudyDefinitionExportJob> export(Collection<String> studyDataRequestIds)
+	{
+		final Map<String, StudyDefinitionExportJob> exportJobMap = new LinkedHashMap<String, StudyDefinitionExportJob>();
+		final List<String> exportIds = new ArrayList<String>();
+		for (String studyDataRequestId : studyDataRequestIds)
+		{
+			if (exportJobMap.containsKey(studyDataRequestId)) continue;
+			StudyDefinitionExportJob exportJob = exportJobs.get(studyDataRequestId);
+			if (exportJob != null && !exportJob.isDone())
+			{
+				exportJobMap.put(studyDataRequestId, exportJob);
+			}
+			else
+			{
+				exportJobMap.put(studyDataRequestId, null);
+				exportIds.add(studyDataRequestId);
+			}
+		}
+		if (exportIds.isEmpty()) return exportJobMap;
+
+		// store all export jobs in one transaction using one query per batch of study data requests
+		List<StudyDefinitionExportJob> queuedExportJobs = transactionTemplate
+				.execute(new TransactionCallback<List<StudyDefinitionExportJob>>()
+				{
+					@Override
+					public List<StudyDefinitionExportJob> doInTransaction(TransactionStatus status)
+					{
+						Map<String, RuntimeProperty> runtimeProperties = findRuntimeProperties(exportIds);
+						Map<String, StudyDataRequest> studyDataRequests = findStudyDataRequests(exportIds);
+
+						List<StudyDefinitionExportJob> exportJobsToSubmit = new ArrayList<StudyDefinitionExportJob>();
+						for (String studyDataRequestId : exportIds)
+						{
+							RuntimeProperty runtimeProperty = runtimeProperties.get(studyDataRequestId);
+							StudyDefinitionExportJob exportJob = runtimeProperty != null ? StudyDefinitionExportJob
+									.valueOf(studyDataRequestId, runtimeProperty.getValue()) : null;
+							if (exportJob == null || exportJob.getStatus() == Status.FINISHED)
+							{
+								StudyDataRequest studyDataRequest = studyDataRequests.get(studyDataRequestId);
+								if (studyDataRequest == null)
+								{
+									exportJob = new StudyDefinitionExportJob(studyDataRequestId,
+											Collections.<Step> emptyList());
+									exportJob.failed("StudyDataRequest does not exist [" + studyDataRequestId + "]");
+									exportJobMap.put(studyDataRequestId, exportJob);
+									continue;
+								}
+								exportJob = new StudyDefinitionExportJob(studyDataRequestId,
+										getExportSteps(studyDataRequest));
+							}
+							else
+							{
+								// resume failed or interrupted export
+								exportJob.queued();
+							}
+							saveExportJob(exportJob, runtimeProperty);
+							exportJobMap.put(studyDataRequestId, exportJob);
+							exportJobsToSubmit.add(exportJob);
+						}
+						return exportJobsToSubmit;
+					}
+				});
+
+		for (StudyDefinitionExportJob exportJob : queuedExportJobs)
+		{
+			submit(exportJob);
+		}
+		return exportJobMap;
+	}
+
+	/**
+	 * Returns the most recent export job of the given study data request or null if it was never exported in the
+	 * background
+	 */
+	public StudyDefinitionExportJob getExportJob(String studyDataRequestId)
+	{
+		StudyDefinitionExportJob exportJob = exportJobs.get(studyDataRequestId);
+		return exportJob != null ? exportJob : readExportJob(studyDataRequestId);
+	}
+
+	/**
+	 * Queues the exports that were queued or running when the application stopped
+	 */
+	public synchronized void resumeExports()
+	{
+		List<StudyDefinitionExportJob> unfinishedExportJobs = transactionTemplate
+				.execute(new TransactionCallback<List<StudyDefinitionExportJob>>()
+				{
+					@Override
+					public List<StudyDefinitionExportJob> doInTransaction(TransactionStatus status)
+					{
+						List<StudyDefinitionExportJob> exportJobs = new ArrayList<StudyDefinitionExportJob>();
+						Iterable<RuntimeProperty> runtimeProperties = dataService.findAll(
+								RuntimeProperty.ENTITY_NAME,
+								new QueryImpl().like(RuntimeProperty.IDENTIFIER, RUNTIME_PROPERTY_IDENTIFIER_PREFIX),
+								RuntimeProperty.class);
+						for (RuntimeProperty runtimeProperty : runtimeProperties)
+						{
+							String identifier = runtimeProperty.getIdentifier();
+							if (!identifier.startsWith(RUNTIME_PROPERTY_IDENTIFIER_PREFIX)) continue;
+
+							StudyDefinitionExportJob exportJob = StudyDefinitionExportJob.valueOf(
+									runtimeProperty.getName(), runtimeProperty.getValue());
+							if (!exportJob.isDone()) exportJobs.add(exportJob);
+						}
+						return exportJobs;
+					}
+				});
+
+		for (StudyDefinitionExportJob exportJob : unfinishedExportJobs)
+		{
+			if (exportJobs.containsKey(exportJob.getStudyDataRequestId())) continue;
+			logger.info("resuming export of study data request [" + exportJob.getStudyDataRequestId() + "]");
+			exportJob.queued();
+			submit(exportJob);
+		}
+	}
+
+	public void shutdown()
+	{
+		executorService.shutdown();
+	}
+
+	static List<Step> getExportSteps(StudyDataRequest studyDataRequest)
+	{
+		// study definitions exported before only need to be revised and approved again
+		if (studyDataRequest.getExternalId() == null)
+		{
+			return Arrays.asList(Step.CREATE, Step.REVISE, Step.SUBMIT, Step.APPROVE);
+		}
+		else return Arrays.asList(Step.REVISE, Step.APPROVE);
+	}
+
+	private void submit(final StudyDefinitionExportJob exportJob)
+	{
+		exportJobs.put(exportJob.getStudyDataRequestId(), exportJob);
+		executorService.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				execute(exportJob);
+			}
+		});
+	}
+
+	void execute(final StudyDefinitionExportJob exportJob)
+	{
+		final String studyDataRequestId = exportJob.getStudyDataRequestId();
+		try
+		{
+			exportJob.started();
+			writeExportJob(exportJob);
+
+			for (Step step = exportJob.getNextStep(); step != null; step = exportJob.getNextStep())
+			{
+				List<Step> remainingSteps = exportJob.getRemainingSteps();
+				try
+				{
+					if (step == Step.CREATE)
+					{
+						// otherwise a resumed create step could take the study definition that another job just created
+						synchronized (createLock)
+						{
+							performStep(exportJob, step);
+						}
+					}
+					else performStep(exportJob, step);
+				}
+				catch (RuntimeException e)
+				{
+					// the step was not committed
+					exportJob.setRemainingSteps(remainingSteps);
+					throw e;
+				}
+			}
+
+			exportJob.finished();
+			writeExportJob(exportJob);
+			logger.info("exported study data request [" + studyDataRequestId + "]");
+		}
+		catch (Exception e)
+		{
+			logger.error("failed to export study data request [" + studyDataRequestId + "]", e);
+			exportJob.failed(e.getMessage());
+			try
+			{
+				writeExportJob(exportJob);
+			}
+			catch (Exception writeException)
+			{
+				logger.error("failed to store export job of study data request [" + studyDataRequestId + "]",
+						writeException);
+			}
+		}
+	}
+
+	/**
+	 * Performs one export step. The job is stored as having sent the step before the Generic Layer is called, so that a
+	 * resumed create step can find the study definition that it created. No transaction is held open while calling the
+	 * Generic Layer.
+	 */
+	private void performStep(final StudyDefinitionExportJob exportJob, final Step step)
+	{
+		final String studyDataRequestId = exportJob.getStudyDataRequestId();
+		ExportStepCall exportStepCall = transactionTemplate.execute(new TransactionCallback<ExportStepCall>()
+		{
+			@Override
+			public ExportStepCall doInTransaction(TransactionStatus status)
+			{
+				ExportStepCall exportStepCall = genericLayerStudyManagerService.prepareExportStep(
+						getStudyDataRequest(studyDataRequestId), step, exportJob.isNextStepSent());
+				exportJob.nextStepSent();
+				saveExportJob(exportJob);
+				return exportStepCall;
+			}
+		});
+		final String createdExternalId = exportStepCall.call();
+		transactionTemplate.execute(new TransactionCallbackWithoutResult()
+		{
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status)
+			{
+				genericLayerStudyManagerService.exportStepPerformed(getStudyDataRequest(studyDataRequestId), step,
+						createdExternalId);
+				exportJob.stepCompleted();
+				saveExportJob(exportJob);
+			}
+		});
+	}
+
+	private StudyDataRequest getStudyDataRequest(String studyDataRequestId)
+	{
+		StudyDataRequest studyDataRequest = dataService.findOne(StudyDataRequest.ENTITY_NAME,
+				Integer.valueOf(studyDataRequestId), StudyDataRequest.class);
+		if (studyDataRequest == null)
+		{
+			throw new RuntimeException("StudyDataRequest does not exist [" + studyDataRequestId + "]");
+		}
+		return studyDataRequest;
+	}
+
+	private StudyDefinitionExportJob readExportJob(final String studyDataRequestId)
+	{
+		return transactionTemplate.execute(new TransactionCallback<StudyDefinitionExportJob>()
+		{
+			@Override
+			public StudyDefinitionExportJob doInTransaction(TransactionStatus status)
+			{
+				RuntimeProperty runtimeProperty = findRuntimeProperty(studyDataRequestId);
+				if (runtimeProperty == null) return null;
+				return StudyDefinitionExportJob.valueOf(studyDataRequestId, runtimeProperty.getValue());
+			}
+		});
+	}
+
+	private void writeExportJob(final StudyDefinitionExportJob exportJob)
+	{
+		transactionTemplate.execute(new TransactionCallbackWithoutResult()
+		{
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status)
+			{
+				saveExportJob(exportJob);
+			}
+		});
+	}
+
+	private void saveExportJob(StudyDefinitionExportJob exportJob)
+	{
+		saveExportJob(exportJob, findRuntimeProperty(exportJob.getStudyDataRequestId()));
+	}
+
+	private void saveExportJob(StudyDefinitionExportJob exportJob, RuntimeProperty runtimeProperty)
+	{
+		if (runtimeProperty == null)
+		{
+			runtimeProperty = new RuntimeProperty();
+			runtimeProperty.setIdentifier(RUNTIME_PROPERTY_IDENTIFIER_PREFIX + exportJob.getStudyDataRequestId());
+			runtimeProperty.setName(exportJob.getStudyDataRequestId());
+			runtimeProperty.setValue(exportJob.toPropertyValue());
+			dataService.add(RuntimeProperty.ENTITY_NAME, runtimeProperty);
+		}
+		else
+		{
+			runtimeProperty.setValue(exportJob.toPropertyValue());
+			dataService.update(RuntimeProperty.ENTITY_NAME, runtimeProperty);
+		}
+	}
+
+	private RuntimeProperty findRuntimeProperty(String studyDataRequestId)
+	{
+		return dataService.findOne(RuntimeProperty.ENTITY_NAME,
+				new QueryImpl().eq(RuntimeProperty.IDENTIFIER, RUNTIME_PROPERTY_IDENTIFIER_PREFIX + studyDataRequestId),
+				RuntimeProperty.class);
+	}
+
+	/**
+	 * Retrieves the stored export jobs of the given study data requests using one query per batch of study data
+	 * requests
+	 */
+	private Map<String, RuntimeProperty> findRuntimeProperties(List<String> studyDataRequestIds)
+	{
+		Map<String, RuntimeProperty> runtimeProperties = new HashMap<String, RuntimeProperty>();
+		for (List<String> idBatch : Iterables.partition(studyDataRequestIds, QUERY_BATCH_SIZE))
+		{
+			List<String> identifiers = new ArrayList<String>(idBatch.size());
+			for (String studyDataRequestId : idBatch)
+			{
+				identifiers.add(RUNTIME_PROPERTY_IDENTIFIER_PREFIX + studyDataRequestId);
+			}
+			Query q = new QueryImpl().in(RuntimeProperty.IDENTIFIER, identifiers);
+			for (RuntimeProperty runtimeProperty : dataService.findAll(RuntimeProperty.ENTITY_NAME, q,
+					RuntimeProperty.class))
+			{
+				runtimeProperties.put(runtimeProperty.getName(), runtimeProperty);
+			}
+		}
+		return runtimeProperties;
+	}
+
+	/**
+	 * Retrieves the study data requests with the given ids using one query per batch of ids, ids that are not a number
+	 * are ignored
+	 */
+	private Map<String, StudyDataRequest> findStudyDataRequests(List<String> studyDataRequestIds)
+	{
+		List<Integer> ids = new ArrayList<Integer>(studyDataRequestIds.size());
+		for (String studyDataRequestId : studyDataRequestIds)
+		{
+			try
+			{
+				ids.add(Integer.valueOf(studyDataRequestId));
+			}
+			catch (NumberFormatException e)
+			{
+				logger.warn("invalid StudyDataRequest id [" + studyDataRequestId + "]");
+			}
+		}
+
+		Map<String, StudyDataRequest> studyDataRequests = new HashMap<String, StudyDataRequest>();
+		for (List<Integer> idBatch : Iterables.partition(ids, QUERY_BATCH_SIZE))
+		{
+			Query q = new QueryImpl().in(StudyDataRequest.ID, idBatch);
+			for (StudyDataRequest studyDataRequest : dataService.findAll(StudyDataRequest.ENTITY_NAME, q,
+					StudyDataRequest.class))
+			{
+				studyDataRequests.put(studyDataRequest.getId().toString(), studyDataRequest);
+			}
+		}
+		return studyDataRequests;
+	}
+}
@@ -7,6 +7,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.common.collect.Lists;
 import org.molgenis.catalog.CatalogFolder;
 import org.molgenis.data.DataService;
+import org.molgenis.lifelines.catalog.OrganizerCatalogFolder;
 import org.molgenis.lifelines.utils.MeasurementIdConverter;
 import org.molgenis.lifelines.utils.ObservationIdConverter;
 import org.molgenis.omx.auth.MolgenisUser;
@@ -72,16 +73,26 @@ public class StudyBean
 			{
 				throw new RuntimeException("Missing measurement for catalog item with id [" + item.getId() + "]");
 			}
-			String measurementItemId = itemPath.get(2).getId();
-
-			int idx = measurementItemId.lastIndexOf('_');
-			if (idx == -1 || idx == measurementItemId.length() - 1)
+			CatalogFolder measurementFolder = itemPath.get(2);
+			if (measurementFolder instanceof OrganizerCatalogFolder)
 			{
-				throw new RuntimeException("Invalid Measurement id [" + measurementItemId + "]");
+				// organizer folders know their code, no need to parse the id
+				folderBean.setMeasurementCode(measurementFolder.getCode());
+				folderBean.setMeasurementCodeSystem(measurementFolder.getCodeSystem());
+			}
+			else
+			{
+				String measurementItemId = measurementFolder.getId();
+
+				int idx = measurementItemId.lastIndexOf('_');
+				if (idx == -1 || idx == measurementItemId.length() - 1)
+				{
+					throw new RuntimeException("Invalid Measurement id [" + measurementItemId + "]");
+				}
+				folderBean.setMeasurementCode(MeasurementIdConverter.getMeasurementCode(measurementItemId));
+				folderBean.setMeasurementCodeSystem(MeasurementIdConverter
+						.getMeasurementCodeSystem(measurementItemId));
 			}
-			folderBean.setMeasurementCode(MeasurementIdConverter.getMeasurementCode(measurementItemId));
-			folderBean
-					.setMeasurementCodeSystem(MeasurementIdConverter.getMeasurementCodeSystem(measurementItemId));
 		}
 	}
 
@@ -0,0 +1,82 @@
+package org.molgenis.lifelines.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.molgenis.data.CrudRepository;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Entity;
+
+/**
+ * Collects entities per entity type and writes them in bulk. Entity types are written in the order in which they were
+ * passed to the constructor, so referenced entities (e.g. features) must be listed before the entities referencing
+ * them (e.g. protocols). After each batch the persistence context is flushed and cleared so that it does not grow with
+ * the number of written entities.
+ */
+public class BatchingEntityWriter implements EntityWriter
+{
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final DataService dataService;
+	private final int batchSize;
+	private final Map<String, List<Entity>> entityBuffers;
+	private int nrBufferedEntities;
+	private long nrWrittenEntities;
+
+	public BatchingEntityWriter(DataService dataService, int batchSize, String... entityNames)
+	{
+		if (dataService == null) throw new IllegalArgumentException("dataService is null");
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		if (entityNames.length == 0) throw new IllegalArgumentException("entityNames is empty");
+		this.dataService = dataService;
+		this.batchSize = batchSize;
+		this.entityBuffers = new LinkedHashMap<String, List<Entity>>();
+		for (String entityName : entityNames)
+		{
+			entityBuffers.put(entityName, new ArrayList<Entity>(batchSize));
+		}
+	}
+
+	@Override
+	public void add(String entityName, Entity entity)
+	{
+		List<Entity> entityBuffer = entityBuffers.get(entityName);
+		if (entityBuffer == null) throw new IllegalArgumentException("Unknown entity name [" + entityName + "]");
+		entityBuffer.add(entity);
+		if (++nrBufferedEntities >= batchSize) flush();
+	}
+
+	/**
+	 * Writes all buffered entities and clears the persistence context
+	 */
+	public void flush()
+	{
+		if (nrBufferedEntities == 0) return;
+
+		CrudRepository crudRepository = null;
+		for (Entry<String, List<Entity>> entry : entityBuffers.entrySet())
+		{
+			List<Entity> entityBuffer = entry.getValue();
+			if (!entityBuffer.isEmpty())
+			{
+				dataService.add(entry.getKey(), entityBuffer);
+				crudRepository = dataService.getCrudRepository(entry.getKey());
+				crudRepository.flush();
+				entityBuffer.clear();
+			}
+		}
+		// all repositories share the same persistence context
+		if (crudRepository != null) crudRepository.clearCache();
+
+		nrWrittenEntities += nrBufferedEntities;
+		nrBufferedEntities = 0;
+	}
+
+	public long getNrWrittenEntities()
+	{
+		return nrWrittenEntities;
+	}
+}
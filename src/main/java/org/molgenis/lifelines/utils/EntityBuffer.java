@@ -0,0 +1,54 @@
+package org.molgenis.lifelines.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.molgenis.data.Entity;
+
+/**
+ * Keeps entities in memory in the order in which they were added so that they can be written later on, e.g. by a
+ * different thread than the one that created them.
+ */
+public class EntityBuffer implements EntityWriter
+{
+	private final List<String> entityNames = new ArrayList<String>();
+	private final List<Entity> entities = new ArrayList<Entity>();
+
+	@Override
+	public void add(String entityName, Entity entity)
+	{
+		entityNames.add(entityName);
+		entities.add(entity);
+	}
+
+	/**
+	 * Adds all buffered entities to the given writer and clears this buffer
+	 */
+	public void writeTo(EntityWriter entityWriter)
+	{
+		for (int i = 0; i < entities.size(); ++i)
+		{
+			entityWriter.add(entityNames.get(i), entities.get(i));
+		}
+		entityNames.clear();
+		entities.clear();
+	}
+
+	/**
+	 * Returns the buffered entities with the given entity name in the order in which they were added
+	 */
+	public <E extends Entity> List<E> getEntities(String entityName, Class<E> entityClass)
+	{
+		List<E> namedEntities = new ArrayList<E>();
+		for (int i = 0; i < entities.size(); ++i)
+		{
+			if (entityNames.get(i).equals(entityName)) namedEntities.add(entityClass.cast(entities.get(i)));
+		}
+		return namedEntities;
+	}
+
+	public int size()
+	{
+		return entities.size();
+	}
+}
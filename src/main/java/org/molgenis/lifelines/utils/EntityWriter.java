@@ -0,0 +1,11 @@
+package org.molgenis.lifelines.utils;
+
+import org.molgenis.data.Entity;
+
+/**
+ * Receives entities that need to be written to a repository
+ */
+public interface EntityWriter
+{
+	void add(String entityName, Entity entity);
+}
@@ -57,6 +57,22 @@ public class MeasurementIdConverter
 		return measurementCodeSystem;
 	}
 
+	/**
+	 * Returns the omx protocol identifier of the cohort containing measurements, e.g.
+	 * 4:2.16.840.1.113883.2.4.3.8.1000.54.5.2_1
+	 */
+	public static String toOmxCohortProtocolIdentifier(String catalogReleaseId, String cohortCode,
+			String cohortCodeSystem)
+	{
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(catalogReleaseId);
+		stringBuilder.append(CATALOGRELEASE_COHORT_SEPARATOR);
+		stringBuilder.append(cohortCodeSystem);
+		stringBuilder.append(CODESYSTEM_CODE_SEPARATOR);
+		stringBuilder.append(cohortCode);
+		return stringBuilder.toString();
+	}
+
 	public static String toOmxProtocolIdentifier(String catalogReleaseId, String cohortCode, String cohortCodeSystem,
 			String measurementCode, String measurementCodeSystem)
 	{
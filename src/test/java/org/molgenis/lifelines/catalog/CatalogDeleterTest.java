@@ -0,0 +1,273 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.data.CrudRepository;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Entity;
+import org.molgenis.data.Query;
+import org.molgenis.data.QueryRule;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+import org.molgenis.omx.observ.target.OntologyTerm;
+import org.molgenis.search.SearchService;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CatalogDeleterTest
+{
+	private DataService dataService;
+	private SearchService searchService;
+	private CatalogDeleter catalogDeleter;
+
+	private Protocol rootProtocol;
+	private Protocol measurementProtocol;
+	private ObservableFeature feature;
+	private Category category;
+	private OntologyTerm unit;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+		when(dataService.getCrudRepository(anyString())).thenReturn(mock(CrudRepository.class));
+		searchService = mock(SearchService.class);
+		catalogDeleter = new CatalogDeleter(dataService, searchService, 1000);
+
+		unit = new OntologyTerm();
+		unit.setId(1);
+		feature = new ObservableFeature();
+		feature.setId(2);
+		feature.setUnit(unit);
+		category = new Category();
+		category.setId(3);
+		category.setObservableFeature(feature);
+		measurementProtocol = new Protocol();
+		measurementProtocol.setId(4);
+		measurementProtocol.setFeatures(Arrays.asList(feature));
+		rootProtocol = new Protocol();
+		rootProtocol.setId(5);
+		rootProtocol.setIdentifier("catalog");
+		rootProtocol.setSubprotocols(Arrays.asList(measurementProtocol));
+
+		whenFindProtocols(Collections.<Protocol> emptyList());
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				Arrays.asList(category));
+		when(dataService.findAll(eq(ObservableFeature.ENTITY_NAME), any(Query.class), eq(ObservableFeature.class)))
+				.thenReturn(Arrays.asList(feature));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void CatalogDeleter()
+	{
+		new CatalogDeleter(null, searchService, 1000);
+	}
+
+	@Test
+	public void delete()
+	{
+		catalogDeleter.delete(rootProtocol);
+		verify(dataService).delete(Protocol.ENTITY_NAME, Arrays.asList(rootProtocol, measurementProtocol));
+		verify(dataService).delete(Category.ENTITY_NAME, Arrays.asList(category));
+		verify(dataService).delete(ObservableFeature.ENTITY_NAME, Arrays.asList(feature));
+		verify(dataService).delete(OntologyTerm.ENTITY_NAME, Arrays.asList(unit));
+		verify(searchService).deleteDocumentsByType("protocolTree-5");
+	}
+
+	@Test
+	public void deleteSharedMeasurement()
+	{
+		Protocol otherRootProtocol = new Protocol();
+		otherRootProtocol.setId(6);
+		otherRootProtocol.setSubprotocols(Arrays.asList(measurementProtocol));
+		whenFindProtocols(Arrays.asList(rootProtocol, otherRootProtocol));
+
+		catalogDeleter.delete(rootProtocol);
+		verify(dataService).delete(Protocol.ENTITY_NAME, Arrays.asList(rootProtocol));
+		verify(dataService, never()).delete(eq(ObservableFeature.ENTITY_NAME), any(Iterable.class));
+	}
+
+	@Test
+	public void deletePreviousReleaseAfterDeltaLoad()
+	{
+		// previous release with a measurement that is reused and a measurement that is removed by the new release
+		OntologyTerm removedUnit = new OntologyTerm();
+		removedUnit.setId(20);
+		ObservableFeature removedFeature = new ObservableFeature();
+		removedFeature.setId(21);
+		removedFeature.setUnit(removedUnit);
+		Category removedCategory = new Category();
+		removedCategory.setId(22);
+		removedCategory.setObservableFeature(removedFeature);
+		Protocol removedMeasurementProtocol = new Protocol();
+		removedMeasurementProtocol.setId(23);
+		removedMeasurementProtocol.setFeatures(Arrays.asList(removedFeature));
+		Protocol cohortProtocol = new Protocol();
+		cohortProtocol.setId(24);
+		cohortProtocol.setSubprotocols(Arrays.asList(measurementProtocol, removedMeasurementProtocol));
+		rootProtocol.setSubprotocols(Arrays.asList(cohortProtocol));
+
+		// new release with its own cohort that refers to the reused measurement and an added measurement
+		ObservableFeature addedFeature = new ObservableFeature();
+		addedFeature.setId(30);
+		addedFeature.setUnit(unit);
+		Protocol addedMeasurementProtocol = new Protocol();
+		addedMeasurementProtocol.setId(31);
+		addedMeasurementProtocol.setFeatures(Arrays.asList(addedFeature));
+		Protocol newCohortProtocol = new Protocol();
+		newCohortProtocol.setId(32);
+		newCohortProtocol.setSubprotocols(Arrays.asList(measurementProtocol, addedMeasurementProtocol));
+		Protocol newRootProtocol = new Protocol();
+		newRootProtocol.setId(33);
+		newRootProtocol.setSubprotocols(Arrays.asList(newCohortProtocol));
+
+		whenFindEntities(Arrays.asList(rootProtocol, cohortProtocol, measurementProtocol, removedMeasurementProtocol,
+				newRootProtocol, newCohortProtocol, addedMeasurementProtocol),
+				Arrays.asList(feature, removedFeature, addedFeature), Arrays.asList(category, removedCategory));
+
+		catalogDeleter.delete(rootProtocol);
+		// the reused measurement, its feature, category and unit remain part of the new release
+		verify(dataService).delete(Protocol.ENTITY_NAME,
+				Arrays.asList(rootProtocol, cohortProtocol, removedMeasurementProtocol));
+		verify(dataService).delete(Category.ENTITY_NAME, Arrays.asList(removedCategory));
+		verify(dataService).delete(ObservableFeature.ENTITY_NAME, Arrays.asList(removedFeature));
+		verify(dataService).delete(OntologyTerm.ENTITY_NAME, Arrays.asList(removedUnit));
+	}
+
+	/**
+	 * Answers the queries of the catalog deleter from the given entities
+	 */
+	private void whenFindEntities(final List<Protocol> protocols, final List<ObservableFeature> features,
+			final List<Category> categories)
+	{
+		when(dataService.findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class))).thenAnswer(
+				new Answer<Iterable<Protocol>>()
+				{
+					@Override
+					public Iterable<Protocol> answer(InvocationOnMock invocation)
+					{
+						QueryRule rule = ((Query) invocation.getArguments()[1]).getRules().get(0);
+						List<Integer> ids = getIds((Iterable<?>) rule.getValue());
+						List<Protocol> foundProtocols = new ArrayList<Protocol>();
+						for (Protocol protocol : protocols)
+						{
+							if (rule.getField().equals(Protocol.ID))
+							{
+								if (ids.contains(protocol.getId())) foundProtocols.add(protocol);
+							}
+							else if (rule.getField().equals(Protocol.SUBPROTOCOLS))
+							{
+								if (containsAny(protocol.getSubprotocols(), ids)) foundProtocols.add(protocol);
+							}
+							else if (rule.getField().equals(Protocol.FEATURES))
+							{
+								if (containsAny(protocol.getFeatures(), ids)) foundProtocols.add(protocol);
+							}
+						}
+						return foundProtocols;
+					}
+				});
+		when(dataService.findAll(eq(ObservableFeature.ENTITY_NAME), any(Query.class), eq(ObservableFeature.class)))
+				.thenAnswer(new Answer<Iterable<ObservableFeature>>()
+				{
+					@Override
+					public Iterable<ObservableFeature> answer(InvocationOnMock invocation)
+					{
+						QueryRule rule = ((Query) invocation.getArguments()[1]).getRules().get(0);
+						List<Integer> ids = getIds((Iterable<?>) rule.getValue());
+						List<ObservableFeature> foundFeatures = new ArrayList<ObservableFeature>();
+						for (ObservableFeature feature : features)
+						{
+							boolean byUnit = rule.getField().equals(ObservableFeature.UNIT);
+							if (ids.contains(byUnit ? feature.getUnit().getId() : feature.getId()))
+							{
+								foundFeatures.add(feature);
+							}
+						}
+						return foundFeatures;
+					}
+				});
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenAnswer(
+				new Answer<Iterable<Category>>()
+				{
+					@Override
+					public Iterable<Category> answer(InvocationOnMock invocation)
+					{
+						QueryRule rule = ((Query) invocation.getArguments()[1]).getRules().get(0);
+						List<Integer> ids = getIds((Iterable<?>) rule.getValue());
+						List<Category> foundCategories = new ArrayList<Category>();
+						for (Category category : categories)
+						{
+							if (ids.contains(category.getObservableFeature().getId())) foundCategories.add(category);
+						}
+						return foundCategories;
+					}
+				});
+	}
+
+	/**
+	 * Returns the ids of the given entities or the given ids
+	 */
+	private static List<Integer> getIds(Iterable<?> values)
+	{
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object value : values)
+		{
+			ids.add(value instanceof Entity ? (Integer) ((Entity) value).getIdValue() : (Integer) value);
+		}
+		return ids;
+	}
+
+	private static boolean containsAny(List<? extends Entity> entities, List<Integer> ids)
+	{
+		if (entities == null) return false;
+		for (Entity entity : entities)
+		{
+			if (ids.contains(entity.getIdValue())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Protocols are retrieved by id from the protocol tree, any other protocol query returns the given protocols
+	 */
+	private void whenFindProtocols(final List<Protocol> otherProtocols)
+	{
+		final Map<Integer, Protocol> protocols = new HashMap<Integer, Protocol>();
+		protocols.put(rootProtocol.getId(), rootProtocol);
+		protocols.put(measurementProtocol.getId(), measurementProtocol);
+		when(dataService.findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class))).thenAnswer(
+				new Answer<Iterable<Protocol>>()
+				{
+					@Override
+					public Iterable<Protocol> answer(InvocationOnMock invocation)
+					{
+						QueryRule rule = ((Query) invocation.getArguments()[1]).getRules().get(0);
+						if (!rule.getField().equals(Protocol.ID)) return otherProtocols;
+
+						List<Protocol> protocolsById = new ArrayList<Protocol>();
+						for (Object id : (Iterable<?>) rule.getValue())
+						{
+							if (protocols.containsKey(id)) protocolsById.add(protocols.get(id));
+						}
+						return protocolsById;
+					}
+				});
+	}
+}
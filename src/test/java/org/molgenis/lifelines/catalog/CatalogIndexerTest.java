@@ -0,0 +1,44 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+
+import org.molgenis.omx.search.DataSetsIndexer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CatalogIndexerTest
+{
+	private DataSetsIndexer dataSetsIndexer;
+	private CatalogIndexer catalogIndexer;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataSetsIndexer = mock(DataSetsIndexer.class);
+		catalogIndexer = new CatalogIndexer(dataSetsIndexer);
+	}
+
+	@AfterMethod
+	public void afterMethod()
+	{
+		catalogIndexer.shutdown();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void CatalogIndexer()
+	{
+		new CatalogIndexer(null);
+	}
+
+	@Test
+	public void index()
+	{
+		catalogIndexer.index(1);
+		verify(dataSetsIndexer, timeout(1000)).indexProtocolsSynced(Collections.<Object> singletonList(1));
+	}
+}
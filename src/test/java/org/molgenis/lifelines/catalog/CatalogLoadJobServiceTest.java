@@ -0,0 +1,67 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CatalogLoadJobServiceTest
+{
+	private CatalogLoadJobExecutor catalogLoadJobExecutor;
+	private CatalogLoadJobService catalogLoadJobService;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		catalogLoadJobExecutor = mock(CatalogLoadJobExecutor.class);
+		catalogLoadJobService = new CatalogLoadJobService(catalogLoadJobExecutor);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void CatalogLoadJobService()
+	{
+		new CatalogLoadJobService(null);
+	}
+
+	@Test
+	public void loadCatalog()
+	{
+		CatalogLoadJob catalogLoadJob = catalogLoadJobService.loadCatalog("1");
+		assertEquals(catalogLoadJob.getCatalogId(), "1");
+		assertEquals(catalogLoadJob.getStatus(), CatalogLoadJob.Status.QUEUED);
+		verify(catalogLoadJobExecutor).execute(catalogLoadJob);
+		assertSame(catalogLoadJobService.getCatalogLoadJob("1"), catalogLoadJob);
+	}
+
+	@Test
+	public void loadCatalogRunning()
+	{
+		CatalogLoadJob catalogLoadJob = catalogLoadJobService.loadCatalog("1");
+		catalogLoadJob.started();
+		assertSame(catalogLoadJobService.loadCatalog("1"), catalogLoadJob);
+		verify(catalogLoadJobExecutor, times(1)).execute(catalogLoadJob);
+	}
+
+	@Test
+	public void loadCatalogFailed()
+	{
+		CatalogLoadJob catalogLoadJob = catalogLoadJobService.loadCatalog("1");
+		catalogLoadJob.started();
+		catalogLoadJob.failed("error");
+		CatalogLoadJob resumedCatalogLoadJob = catalogLoadJobService.loadCatalog("1");
+		assertNotSame(resumedCatalogLoadJob, catalogLoadJob);
+		verify(catalogLoadJobExecutor).execute(resumedCatalogLoadJob);
+	}
+
+	@Test
+	public void getCatalogLoadJobUnknown()
+	{
+		assertNull(catalogLoadJobService.getCatalogLoadJob("1"));
+	}
+}
@@ -0,0 +1,78 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.catalog.CatalogMeta;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+public class CatalogMetaCacheTest
+{
+	private Supplier<List<CatalogMeta>> catalogMetaSupplier;
+	private CatalogMeta catalogMeta1;
+	private CatalogMeta catalogMeta2;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		catalogMeta1 = new CatalogMeta("1", "catalog1");
+		catalogMeta2 = new CatalogMeta("2", "catalog2");
+		catalogMetaSupplier = mock(Supplier.class);
+		when(catalogMetaSupplier.get()).thenReturn(Arrays.asList(catalogMeta1, catalogMeta2));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void CatalogMetaCache()
+	{
+		new CatalogMetaCache(null, 1000);
+	}
+
+	@Test
+	public void getCatalogMetas()
+	{
+		CatalogMetaCache catalogMetaCache = new CatalogMetaCache(catalogMetaSupplier, 60000);
+		assertEquals(Lists.newArrayList(catalogMetaCache.getCatalogMetas()), Arrays.asList(catalogMeta1, catalogMeta2));
+		assertEquals(Lists.newArrayList(catalogMetaCache.getCatalogMetas()), Arrays.asList(catalogMeta1, catalogMeta2));
+		verify(catalogMetaSupplier, times(1)).get();
+	}
+
+	@Test
+	public void getCatalogMeta()
+	{
+		CatalogMetaCache catalogMetaCache = new CatalogMetaCache(catalogMetaSupplier, 60000);
+		assertEquals(catalogMetaCache.getCatalogMeta("2"), catalogMeta2);
+		assertNull(catalogMetaCache.getCatalogMeta("3"));
+		verify(catalogMetaSupplier, times(1)).get();
+	}
+
+	@Test
+	public void getCatalogMetasNoCaching()
+	{
+		CatalogMetaCache catalogMetaCache = new CatalogMetaCache(catalogMetaSupplier, 0);
+		catalogMetaCache.getCatalogMetas();
+		catalogMetaCache.getCatalogMetas();
+		verify(catalogMetaSupplier, times(2)).get();
+	}
+
+	@Test
+	public void invalidate()
+	{
+		CatalogMetaCache catalogMetaCache = new CatalogMetaCache(catalogMetaSupplier, 60000);
+		catalogMetaCache.getCatalogMetas();
+		catalogMetaCache.invalidate();
+		catalogMetaCache.getCatalogMetas();
+		verify(catalogMetaSupplier, times(2)).get();
+	}
+}
@@ -0,0 +1,78 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Observation;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+
+public class OrganizerCatalogCacheTest
+{
+	private Function<String, OrganizerCatalog> catalogRetriever;
+	private REPCMT000100UV01Organizer catalog;
+	private OrganizerCatalog organizerCatalog;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		REPCMT000100UV01Component3 observationComponent = new REPCMT000100UV01Component3();
+		observationComponent.setObservation(new JAXBElement<REPCMT000100UV01Observation>(new QName("observation"),
+				REPCMT000100UV01Observation.class, new REPCMT000100UV01Observation()));
+		REPCMT000100UV01Organizer organizer = new REPCMT000100UV01Organizer();
+		organizer.getComponent().add(observationComponent);
+		REPCMT000100UV01Component3 organizerComponent = new REPCMT000100UV01Component3();
+		organizerComponent.setOrganizer(new JAXBElement<REPCMT000100UV01Organizer>(new QName("organizer"),
+				REPCMT000100UV01Organizer.class, organizer));
+		catalog = new REPCMT000100UV01Organizer();
+		catalog.getComponent().add(organizerComponent);
+
+		organizerCatalog = new OrganizerCatalog(catalog, null);
+
+		catalogRetriever = mock(Function.class);
+		when(catalogRetriever.apply("1")).thenReturn(organizerCatalog);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void OrganizerCatalogCache()
+	{
+		new OrganizerCatalogCache(null, 1000);
+	}
+
+	@Test
+	public void getCatalog()
+	{
+		OrganizerCatalogCache organizerCatalogCache = new OrganizerCatalogCache(catalogRetriever, 1000);
+		assertSame(organizerCatalogCache.getCatalog("1"), organizerCatalog);
+		// the folder wrappers built by the first request are reused
+		assertSame(organizerCatalogCache.getCatalog("1"), organizerCatalog);
+		verify(catalogRetriever, times(1)).apply("1");
+	}
+
+	@Test
+	public void getCatalogExceedsMaximumWeight()
+	{
+		OrganizerCatalogCache organizerCatalogCache = new OrganizerCatalogCache(catalogRetriever, 2);
+		organizerCatalogCache.getCatalog("1");
+		organizerCatalogCache.getCatalog("1");
+		verify(catalogRetriever, times(2)).apply("1");
+	}
+
+	@Test
+	public void getNrNodes()
+	{
+		assertEquals(OrganizerCatalogCache.getNrNodes(catalog), 3);
+	}
+}
@@ -0,0 +1,125 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.hl7.v3.CD;
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Observation;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.molgenis.catalog.CatalogFolder;
+import org.molgenis.catalog.CatalogItem;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class OrganizerCatalogTest
+{
+	private OrganizerCatalog organizerCatalog;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		REPCMT000100UV01Organizer measurementOrganizer = createOrganizer("measurement");
+		measurementOrganizer.getComponent().add(createObservationComponent("observation"));
+		REPCMT000100UV01Organizer cohortOrganizer = createOrganizer("cohort");
+		cohortOrganizer.getComponent().add(createOrganizerComponent(measurementOrganizer));
+		cohortOrganizer.getComponent().add(createObservationComponent("cohortObservation"));
+		REPCMT000100UV01Organizer catalogOrganizer = createOrganizer("catalog");
+		catalogOrganizer.getComponent().add(createOrganizerComponent(cohortOrganizer));
+		organizerCatalog = new OrganizerCatalog(catalogOrganizer, null);
+	}
+
+	@Test
+	public void getChildren()
+	{
+		assertEquals(organizerCatalog.getChildren().size(), 1);
+		assertSame(organizerCatalog.getChildren().get(0), organizerCatalog.getChildren().get(0));
+	}
+
+	@Test
+	public void getItems()
+	{
+		assertEquals(organizerCatalog.getItems().size(), 1);
+		assertEquals(organizerCatalog.getItems().get(0).getCode(), "cohortObservation");
+	}
+
+	@Test
+	public void findItem()
+	{
+		CatalogFolder cohortFolder = organizerCatalog.findItem("cs.cohort");
+		assertSame(cohortFolder, organizerCatalog.getChildren().get(0));
+		CatalogFolder measurementFolder = organizerCatalog.findItem("cs.measurement");
+		assertSame(measurementFolder, cohortFolder.getChildren().get(0));
+	}
+
+	@Test
+	public void findItemUnknown()
+	{
+		assertNull(organizerCatalog.findItem("cs.unknown"));
+	}
+
+	@Test
+	public void getPath()
+	{
+		assertEquals(organizerCatalog.getPath(), Collections.emptyList());
+	}
+
+	@Test
+	public void getPathFolder()
+	{
+		CatalogFolder cohortFolder = organizerCatalog.getChildren().get(0);
+		CatalogFolder measurementFolder = cohortFolder.getChildren().get(0);
+		assertEquals(measurementFolder.getPath(), Arrays.asList(cohortFolder, measurementFolder));
+	}
+
+	@Test
+	public void getPathItem()
+	{
+		CatalogFolder cohortFolder = organizerCatalog.getChildren().get(0);
+		CatalogFolder measurementFolder = cohortFolder.getChildren().get(0);
+		CatalogItem item = measurementFolder.getItems().get(0);
+		List<CatalogFolder> expectedPath = Arrays.asList(cohortFolder, measurementFolder);
+		assertEquals(item.getPath(), expectedPath);
+	}
+
+	private static REPCMT000100UV01Organizer createOrganizer(String code)
+	{
+		REPCMT000100UV01Organizer organizer = new REPCMT000100UV01Organizer();
+		organizer.setCode(createCode(code));
+		return organizer;
+	}
+
+	private static REPCMT000100UV01Component3 createOrganizerComponent(REPCMT000100UV01Organizer organizer)
+	{
+		REPCMT000100UV01Component3 component = new REPCMT000100UV01Component3();
+		component.setOrganizer(new JAXBElement<REPCMT000100UV01Organizer>(new QName("organizer"),
+				REPCMT000100UV01Organizer.class, organizer));
+		return component;
+	}
+
+	private static REPCMT000100UV01Component3 createObservationComponent(String code)
+	{
+		REPCMT000100UV01Observation observation = new REPCMT000100UV01Observation();
+		observation.setCode(createCode(code));
+		REPCMT000100UV01Component3 component = new REPCMT000100UV01Component3();
+		component.setObservation(new JAXBElement<REPCMT000100UV01Observation>(new QName("observation"),
+				REPCMT000100UV01Observation.class, observation));
+		return component;
+	}
+
+	private static CD createCode(String code)
+	{
+		CD cd = new CD();
+		cd.setCode(code);
+		cd.setCodeSystem("cs");
+		return cd;
+	}
+}
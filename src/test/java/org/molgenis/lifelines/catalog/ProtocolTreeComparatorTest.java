@@ -0,0 +1,145 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.lifelines.utils.EntityBuffer;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ProtocolTreeComparatorTest
+{
+	private DataService dataService;
+	private ProtocolTreeComparator protocolTreeComparator;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+		protocolTreeComparator = new ProtocolTreeComparator(dataService);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void ProtocolTreeComparator()
+	{
+		new ProtocolTreeComparator(null);
+	}
+
+	@Test
+	public void isEqual()
+	{
+		EntityBuffer convertedEntities = new EntityBuffer();
+		Protocol convertedProtocol = createProtocolTree(convertedEntities, "yes");
+
+		EntityBuffer persistedEntities = new EntityBuffer();
+		Protocol persistedProtocol = createProtocolTree(persistedEntities, "yes");
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				persistedEntities.getEntities(Category.ENTITY_NAME, Category.class));
+
+		assertTrue(protocolTreeComparator.isEqual(convertedProtocol, convertedEntities, persistedProtocol));
+	}
+
+	@Test
+	public void isEqualChangedCategory()
+	{
+		EntityBuffer convertedEntities = new EntityBuffer();
+		Protocol convertedProtocol = createProtocolTree(convertedEntities, "yes");
+
+		EntityBuffer persistedEntities = new EntityBuffer();
+		Protocol persistedProtocol = createProtocolTree(persistedEntities, "no");
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				persistedEntities.getEntities(Category.ENTITY_NAME, Category.class));
+
+		assertFalse(protocolTreeComparator.isEqual(convertedProtocol, convertedEntities, persistedProtocol));
+	}
+
+	@Test
+	public void isEqualReorderedCategories()
+	{
+		EntityBuffer convertedEntities = new EntityBuffer();
+		Protocol convertedProtocol = createProtocolTree(convertedEntities, "yes");
+
+		EntityBuffer persistedEntities = new EntityBuffer();
+		Protocol persistedProtocol = createProtocolTree(persistedEntities, "yes");
+		List<Category> persistedCategories = new ArrayList<Category>(persistedEntities.getEntities(
+				Category.ENTITY_NAME, Category.class));
+		Collections.reverse(persistedCategories);
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				persistedCategories);
+
+		assertTrue(protocolTreeComparator.isEqual(convertedProtocol, convertedEntities, persistedProtocol));
+	}
+
+	@Test
+	public void isEqualChangedFeature()
+	{
+		EntityBuffer convertedEntities = new EntityBuffer();
+		Protocol convertedProtocol = createProtocolTree(convertedEntities, "yes");
+
+		EntityBuffer persistedEntities = new EntityBuffer();
+		Protocol persistedProtocol = createProtocolTree(persistedEntities, "yes");
+		persistedProtocol.getSubprotocols().get(0).getFeatures().get(0).setDataType("string");
+
+		assertFalse(protocolTreeComparator.isEqual(convertedProtocol, convertedEntities, persistedProtocol));
+	}
+
+	@Test
+	public void isEqualChangedSubprotocols()
+	{
+		EntityBuffer convertedEntities = new EntityBuffer();
+		Protocol convertedProtocol = createProtocolTree(convertedEntities, "yes");
+
+		EntityBuffer persistedEntities = new EntityBuffer();
+		Protocol persistedProtocol = createProtocolTree(persistedEntities, "yes");
+		persistedProtocol.setSubprotocols(Collections.<Protocol> emptyList());
+
+		assertFalse(protocolTreeComparator.isEqual(convertedProtocol, convertedEntities, persistedProtocol));
+	}
+
+	private Protocol createProtocolTree(EntityBuffer entityBuffer, String categoryName)
+	{
+		ObservableFeature feature = new ObservableFeature();
+		feature.setIdentifier("feature");
+		feature.setName("feature");
+		feature.setDataType("categorical");
+
+		Category category = new Category();
+		category.setIdentifier("category");
+		category.setName(categoryName);
+		category.setValueCode("1");
+		category.setObservableFeature(feature);
+		entityBuffer.add(Category.ENTITY_NAME, category);
+
+		Category otherCategory = new Category();
+		otherCategory.setIdentifier("otherCategory");
+		otherCategory.setName("maybe");
+		otherCategory.setValueCode("2");
+		otherCategory.setObservableFeature(feature);
+		entityBuffer.add(Category.ENTITY_NAME, otherCategory);
+
+		Protocol subprotocol = new Protocol();
+		subprotocol.setIdentifier("subprotocol");
+		subprotocol.setName("subprotocol");
+		subprotocol.setFeatures(Arrays.asList(feature));
+
+		Protocol protocol = new Protocol();
+		protocol.setIdentifier("protocol");
+		protocol.setName("protocol");
+		protocol.setSubprotocols(Arrays.asList(subprotocol));
+		return protocol;
+	}
+}
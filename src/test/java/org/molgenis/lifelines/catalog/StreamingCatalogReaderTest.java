@@ -0,0 +1,167 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.ws.BindingProvider;
+
+import nl.umcg.hl7.service.catalog.GenericLayerCatalogService;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.hl7.v3.CD;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StreamingCatalogReaderTest
+{
+	private HttpClient httpClient;
+	private GenericLayerCatalogService genericLayerCatalogService;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		httpClient = mock(HttpClient.class);
+		genericLayerCatalogService = mock(GenericLayerCatalogService.class,
+				withSettings().extraInterfaces(BindingProvider.class));
+		when(((BindingProvider) genericLayerCatalogService).getRequestContext()).thenReturn(
+				Collections.<String, Object> singletonMap(BindingProvider.ENDPOINT_ADDRESS_PROPERTY,
+						"http://localhost/catalog"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StreamingCatalogReader()
+	{
+		new StreamingCatalogReader(null, genericLayerCatalogService, "1", true);
+	}
+
+	@Test
+	public void readDataSource() throws Exception
+	{
+		respondWith("<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"LifeLines\"/>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"cohort1\"/>"
+				+ "<effectiveTime><low value=\"20130101\"/></effectiveTime>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"m1\"/></organizer></component>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"m2\"/></organizer></component>"
+				+ "</organizer></component>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"cohort2\"/>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"m3\"/></organizer></component>"
+				+ "<component><observation classCode=\"OBS\" moodCode=\"EVN\"><code code=\"o1\"/></observation></component>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"m4\"/></organizer></component>"
+				+ "</organizer></component>" + "</organizer></component>");
+
+		List<String> events = read();
+		// measurements after a component without organizer are ignored
+		assertEquals(events, Arrays.asList("startDataSource LifeLines true", "startCohort cohort1 false",
+				"measurement m1", "measurement m2", "endCohort", "startCohort cohort2 true", "measurement m3",
+				"endCohort", "endDataSource"));
+	}
+
+	@Test
+	public void readGeneric() throws Exception
+	{
+		respondWith("<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\">"
+				+ "<code code=\"" + OrganizerCatalogReader.CODE_GENERIC + "\"/>"
+				+ "<effectiveTime><low value=\"20130101\"/></effectiveTime>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"g1\"/>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"nested\"/></organizer>"
+				+ "</component></organizer></component>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"g2\"/></organizer></component>"
+				+ "</organizer></component>");
+
+		List<String> events = read();
+		assertEquals(events, Arrays.asList("startGeneric " + OrganizerCatalogReader.CODE_GENERIC + " false",
+				"genericOrganizer g1", "genericOrganizer g2", "endGeneric"));
+	}
+
+	private List<String> read()
+	{
+		final List<String> events = new ArrayList<String>();
+		new StreamingCatalogReader(httpClient, genericLayerCatalogService, "1", true).read(new CatalogHandler()
+		{
+			@Override
+			public void startDataSource(CD code, boolean available)
+			{
+				events.add("startDataSource " + code.getCode() + ' ' + available);
+			}
+
+			@Override
+			public void startCohort(CD code, boolean available)
+			{
+				events.add("startCohort " + code.getCode() + ' ' + available);
+			}
+
+			@Override
+			public void measurement(REPCMT000100UV01Organizer measurementOrganizer)
+			{
+				events.add("measurement " + measurementOrganizer.getCode().getCode());
+			}
+
+			@Override
+			public void endCohort()
+			{
+				events.add("endCohort");
+			}
+
+			@Override
+			public void endDataSource()
+			{
+				events.add("endDataSource");
+			}
+
+			@Override
+			public void startGeneric(CD code, boolean available)
+			{
+				events.add("startGeneric " + code.getCode() + ' ' + available);
+			}
+
+			@Override
+			public void genericOrganizer(REPCMT000100UV01Organizer organizer)
+			{
+				events.add("genericOrganizer " + organizer.getCode().getCode());
+			}
+
+			@Override
+			public void endGeneric()
+			{
+				events.add("endGeneric");
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Responds to the getCatalog request with a catalog consisting of the given components
+	 */
+	private void respondWith(String catalogComponents) throws Exception
+	{
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body>"
+				+ "<getCatalogResponse xmlns=\"http://tempuri.org/\"><getCatalogResult>"
+				+ "<catalog xmlns=\"urn:hl7-org:v3\" classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"catalog\"/>"
+				+ catalogComponents + "</catalog></getCatalogResult></getCatalogResponse></s:Body></s:Envelope>";
+
+		StatusLine statusLine = mock(StatusLine.class);
+		when(statusLine.getStatusCode()).thenReturn(200);
+		HttpEntity httpEntity = mock(HttpEntity.class);
+		when(httpEntity.getContent()).thenReturn(new ByteArrayInputStream(xml.getBytes(Charset.forName("UTF-8"))));
+		HttpResponse httpResponse = mock(HttpResponse.class);
+		when(httpResponse.getStatusLine()).thenReturn(statusLine);
+		when(httpResponse.getEntity()).thenReturn(httpEntity);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(httpResponse);
+	}
+}
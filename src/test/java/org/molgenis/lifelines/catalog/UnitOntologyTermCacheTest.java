@@ -0,0 +1,107 @@
+package org.molgenis.lifelines.catalog;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.omx.observ.target.OntologyTerm;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class UnitOntologyTermCacheTest
+{
+	private DataService dataService;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+		when(dataService.findAll(eq(OntologyTerm.ENTITY_NAME), any(Query.class), eq(OntologyTerm.class))).thenReturn(
+				Collections.<OntologyTerm> emptyList());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void UnitOntologyTermCache()
+	{
+		new UnitOntologyTermCache(null);
+	}
+
+	@Test
+	public void getUnitOntologyTerm()
+	{
+		UnitOntologyTermCache unitOntologyTermCache = new UnitOntologyTermCache(dataService);
+		OntologyTerm kgOntologyTerm = unitOntologyTermCache.getUnitOntologyTerm("kg");
+		assertEquals(kgOntologyTerm.getName(), "kg");
+		assertEquals(kgOntologyTerm.getIdentifier(), "OntologyTerm_2.16.840.1.113883.6.8.kg");
+		assertSame(unitOntologyTermCache.getUnitOntologyTerm("kg"), kgOntologyTerm);
+
+		OntologyTerm cmOntologyTerm = unitOntologyTermCache.getUnitOntologyTerm("cm");
+		assertEquals(unitOntologyTermCache.drainNewUnitOntologyTerms(), Arrays.asList(kgOntologyTerm, cmOntologyTerm));
+		assertTrue(unitOntologyTermCache.drainNewUnitOntologyTerms().isEmpty());
+	}
+
+	@Test
+	public void getUnitOntologyTermConcurrently() throws Exception
+	{
+		final UnitOntologyTermCache unitOntologyTermCache = new UnitOntologyTermCache(dataService);
+		List<Callable<OntologyTerm>> tasks = new ArrayList<Callable<OntologyTerm>>();
+		for (int i = 0; i < 100; ++i)
+		{
+			tasks.add(new Callable<OntologyTerm>()
+			{
+				@Override
+				public OntologyTerm call()
+				{
+					return unitOntologyTermCache.getUnitOntologyTerm("kg");
+				}
+			});
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<OntologyTerm> drainedOntologyTerms = unitOntologyTermCache.drainNewUnitOntologyTerms();
+			for (Future<OntologyTerm> future : executorService.invokeAll(tasks))
+			{
+				drainedOntologyTerms.addAll(unitOntologyTermCache.drainNewUnitOntologyTerms());
+				// a term that was handed out was queued for writing before
+				assertTrue(drainedOntologyTerms.contains(future.get()));
+			}
+			assertEquals(drainedOntologyTerms.size(), 1);
+		}
+		finally
+		{
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void getUnitOntologyTermExisting()
+	{
+		OntologyTerm existingOntologyTerm = new OntologyTerm();
+		existingOntologyTerm.setIdentifier("OntologyTerm_2.16.840.1.113883.6.8.mmHg");
+		existingOntologyTerm.setName("mmHg");
+		List<OntologyTerm> existingOntologyTerms = Arrays.asList(existingOntologyTerm);
+		when(dataService.findAll(eq(OntologyTerm.ENTITY_NAME), any(Query.class), eq(OntologyTerm.class))).thenReturn(
+				existingOntologyTerms);
+
+		UnitOntologyTermCache unitOntologyTermCache = new UnitOntologyTermCache(dataService);
+		assertSame(unitOntologyTermCache.getUnitOntologyTerm("mmHg"), existingOntologyTerm);
+		assertTrue(unitOntologyTermCache.drainNewUnitOntologyTerms().isEmpty());
+	}
+}
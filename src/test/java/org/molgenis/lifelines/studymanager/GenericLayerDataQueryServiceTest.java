@@ -0,0 +1,325 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.hl7.v3.II;
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.data.CrudRepository;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Entity;
+import org.molgenis.data.Query;
+import org.molgenis.lifelines.catalog.CatalogIdConverter;
+import org.molgenis.omx.core.RuntimeProperty;
+import org.molgenis.omx.observ.DataSet;
+import org.molgenis.omx.observ.ObservationSet;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+public class GenericLayerDataQueryServiceTest
+{
+	private static final String PARTICIPANT = "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"/></component>";
+	private static final String PARTICIPANT_UNKNOWN_FEATURE = "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\">"
+			+ "<component><observation classCode=\"OBS\" moodCode=\"EVN\"><id root=\"unknown\"/>"
+			+ "<value xsi:type=\"INT\" value=\"1\"/></observation></component></organizer></component>";
+
+	private GenericLayerDataQueryService dataQueryService;
+	private HttpClient httpClient;
+	private DataService dataService;
+	private POQMMT000001UVQualityMeasureDocument studyDefinition;
+	private String dataSetIdentifier;
+	private DataSet dataSet;
+	private Map<String, DataSet> dataSets;
+	private RuntimeProperty[] loadOffsetProperty;
+	private List<Integer> nrWrittenObservationSets;
+	private List<String> committedOffsets;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		httpClient = mock(HttpClient.class);
+		dataService = mock(DataService.class);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(
+				mock(TransactionStatus.class));
+
+		dataQueryService = new GenericLayerDataQueryService();
+		ReflectionTestUtils.setField(dataQueryService, "httpClient", httpClient);
+		ReflectionTestUtils.setField(dataQueryService, "dataQueryServiceUrl", "http://localhost");
+		ReflectionTestUtils.setField(dataQueryService, "dataService", dataService);
+		ReflectionTestUtils.setField(dataQueryService, "batchSize", 1000);
+		ReflectionTestUtils.setField(dataQueryService, "conversionParallelism", 1);
+		ReflectionTestUtils.setField(dataQueryService, "chunkSize", 2);
+		ReflectionTestUtils.setField(dataQueryService, "transactionManager", transactionManager);
+
+		II id = new II();
+		id.setExtension("1");
+		studyDefinition = new POQMMT000001UVQualityMeasureDocument();
+		studyDefinition.setId(id);
+
+		// data sets by identifier that are added, updated and deleted by the data query service
+		dataSetIdentifier = CatalogIdConverter.catalogOfStudyDefinitionIdToOmxIdentifier("1");
+		dataSet = new DataSet();
+		dataSet.setIdentifier(dataSetIdentifier);
+		dataSet.setName("study");
+		dataSets = new HashMap<String, DataSet>();
+		dataSets.put(dataSetIdentifier, dataSet);
+		when(dataService.findOne(eq(DataSet.ENTITY_NAME), any(Query.class), eq(DataSet.class))).thenAnswer(
+				new Answer<DataSet>()
+				{
+					@Override
+					public DataSet answer(InvocationOnMock invocation)
+					{
+						Query q = (Query) invocation.getArguments()[1];
+						return dataSets.get(q.getRules().get(0).getValue());
+					}
+				});
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				DataSet addedDataSet = (DataSet) invocation.getArguments()[1];
+				dataSets.put(addedDataSet.getIdentifier(), addedDataSet);
+				return null;
+			}
+		}).when(dataService).add(eq(DataSet.ENTITY_NAME), any(Entity.class));
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				removeDataSet((DataSet) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(dataService).delete(eq(DataSet.ENTITY_NAME), any(Entity.class));
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				DataSet updatedDataSet = (DataSet) invocation.getArguments()[1];
+				removeDataSet(updatedDataSet);
+				dataSets.put(updatedDataSet.getIdentifier(), updatedDataSet);
+				return null;
+			}
+		}).when(dataService).update(eq(DataSet.ENTITY_NAME), any(Entity.class));
+		when(dataService.getCrudRepository(anyString())).thenReturn(mock(CrudRepository.class));
+
+		// load offset property that is added, updated and deleted by the data query service
+		loadOffsetProperty = new RuntimeProperty[1];
+		when(dataService.findOne(eq(RuntimeProperty.ENTITY_NAME), any(Query.class), eq(RuntimeProperty.class)))
+				.thenAnswer(new Answer<RuntimeProperty>()
+				{
+					@Override
+					public RuntimeProperty answer(InvocationOnMock invocation)
+					{
+						return loadOffsetProperty[0];
+					}
+				});
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				loadOffsetProperty[0] = (RuntimeProperty) invocation.getArguments()[1];
+				return null;
+			}
+		}).when(dataService).add(eq(RuntimeProperty.ENTITY_NAME), any(Entity.class));
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				loadOffsetProperty[0] = null;
+				return null;
+			}
+		}).when(dataService).delete(eq(RuntimeProperty.ENTITY_NAME), any(Entity.class));
+
+		// written entities are recorded when they are written, the entity writer reuses its buffers
+		committedOffsets = new ArrayList<String>();
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				committedOffsets.add(((RuntimeProperty) invocation.getArguments()[1]).getValue());
+				return null;
+			}
+		}).when(dataService).update(eq(RuntimeProperty.ENTITY_NAME), any(Entity.class));
+		nrWrittenObservationSets = new ArrayList<Integer>();
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation)
+			{
+				nrWrittenObservationSets.add(Iterables.size((Iterable<?>) invocation.getArguments()[1]));
+				return null;
+			}
+		}).when(dataService).add(eq(ObservationSet.ENTITY_NAME), Mockito.<Iterable<? extends Entity>> any());
+	}
+
+	@Test
+	public void loadStudyDefinitionDataInChunks() throws Exception
+	{
+		respondWith(PARTICIPANT, PARTICIPANT, PARTICIPANT);
+
+		dataQueryService.loadStudyDefinitionData(studyDefinition);
+		assertEquals(nrWrittenObservationSets, Arrays.asList(2, 1));
+		assertEquals(committedOffsets, Arrays.asList("2", "3"));
+		assertFalse(dataQueryService.isStudyDataLoadInterrupted("1"));
+
+		// the staging data set replaced the data set
+		assertEquals(dataSets.size(), 1);
+		DataSet loadedDataSet = dataSets.get(dataSetIdentifier);
+		assertTrue(loadedDataSet != dataSet);
+		assertEquals(loadedDataSet.getName(), "study");
+	}
+
+	@Test
+	public void loadStudyDefinitionDataInChunksInterrupted() throws Exception
+	{
+		respondWith(PARTICIPANT, PARTICIPANT, PARTICIPANT_UNKNOWN_FEATURE);
+
+		try
+		{
+			dataQueryService.loadStudyDefinitionData(studyDefinition);
+			fail("expected load to fail on unknown feature");
+		}
+		catch (RuntimeException e)
+		{
+			// expected
+		}
+		assertEquals(committedOffsets, Arrays.asList("2"));
+		assertTrue(dataQueryService.isStudyDataLoadInterrupted("1"));
+		verify(dataService, never()).delete(eq(RuntimeProperty.ENTITY_NAME), any(Entity.class));
+
+		// committed chunks stay in the staging data set
+		verify(dataService, never()).delete(eq(DataSet.ENTITY_NAME), any(Entity.class));
+		assertEquals(dataSets.size(), 2);
+		assertTrue(dataSets.get(dataSetIdentifier) == dataSet);
+		assertEquals(dataSets.get("Staging_" + dataSetIdentifier).getName(), "study (loading)");
+	}
+
+	@Test
+	public void loadStudyDefinitionDataInChunksResume() throws Exception
+	{
+		interruptLoad("2");
+		respondWith(PARTICIPANT, PARTICIPANT, PARTICIPANT);
+
+		dataQueryService.loadStudyDefinitionData(studyDefinition);
+		// participants committed by the interrupted load are skipped
+		assertEquals(nrWrittenObservationSets, Arrays.asList(1));
+		assertEquals(committedOffsets, Arrays.asList("3"));
+		assertFalse(dataQueryService.isStudyDataLoadInterrupted("1"));
+		assertEquals(dataSets.size(), 1);
+	}
+
+	@Test
+	public void loadStudyDefinitionDataResumeWithChunksDisabled() throws Exception
+	{
+		ReflectionTestUtils.setField(dataQueryService, "chunkSize", 0);
+		interruptLoad("2");
+		respondWith(PARTICIPANT, PARTICIPANT, PARTICIPANT);
+
+		dataQueryService.loadStudyDefinitionData(studyDefinition);
+		assertEquals(nrWrittenObservationSets, Arrays.asList(1));
+		assertEquals(committedOffsets, Arrays.asList("3"));
+		assertFalse(dataQueryService.isStudyDataLoadInterrupted("1"));
+		assertEquals(dataSets.size(), 1);
+	}
+
+	@Test
+	public void loadStudyDefinitionDataInChunksUnknownDataSet() throws Exception
+	{
+		dataSets.clear();
+		respondWith(PARTICIPANT, PARTICIPANT, PARTICIPANT);
+
+		try
+		{
+			dataQueryService.loadStudyDefinitionData(studyDefinition);
+			fail("expected load to fail on unknown data set");
+		}
+		catch (RuntimeException e)
+		{
+			// expected
+		}
+		verify(dataService, never()).add(eq(ObservationSet.ENTITY_NAME), Mockito.<Iterable<? extends Entity>> any());
+	}
+
+	private void removeDataSet(DataSet removedDataSet)
+	{
+		// by identity, the identifier of an updated data set differs from its key
+		Iterator<DataSet> it = dataSets.values().iterator();
+		while (it.hasNext())
+		{
+			if (it.next() == removedDataSet) it.remove();
+		}
+	}
+
+	private void interruptLoad(String committedOffset)
+	{
+		RuntimeProperty runtimeProperty = new RuntimeProperty();
+		runtimeProperty.setValue(committedOffset);
+		loadOffsetProperty[0] = runtimeProperty;
+		DataSet stagingDataSet = new DataSet();
+		stagingDataSet.setIdentifier("Staging_" + dataSetIdentifier);
+		stagingDataSet.setName("study (loading)");
+		dataSets.put(stagingDataSet.getIdentifier(), stagingDataSet);
+	}
+
+	private void respondWith(String... participants) throws Exception
+	{
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<actCategory xmlns=\"urn:hl7-org:v3\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+				+ " classCode=\"CATEGORY\" moodCode=\"EVN\">");
+		for (String participant : participants)
+		{
+			xml.append(participant);
+		}
+		xml.append("</actCategory>");
+
+		StatusLine statusLine = mock(StatusLine.class);
+		when(statusLine.getStatusCode()).thenReturn(200);
+		HttpEntity httpEntity = mock(HttpEntity.class);
+		when(httpEntity.getContent()).thenReturn(
+				new ByteArrayInputStream(xml.toString().getBytes(Charset.forName("UTF-8"))));
+		HttpResponse httpResponse = mock(HttpResponse.class);
+		when(httpResponse.getStatusLine()).thenReturn(statusLine);
+		when(httpResponse.getEntity()).thenReturn(httpEntity);
+		when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(httpResponse);
+	}
+}
@@ -1,6 +1,11 @@
 package org.molgenis.lifelines.studymanager;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
@@ -12,24 +17,39 @@ import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.bind.JAXB;
 
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionService;
+import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceGetApprovedFAULTFaultMessage;
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceGetByIdFAULTFaultMessage;
+import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage;
 import nl.umcg.hl7.service.studydefinition.GenericLayerStudyDefinitionServiceReviseFAULTFaultMessage;
+import nl.umcg.hl7.service.studydefinition.GetApprovedResponse;
+import nl.umcg.hl7.service.studydefinition.GetByEmailResponse;
+import nl.umcg.hl7.service.studydefinition.GetSubmittedResponse;
 
+import org.hl7.v3.ArrayOfXElement;
 import org.hl7.v3.HL7Container;
+import org.hl7.v3.II;
 import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
 import org.mockito.ArgumentCaptor;
 import org.molgenis.catalog.CatalogFolder;
 import org.molgenis.catalogmanager.CatalogManagerService;
 import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
 import org.molgenis.omx.auth.MolgenisUser;
 import org.molgenis.omx.observ.Protocol;
 import org.molgenis.omx.study.StudyDataRequest;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
 import org.molgenis.security.user.MolgenisUserService;
 import org.molgenis.study.StudyDefinition;
+import org.molgenis.study.StudyDefinition.Status;
 import org.molgenis.study.UnknownStudyDefinitionException;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
@@ -174,6 +194,203 @@ public class GenericLayerStudyManagerServiceTest
 		assertEquals(sw.toString(), readExpectedResult("revisedContainer.xml"));
 	}
 
+	@Test
+	public void getStudyDefinitionsStatus() throws GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage
+	{
+		ArrayOfXElement hl7Containers = new ArrayOfXElement();
+		hl7Containers.getHL7Container().add(createHL7Container("1"));
+		hl7Containers.getHL7Container().add(createHL7Container("2"));
+		GetSubmittedResponse submittedResponse = mock(GetSubmittedResponse.class);
+		when(submittedResponse.getHL7Containers()).thenReturn(hl7Containers);
+		when(studyDefinitionService.getSubmitted(null)).thenReturn(submittedResponse);
+
+		StudyDataRequest studyDataRequest1 = mock(StudyDataRequest.class);
+		when(studyDataRequest1.getId()).thenReturn(11);
+		when(studyDataRequest1.getIdentifier()).thenReturn("studydefinition_1");
+		StudyDataRequest studyDataRequest2 = mock(StudyDataRequest.class);
+		when(studyDataRequest2.getId()).thenReturn(12);
+		when(studyDataRequest2.getIdentifier()).thenReturn("studydefinition_2");
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Arrays.asList(studyDataRequest2, studyDataRequest1));
+
+		List<StudyDefinition> studyDefinitions = service.getStudyDefinitions(Status.SUBMITTED);
+		assertEquals(studyDefinitions.size(), 2);
+		assertEquals(studyDefinitions.get(0).getId(), "11");
+		assertEquals(studyDefinitions.get(1).getId(), "12");
+		verify(dataService, times(1)).findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class),
+				eq(StudyDataRequest.class));
+		verify(dataService, never()).findOne(eq(StudyDataRequest.ENTITY_NAME), any(Query.class),
+				eq(StudyDataRequest.class));
+	}
+
+	@Test(expectedExceptions = RuntimeException.class)
+	public void getStudyDefinitionsStatusUnknownStudyDataRequest()
+			throws GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage
+	{
+		ArrayOfXElement hl7Containers = new ArrayOfXElement();
+		hl7Containers.getHL7Container().add(createHL7Container("1"));
+		GetSubmittedResponse submittedResponse = mock(GetSubmittedResponse.class);
+		when(submittedResponse.getHL7Containers()).thenReturn(hl7Containers);
+		when(studyDefinitionService.getSubmitted(null)).thenReturn(submittedResponse);
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Collections.<StudyDataRequest> emptyList());
+
+		service.getStudyDefinitions(Status.SUBMITTED);
+	}
+
+	@Test
+	public void getStudyDefinitionsStatuses() throws GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage,
+			GenericLayerStudyDefinitionServiceGetApprovedFAULTFaultMessage
+	{
+		ArrayOfXElement submittedContainers = new ArrayOfXElement();
+		submittedContainers.getHL7Container().add(createHL7Container("1"));
+		GetSubmittedResponse submittedResponse = mock(GetSubmittedResponse.class);
+		when(submittedResponse.getHL7Containers()).thenReturn(submittedContainers);
+		when(studyDefinitionService.getSubmitted(null)).thenReturn(submittedResponse);
+
+		ArrayOfXElement approvedContainers = new ArrayOfXElement();
+		approvedContainers.getHL7Container().add(createHL7Container("2"));
+		GetApprovedResponse approvedResponse = mock(GetApprovedResponse.class);
+		when(approvedResponse.getHL7Containers()).thenReturn(approvedContainers);
+		when(studyDefinitionService.getApproved(null)).thenReturn(approvedResponse);
+
+		StudyDataRequest studyDataRequest1 = mock(StudyDataRequest.class);
+		when(studyDataRequest1.getId()).thenReturn(11);
+		when(studyDataRequest1.getIdentifier()).thenReturn("studydefinition_1");
+		StudyDataRequest studyDataRequest2 = mock(StudyDataRequest.class);
+		when(studyDataRequest2.getId()).thenReturn(12);
+		when(studyDataRequest2.getIdentifier()).thenReturn("studydefinition_2");
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Arrays.asList(studyDataRequest1, studyDataRequest2));
+
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try
+		{
+			service.setExecutorService(executorService);
+			Map<Status, List<StudyDefinition>> studyDefinitions = service.getStudyDefinitions(EnumSet.of(
+					Status.SUBMITTED, Status.APPROVED, Status.EXPORTED, Status.REJECTED));
+			assertEquals(studyDefinitions.get(Status.SUBMITTED).size(), 1);
+			assertEquals(studyDefinitions.get(Status.SUBMITTED).get(0).getId(), "11");
+			assertEquals(studyDefinitions.get(Status.APPROVED).size(), 1);
+			assertEquals(studyDefinitions.get(Status.EXPORTED).size(), 1);
+			assertEquals(studyDefinitions.get(Status.REJECTED), Collections.emptyList());
+			verify(studyDefinitionService, times(1)).getApproved(null);
+		}
+		finally
+		{
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void findStudyDefinitions() throws GenericLayerStudyDefinitionServiceGetSubmittedFAULTFaultMessage
+	{
+		ArrayOfXElement hl7Containers = new ArrayOfXElement();
+		hl7Containers.getHL7Container().add(createHL7Container("1"));
+		GetSubmittedResponse submittedResponse = mock(GetSubmittedResponse.class);
+		when(submittedResponse.getHL7Containers()).thenReturn(hl7Containers);
+		when(studyDefinitionService.getSubmitted(null)).thenReturn(submittedResponse);
+
+		StudyDataRequest studyDataRequest1 = mock(StudyDataRequest.class);
+		when(studyDataRequest1.getId()).thenReturn(11);
+		when(studyDataRequest1.getIdentifier()).thenReturn("studydefinition_1");
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Arrays.asList(studyDataRequest1));
+
+		assertEquals(service.findStudyDefinitions(Status.SUBMITTED, "unknown"), Collections.emptyList());
+		List<StudyDefinition> studyDefinitions = service.findStudyDefinitions(Status.SUBMITTED, "");
+		assertEquals(studyDefinitions.size(), 1);
+		assertEquals(studyDefinitions.get(0).getId(), "11");
+		verify(studyDefinitionService, times(1)).getSubmitted(null);
+	}
+
+	@Test
+	public void prepareExportStepCreateSentBefore() throws Exception
+	{
+		MolgenisUser molgenisUser = mock(MolgenisUser.class);
+		when(molgenisUser.getEmail()).thenReturn("author@email.com");
+		StudyDataRequest studyDataRequest = mock(StudyDataRequest.class);
+		when(studyDataRequest.getMolgenisUser()).thenReturn(molgenisUser);
+		StudyDataRequest exportedStudyDataRequest = mock(StudyDataRequest.class);
+		when(exportedStudyDataRequest.getExternalId()).thenReturn("1");
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Arrays.asList(studyDataRequest, exportedStudyDataRequest));
+
+		// draft 1 belongs to another study data request of the user, draft 2 was created by the interrupted export
+		ArrayOfXElement hl7Containers = new ArrayOfXElement();
+		hl7Containers.getHL7Container().add(createDraftHL7Container("1"));
+		hl7Containers.getHL7Container().add(createDraftHL7Container("2"));
+		GetByEmailResponse byEmailResponse = mock(GetByEmailResponse.class);
+		when(byEmailResponse.getHL7Containers()).thenReturn(hl7Containers);
+		when(studyDefinitionService.getByEmail("author@email.com")).thenReturn(byEmailResponse);
+
+		assertEquals(service.prepareExportStep(studyDataRequest, Step.CREATE, true).call(), "2");
+		verify(studyDefinitionService, never()).create(any(String.class));
+	}
+
+	@Test
+	public void loadStudyData() throws Exception
+	{
+		HL7Container container = createHL7Container("1");
+		when(studyDefinitionService.getById("1")).thenReturn(container);
+
+		service.loadStudyData("1");
+		verify(catalogLoaderService).loadCatalogOfStudyDefinition("1");
+		verify(dataQueryService).loadStudyDefinitionData(container.getQualityMeasureDocument());
+	}
+
+	@Test
+	public void loadStudyDataCatalogLoaded() throws Exception
+	{
+		HL7Container container = createHL7Container("1");
+		when(studyDefinitionService.getById("1")).thenReturn(container);
+		when(catalogLoaderService.isCatalogOfStudyDefinitionLoaded("1")).thenReturn(true);
+
+		service.loadStudyData("1");
+		verify(catalogLoaderService, never()).loadCatalogOfStudyDefinition("1");
+		verify(dataQueryService).loadStudyDefinitionData(container.getQualityMeasureDocument());
+	}
+
+	@Test
+	public void loadStudyDataResume() throws Exception
+	{
+		HL7Container container = createHL7Container("1");
+		when(studyDefinitionService.getById("1")).thenReturn(container);
+		when(dataQueryService.isStudyDataLoadInterrupted("1")).thenReturn(true);
+
+		service.loadStudyData("1");
+		verify(catalogLoaderService, never()).loadCatalogOfStudyDefinition("1");
+		verify(dataQueryService).loadStudyDefinitionData(container.getQualityMeasureDocument());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void setRetrievalTimeout()
+	{
+		service.setRetrievalTimeout(0);
+	}
+
+	private static HL7Container createHL7Container(String studyDefinitionId)
+	{
+		II id = new II();
+		id.setExtension(studyDefinitionId);
+		POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = new POQMMT000001UVQualityMeasureDocument();
+		qualityMeasureDocument.setId(id);
+		HL7Container hl7Container = new HL7Container();
+		hl7Container.setQualityMeasureDocument(qualityMeasureDocument);
+		return hl7Container;
+	}
+
+	private static HL7Container createDraftHL7Container(String studyDefinitionId)
+	{
+		POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = mock(
+				POQMMT000001UVQualityMeasureDocument.class, RETURNS_DEEP_STUBS);
+		when(qualityMeasureDocument.getId().getExtension()).thenReturn(studyDefinitionId);
+		when(qualityMeasureDocument.getStatusCode().getCode()).thenReturn("new");
+		HL7Container hl7Container = new HL7Container();
+		hl7Container.setQualityMeasureDocument(qualityMeasureDocument);
+		return hl7Container;
+	}
+
 	private static String readExpectedResult(String name) throws IOException
 	{
 		InputStream is = GenericLayerStudyManagerServiceTest.class.getResourceAsStream(name);
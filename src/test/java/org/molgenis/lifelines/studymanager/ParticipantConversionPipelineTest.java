@@ -0,0 +1,197 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ParticipantConversionPipelineTest
+{
+	private List<REPCMT000100UV01Organizer> organizers;
+	private Map<REPCMT000100UV01Organizer, ConvertedParticipant> participants;
+	private ParticipantConverter participantConverter;
+	private List<ConvertedParticipant> writtenParticipants;
+	private ParticipantWriter participantWriter;
+	private ForkJoinPool conversionPool;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		organizers = new ArrayList<REPCMT000100UV01Organizer>();
+		participants = new IdentityHashMap<REPCMT000100UV01Organizer, ConvertedParticipant>();
+		for (int i = 0; i < 200; ++i)
+		{
+			REPCMT000100UV01Organizer organizer = new REPCMT000100UV01Organizer();
+			organizers.add(organizer);
+			participants.put(organizer,
+					new ConvertedParticipant(Collections.<ConvertedParticipant.Observation> emptyList()));
+		}
+		participantConverter = new ParticipantConverter()
+		{
+			@Override
+			public ConvertedParticipant convert(REPCMT000100UV01Organizer participantOrganizer)
+			{
+				return participants.get(participantOrganizer);
+			}
+		};
+
+		writtenParticipants = new ArrayList<ConvertedParticipant>();
+		participantWriter = new ParticipantWriter()
+		{
+			@Override
+			public void write(ConvertedParticipant participant)
+			{
+				writtenParticipants.add(participant);
+			}
+		};
+		conversionPool = new ForkJoinPool(4);
+	}
+
+	@AfterMethod
+	public void afterMethod()
+	{
+		conversionPool.shutdown();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void ParticipantConversionPipeline()
+	{
+		new ParticipantConversionPipeline(participantConverter, null, conversionPool, 0);
+	}
+
+	@Test
+	public void participant()
+	{
+		ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(participantConverter,
+				participantWriter, null, 0);
+		read(conversionPipeline);
+		assertEquals(writtenParticipants, getParticipants(0));
+	}
+
+	@Test
+	public void participantConcurrent()
+	{
+		ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(participantConverter,
+				participantWriter, conversionPool, 0);
+		read(conversionPipeline);
+		// participants are written in document order
+		assertEquals(writtenParticipants, getParticipants(0));
+	}
+
+	@Test
+	public void participantSkipped()
+	{
+		ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(participantConverter,
+				participantWriter, conversionPool, 150);
+		read(conversionPipeline);
+		assertEquals(writtenParticipants, getParticipants(150));
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void participantConversionFailed()
+	{
+		ParticipantConverter failingParticipantConverter = new ParticipantConverter()
+		{
+			@Override
+			public ConvertedParticipant convert(REPCMT000100UV01Organizer participantOrganizer)
+			{
+				throw new IllegalStateException();
+			}
+		};
+		ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(
+				failingParticipantConverter, participantWriter, conversionPool, 0);
+		read(conversionPipeline);
+	}
+
+	private void read(final ParticipantConversionPipeline conversionPipeline)
+	{
+		conversionPipeline.process(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (REPCMT000100UV01Organizer organizer : organizers)
+				{
+					conversionPipeline.participant(organizer);
+				}
+			}
+		});
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void participantReadFailed()
+	{
+		final ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(
+				participantConverter, participantWriter, conversionPool, 0);
+		conversionPipeline.process(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				conversionPipeline.participant(organizers.get(0));
+				throw new IllegalStateException();
+			}
+		});
+	}
+
+	@Test
+	public void participantWriteFailed() throws InterruptedException
+	{
+		ParticipantWriter failingParticipantWriter = new ParticipantWriter()
+		{
+			@Override
+			public void write(ConvertedParticipant participant)
+			{
+				throw new IllegalStateException();
+			}
+		};
+		final ParticipantConversionPipeline conversionPipeline = new ParticipantConversionPipeline(
+				participantConverter, failingParticipantWriter, conversionPool, 0);
+		final Thread[] readingThread = new Thread[1];
+		try
+		{
+			conversionPipeline.process(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					readingThread[0] = Thread.currentThread();
+					// more participants than fit in the queue
+					for (REPCMT000100UV01Organizer organizer : organizers)
+					{
+						conversionPipeline.participant(organizer);
+					}
+				}
+			});
+			fail("expected write to fail");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+		// the reading thread does not wait for the stopped writer
+		readingThread[0].join(10000);
+		assertFalse(readingThread[0].isAlive());
+	}
+
+	private List<ConvertedParticipant> getParticipants(int fromIndex)
+	{
+		List<ConvertedParticipant> expectedParticipants = new ArrayList<ConvertedParticipant>();
+		for (REPCMT000100UV01Organizer organizer : organizers.subList(fromIndex, organizers.size()))
+		{
+			expectedParticipants.add(participants.get(organizer));
+		}
+		return expectedParticipants;
+	}
+}
@@ -0,0 +1,60 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.hl7.v3.ANY;
+import org.hl7.v3.CD;
+import org.hl7.v3.II;
+import org.hl7.v3.INT;
+import org.hl7.v3.REPCMT000100UV01Component3;
+import org.hl7.v3.REPCMT000100UV01Observation;
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.molgenis.omx.observ.value.LongValue;
+import org.testng.annotations.Test;
+
+public class ParticipantConverterTest
+{
+	@Test
+	public void convert()
+	{
+		INT intValue = new INT();
+		intValue.setValue(BigInteger.valueOf(42));
+		CD cdValue = new CD();
+		cdValue.setCode("1");
+		cdValue.setCodeSystem("cs");
+
+		REPCMT000100UV01Organizer organizer = new REPCMT000100UV01Organizer();
+		organizer.getComponent().add(createObservationComponent("feature1", intValue));
+		organizer.getComponent().add(createObservationComponent("feature2", cdValue));
+
+		List<ConvertedParticipant.Observation> observations = new ParticipantConverter().convert(organizer)
+				.getObservations();
+		assertEquals(observations.size(), 2);
+		assertEquals(observations.get(0).getFeatureIdentifier(), "feature1");
+		assertEquals(((LongValue) observations.get(0).getValue()).getValue(), Long.valueOf(42));
+		assertNull(observations.get(0).getCategoryValueCode());
+		assertEquals(observations.get(1).getFeatureIdentifier(), "feature2");
+		assertNull(observations.get(1).getValue());
+		assertEquals(observations.get(1).getCategoryValueCode(), "1");
+	}
+
+	private static REPCMT000100UV01Component3 createObservationComponent(String featureId, ANY value)
+	{
+		II ii = new II();
+		ii.setRoot(featureId);
+		REPCMT000100UV01Observation observation = new REPCMT000100UV01Observation();
+		observation.getId().add(ii);
+		observation.setValue(value);
+		REPCMT000100UV01Component3 component = new REPCMT000100UV01Component3();
+		component.setObservation(new JAXBElement<REPCMT000100UV01Observation>(new QName("observation"),
+				REPCMT000100UV01Observation.class, observation));
+		return component;
+	}
+}
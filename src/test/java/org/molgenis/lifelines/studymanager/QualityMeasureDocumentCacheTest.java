@@ -0,0 +1,106 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.hl7.v3.II;
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.molgenis.study.StudyDefinition.Status;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class QualityMeasureDocumentCacheTest
+{
+	private Callable<POQMMT000001UVQualityMeasureDocument> documentLoader;
+	private Callable<List<POQMMT000001UVQualityMeasureDocument>> documentsLoader;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void beforeMethod() throws Exception
+	{
+		documentLoader = mock(Callable.class);
+		when(documentLoader.call()).thenReturn(createQualityMeasureDocument("1"));
+		documentsLoader = mock(Callable.class);
+		when(documentsLoader.call()).thenReturn(
+				Arrays.asList(createQualityMeasureDocument("1"), createQualityMeasureDocument("2")));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void QualityMeasureDocumentCache()
+	{
+		new QualityMeasureDocumentCache(-1);
+	}
+
+	@Test
+	public void getQualityMeasureDocument() throws Exception
+	{
+		QualityMeasureDocumentCache cache = new QualityMeasureDocumentCache(60000);
+		POQMMT000001UVQualityMeasureDocument document = cache.getQualityMeasureDocument("1", documentLoader);
+		assertEquals(document.getId().getExtension(), "1");
+
+		// modifying a returned document does not affect the cached document
+		document.getId().setExtension("2");
+		POQMMT000001UVQualityMeasureDocument otherDocument = cache.getQualityMeasureDocument("1", documentLoader);
+		assertNotSame(otherDocument, document);
+		assertEquals(otherDocument.getId().getExtension(), "1");
+		verify(documentLoader, times(1)).call();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void getQualityMeasureDocumentUnknown() throws Exception
+	{
+		Callable<POQMMT000001UVQualityMeasureDocument> nullLoader = mock(Callable.class);
+		QualityMeasureDocumentCache cache = new QualityMeasureDocumentCache(60000);
+		assertNull(cache.getQualityMeasureDocument("1", nullLoader));
+	}
+
+	@Test
+	public void getQualityMeasureDocuments() throws Exception
+	{
+		QualityMeasureDocumentCache cache = new QualityMeasureDocumentCache(60000);
+		assertEquals(cache.getQualityMeasureDocuments(Status.SUBMITTED, documentsLoader).size(), 2);
+		assertEquals(cache.getQualityMeasureDocuments(Status.SUBMITTED, documentsLoader).size(), 2);
+		verify(documentsLoader, times(1)).call();
+	}
+
+	@Test
+	public void getQualityMeasureDocumentsNoCaching() throws Exception
+	{
+		QualityMeasureDocumentCache cache = new QualityMeasureDocumentCache(0);
+		cache.getQualityMeasureDocuments(Status.SUBMITTED, documentsLoader);
+		cache.getQualityMeasureDocuments(Status.SUBMITTED, documentsLoader);
+		verify(documentsLoader, times(2)).call();
+	}
+
+	@Test
+	public void invalidate() throws Exception
+	{
+		QualityMeasureDocumentCache cache = new QualityMeasureDocumentCache(60000);
+		cache.getQualityMeasureDocument("1", documentLoader);
+		cache.getQualityMeasureDocumentsOfUser("user", documentsLoader);
+		cache.invalidate("1");
+		cache.getQualityMeasureDocument("1", documentLoader);
+		cache.getQualityMeasureDocumentsOfUser("user", documentsLoader);
+		verify(documentLoader, times(2)).call();
+		verify(documentsLoader, times(2)).call();
+	}
+
+	private static POQMMT000001UVQualityMeasureDocument createQualityMeasureDocument(String id)
+	{
+		II ii = new II();
+		ii.setExtension(id);
+		POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = new POQMMT000001UVQualityMeasureDocument();
+		qualityMeasureDocument.setId(ii);
+		return qualityMeasureDocument;
+	}
+}
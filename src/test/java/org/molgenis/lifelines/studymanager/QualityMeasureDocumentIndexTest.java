@@ -0,0 +1,135 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.hl7.v3.CD;
+import org.hl7.v3.COCTMT090107UVAssignedPerson;
+import org.hl7.v3.COCTMT090107UVPerson;
+import org.hl7.v3.II;
+import org.hl7.v3.PN;
+import org.hl7.v3.POQMMT000001UVAuthor;
+import org.hl7.v3.POQMMT000001UVComponent2;
+import org.hl7.v3.POQMMT000001UVEntry;
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.hl7.v3.POQMMT000001UVSection;
+import org.hl7.v3.POQMMT000002UVObservation;
+import org.hl7.v3.ST;
+import org.hl7.v3.TEL;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class QualityMeasureDocumentIndexTest
+{
+	private POQMMT000001UVQualityMeasureDocument smokingDocument;
+	private POQMMT000001UVQualityMeasureDocument weightDocument;
+	private QualityMeasureDocumentIndex index;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		smokingDocument = createQualityMeasureDocument("1", "Smoking behaviour", "Jane Doe", "jane@example.org",
+				"Que_Smo_Cur1");
+		weightDocument = createQualityMeasureDocument("2", "Weight and smoking", "John Smith", "john@example.org",
+				"Mea_Wei");
+		index = new QualityMeasureDocumentIndex(Arrays.asList(smokingDocument, weightDocument));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void QualityMeasureDocumentIndex()
+	{
+		new QualityMeasureDocumentIndex(null);
+	}
+
+	@Test
+	public void findTitle()
+	{
+		assertEquals(index.find("smoking"), Arrays.asList(smokingDocument, weightDocument));
+		assertEquals(index.find("WEIGHT"), Arrays.asList(weightDocument));
+	}
+
+	@Test
+	public void findPrefix()
+	{
+		assertEquals(index.find("behav"), Arrays.asList(smokingDocument));
+	}
+
+	@Test
+	public void findAuthor()
+	{
+		assertEquals(index.find("doe"), Arrays.asList(smokingDocument));
+	}
+
+	@Test
+	public void findEmail()
+	{
+		assertEquals(index.find("john@example.org"), Arrays.asList(weightDocument));
+	}
+
+	@Test
+	public void findItemCode()
+	{
+		assertEquals(index.find("Que_Smo"), Arrays.asList(smokingDocument));
+	}
+
+	@Test
+	public void findAllWords()
+	{
+		assertEquals(index.find("smoking smith"), Arrays.asList(weightDocument));
+		assertEquals(index.find("smoking unknown"), Collections.emptyList());
+	}
+
+	@Test
+	public void findEmpty()
+	{
+		assertEquals(index.find(null), Arrays.asList(smokingDocument, weightDocument));
+		assertEquals(index.find(" "), Arrays.asList(smokingDocument, weightDocument));
+	}
+
+	private static POQMMT000001UVQualityMeasureDocument createQualityMeasureDocument(String id, String title,
+			String authorName, String authorEmail, String itemCode)
+	{
+		POQMMT000001UVQualityMeasureDocument qualityMeasureDocument = new POQMMT000001UVQualityMeasureDocument();
+
+		II ii = new II();
+		ii.setExtension(id);
+		qualityMeasureDocument.setId(ii);
+
+		ST st = new ST();
+		st.getContent().add(title);
+		qualityMeasureDocument.setTitle(st);
+
+		PN pn = new PN();
+		pn.getContent().add(authorName);
+		COCTMT090107UVPerson person = new COCTMT090107UVPerson();
+		person.getName().add(pn);
+		TEL tel = new TEL();
+		tel.setValue(authorEmail);
+		COCTMT090107UVAssignedPerson assignedPerson = new COCTMT090107UVAssignedPerson();
+		assignedPerson.setAssignedPerson(new JAXBElement<COCTMT090107UVPerson>(new QName("assignedPerson"),
+				COCTMT090107UVPerson.class, person));
+		assignedPerson.getTelecom().add(tel);
+		POQMMT000001UVAuthor author = new POQMMT000001UVAuthor();
+		author.setAssignedPerson(assignedPerson);
+		qualityMeasureDocument.getAuthor().add(author);
+
+		CD code = new CD();
+		code.setCode(itemCode);
+		POQMMT000002UVObservation observation = new POQMMT000002UVObservation();
+		observation.setCode(code);
+		POQMMT000001UVEntry entry = new POQMMT000001UVEntry();
+		entry.setObservation(observation);
+		POQMMT000001UVSection section = new POQMMT000001UVSection();
+		section.getEntry().add(entry);
+		POQMMT000001UVComponent2 component = new POQMMT000001UVComponent2();
+		component.setSection(section);
+		qualityMeasureDocument.getComponent().add(component);
+
+		return qualityMeasureDocument;
+	}
+}
@@ -0,0 +1,119 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hl7.v3.CD;
+import org.hl7.v3.POQMMT000001UVComponent2;
+import org.hl7.v3.POQMMT000001UVEntry;
+import org.hl7.v3.POQMMT000001UVQualityMeasureDocument;
+import org.hl7.v3.POQMMT000001UVSection;
+import org.hl7.v3.POQMMT000002UVObservation;
+import org.molgenis.catalog.CatalogFolder;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.omx.observ.Protocol;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class QualityMeasureDocumentStudyDefinitionTest
+{
+	private DataService dataService;
+	private POQMMT000001UVQualityMeasureDocument qualityMeasureDocument;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+
+		POQMMT000001UVSection section = new POQMMT000001UVSection();
+		section.getEntry().add(createEntry("protocol1"));
+		section.getEntry().add(createEntry("protocol2"));
+		POQMMT000001UVComponent2 component = new POQMMT000001UVComponent2();
+		component.setSection(section);
+		qualityMeasureDocument = new POQMMT000001UVQualityMeasureDocument();
+		qualityMeasureDocument.getComponent().add(component);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void QualityMeasureDocumentStudyDefinition()
+	{
+		new QualityMeasureDocumentStudyDefinition(null, dataService);
+	}
+
+	@Test
+	public void getItems()
+	{
+		Protocol protocol1 = createProtocol(1, "protocol1");
+		Protocol protocol2 = createProtocol(2, "protocol2");
+		when(dataService.findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class))).thenReturn(
+				Arrays.asList(protocol2, protocol1));
+
+		QualityMeasureDocumentStudyDefinition studyDefinition = new QualityMeasureDocumentStudyDefinition(
+				qualityMeasureDocument, dataService);
+		List<CatalogFolder> items = studyDefinition.getItems();
+		assertEquals(items.size(), 2);
+		assertEquals(items.get(0).getId(), "1");
+		assertEquals(items.get(1).getId(), "2");
+		assertSame(studyDefinition.getItems(), items);
+		verify(dataService, times(1)).findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class));
+	}
+
+	@Test(expectedExceptions = RuntimeException.class)
+	public void getItemsUnknownProtocol()
+	{
+		when(dataService.findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class))).thenReturn(
+				Collections.<Protocol> emptyList());
+		new QualityMeasureDocumentStudyDefinition(qualityMeasureDocument, dataService).getItems();
+	}
+
+	@Test
+	public void containsItem()
+	{
+		Protocol protocol1 = createProtocol(1, "protocol1");
+		Protocol protocol2 = createProtocol(2, "protocol2");
+		when(dataService.findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class))).thenReturn(
+				Arrays.asList(protocol1, protocol2));
+
+		QualityMeasureDocumentStudyDefinition studyDefinition = new QualityMeasureDocumentStudyDefinition(
+				qualityMeasureDocument, dataService);
+		CatalogFolder item2 = mock(CatalogFolder.class);
+		when(item2.getId()).thenReturn("2");
+		CatalogFolder item3 = mock(CatalogFolder.class);
+		when(item3.getId()).thenReturn("3");
+		assertTrue(studyDefinition.containsItem(item2));
+		assertFalse(studyDefinition.containsItem(item3));
+		verify(dataService, times(1)).findAll(eq(Protocol.ENTITY_NAME), any(Query.class), eq(Protocol.class));
+	}
+
+	private static Protocol createProtocol(Integer id, String identifier)
+	{
+		Protocol protocol = new Protocol();
+		protocol.setId(id);
+		protocol.setIdentifier(identifier);
+		return protocol;
+	}
+
+	private static POQMMT000001UVEntry createEntry(String code)
+	{
+		CD observationCode = new CD();
+		observationCode.setCode(code);
+		POQMMT000002UVObservation observation = new POQMMT000002UVObservation();
+		observation.setCode(observationCode);
+		POQMMT000001UVEntry entry = new POQMMT000001UVEntry();
+		entry.setObservation(observation);
+		return entry;
+	}
+}
@@ -0,0 +1,44 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.v3.REPCMT000100UV01Organizer;
+import org.testng.annotations.Test;
+
+public class StreamingStudyDataReaderTest
+{
+	@Test
+	public void read() throws Exception
+	{
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<actCategory xmlns=\"urn:hl7-org:v3\" classCode=\"CATEGORY\" moodCode=\"EVN\">"
+				+ "<id root=\"study\"/>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"p1\" codeSystem=\"cs\"/>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"nested\"/></organizer>"
+				+ "</component></organizer></component>"
+				+ "<component><organizer classCode=\"CLUSTER\" moodCode=\"EVN\"><code code=\"p2\" codeSystem=\"cs\"/>"
+				+ "</organizer></component>" + "</actCategory>";
+		InputStream xmlStream = new ByteArrayInputStream(xml.getBytes(Charset.forName("UTF-8")));
+
+		final List<String> participantCodes = new ArrayList<String>();
+		new StreamingStudyDataReader().read(xmlStream, new StudyDataHandler()
+		{
+			@Override
+			public void participant(REPCMT000100UV01Organizer participantOrganizer)
+			{
+				participantCodes.add(participantOrganizer.getCode().getCode());
+			}
+		});
+
+		List<String> expectedParticipantCodes = new ArrayList<String>();
+		expectedParticipantCodes.add("p1");
+		expectedParticipantCodes.add("p2");
+		assertEquals(participantCodes, expectedParticipantCodes);
+	}
+}
@@ -0,0 +1,122 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.omx.observ.Category;
+import org.molgenis.omx.observ.ObservableFeature;
+import org.molgenis.omx.observ.Protocol;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StudyDataResolutionCacheTest
+{
+	private DataService dataService;
+	private Protocol catalogProtocol;
+	private Protocol measurementProtocol;
+	private ObservableFeature feature;
+	private Category category;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+
+		// identifiers as created by the catalog loader
+		feature = mock(ObservableFeature.class);
+		when(feature.getIdentifier()).thenReturn("A.1.2.3");
+		measurementProtocol = mock(Protocol.class);
+		when(measurementProtocol.getId()).thenReturn(2);
+		when(measurementProtocol.getFeatures()).thenReturn(Arrays.asList(feature));
+		catalogProtocol = mock(Protocol.class);
+		when(catalogProtocol.getId()).thenReturn(1);
+		when(catalogProtocol.getSubprotocols()).thenReturn(Arrays.asList(measurementProtocol));
+
+		category = mock(Category.class);
+		when(category.getIdentifier()).thenReturn("A.1.2.3.0");
+		when(category.getValueCode()).thenReturn("0");
+		when(category.getObservableFeature()).thenReturn(feature);
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				Arrays.asList(category));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StudyDataResolutionCache()
+	{
+		new StudyDataResolutionCache(null, catalogProtocol, 1000);
+	}
+
+	@Test
+	public void getFeaturePreloaded()
+	{
+		StudyDataResolutionCache resolutionCache = new StudyDataResolutionCache(dataService, catalogProtocol, 1000);
+		assertEquals(resolutionCache.getFeature("A.1.2.3"), feature);
+		verify(dataService, never()).findOne(eq(ObservableFeature.ENTITY_NAME), any(Query.class),
+				eq(ObservableFeature.class));
+	}
+
+	@Test
+	public void getCategoryPreloaded()
+	{
+		StudyDataResolutionCache resolutionCache = new StudyDataResolutionCache(dataService, catalogProtocol, 1000);
+		assertEquals(resolutionCache.getCategory(feature, "0"), category);
+		verify(dataService, times(1)).findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class));
+		verify(dataService, never()).findOne(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class));
+	}
+
+	@Test
+	public void getFeatureNotPreloaded()
+	{
+		ObservableFeature otherFeature = mock(ObservableFeature.class);
+		when(dataService.findOne(eq(ObservableFeature.ENTITY_NAME), any(Query.class), eq(ObservableFeature.class)))
+				.thenReturn(otherFeature);
+		StudyDataResolutionCache resolutionCache = new StudyDataResolutionCache(dataService, null, 1000);
+		assertEquals(resolutionCache.getFeature("feature2"), otherFeature);
+		assertEquals(resolutionCache.getFeature("feature2"), otherFeature);
+		verify(dataService, times(1)).findOne(eq(ObservableFeature.ENTITY_NAME), any(Query.class),
+				eq(ObservableFeature.class));
+	}
+
+	@Test
+	public void getCategoryUnknown()
+	{
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				Collections.<Category> emptyList());
+		StudyDataResolutionCache resolutionCache = new StudyDataResolutionCache(dataService, catalogProtocol, 1000);
+		assertNull(resolutionCache.getCategory(feature, "1"));
+		assertNull(resolutionCache.getCategory(feature, "1"));
+		verify(dataService, times(1)).findOne(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class));
+	}
+
+	@Test
+	public void getCategoryOfOtherFeatureWithSameValueCode()
+	{
+		// features that share a value set each have their own categories with the same value codes
+		ObservableFeature otherFeature = mock(ObservableFeature.class);
+		when(otherFeature.getIdentifier()).thenReturn("B.1.2.3");
+		Category otherCategory = mock(Category.class);
+		when(otherCategory.getIdentifier()).thenReturn("B.1.2.3.0");
+		when(otherCategory.getValueCode()).thenReturn("0");
+		when(otherCategory.getObservableFeature()).thenReturn(otherFeature);
+		when(dataService.findAll(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class))).thenReturn(
+				Arrays.asList(category, otherCategory));
+		when(measurementProtocol.getFeatures()).thenReturn(Arrays.asList(feature, otherFeature));
+
+		StudyDataResolutionCache resolutionCache = new StudyDataResolutionCache(dataService, catalogProtocol, 1000);
+		assertEquals(resolutionCache.getCategory(feature, "0"), category);
+		assertEquals(resolutionCache.getCategory(otherFeature, "0"), otherCategory);
+		verify(dataService, never()).findOne(eq(Category.ENTITY_NAME), any(Query.class), eq(Category.class));
+	}
+}
@@ -0,0 +1,215 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.mockito.InOrder;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Query;
+import org.molgenis.lifelines.studymanager.GenericLayerStudyManagerService.ExportStepCall;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Status;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
+import org.molgenis.omx.core.RuntimeProperty;
+import org.molgenis.omx.study.StudyDataRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StudyDefinitionExportJobServiceTest
+{
+	private GenericLayerStudyManagerService genericLayerStudyManagerService;
+	private DataService dataService;
+	private PlatformTransactionManager transactionManager;
+	private StudyDefinitionExportJobService exportJobService;
+	private StudyDataRequest studyDataRequest;
+	private Map<Step, ExportStepCall> exportStepCalls;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		genericLayerStudyManagerService = mock(GenericLayerStudyManagerService.class);
+		dataService = mock(DataService.class);
+		transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(
+				mock(TransactionStatus.class));
+		studyDataRequest = mock(StudyDataRequest.class);
+		when(dataService.findOne(StudyDataRequest.ENTITY_NAME, Integer.valueOf(1), StudyDataRequest.class))
+				.thenReturn(studyDataRequest);
+		exportStepCalls = new EnumMap<Step, ExportStepCall>(Step.class);
+		for (Step step : Step.values())
+		{
+			ExportStepCall exportStepCall = mock(ExportStepCall.class);
+			when(genericLayerStudyManagerService.prepareExportStep(eq(studyDataRequest), eq(step), anyBoolean()))
+					.thenReturn(exportStepCall);
+			exportStepCalls.put(step, exportStepCall);
+		}
+		exportJobService = new StudyDefinitionExportJobService(genericLayerStudyManagerService, dataService,
+				transactionManager, 1);
+	}
+
+	@AfterMethod
+	public void afterMethod()
+	{
+		exportJobService.shutdown();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StudyDefinitionExportJobService()
+	{
+		new StudyDefinitionExportJobService(null, dataService, transactionManager, 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StudyDefinitionExportJobServiceNoThreads()
+	{
+		new StudyDefinitionExportJobService(genericLayerStudyManagerService, dataService, transactionManager, 0);
+	}
+
+	@Test
+	public void getExportSteps()
+	{
+		assertEquals(StudyDefinitionExportJobService.getExportSteps(studyDataRequest),
+				Arrays.asList(Step.CREATE, Step.REVISE, Step.SUBMIT, Step.APPROVE));
+		when(studyDataRequest.getExternalId()).thenReturn("ext1");
+		assertEquals(StudyDefinitionExportJobService.getExportSteps(studyDataRequest),
+				Arrays.asList(Step.REVISE, Step.APPROVE));
+	}
+
+	@Test
+	public void execute()
+	{
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.REVISE,
+				Step.APPROVE));
+		exportJobService.execute(exportJob);
+
+		InOrder inOrder = inOrder(exportStepCalls.get(Step.REVISE), exportStepCalls.get(Step.APPROVE));
+		inOrder.verify(exportStepCalls.get(Step.REVISE)).call();
+		inOrder.verify(exportStepCalls.get(Step.APPROVE)).call();
+		assertEquals(exportJob.getStatus(), Status.FINISHED);
+		assertEquals(exportJob.getRemainingSteps().size(), 0);
+	}
+
+	@Test
+	public void executeCreate()
+	{
+		when(exportStepCalls.get(Step.CREATE).call()).thenReturn("ext1");
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.CREATE));
+		exportJobService.execute(exportJob);
+
+		// the Generic Layer is called between the transaction that prepares the step and the one that records it
+		InOrder inOrder = inOrder(genericLayerStudyManagerService, transactionManager, exportStepCalls.get(Step.CREATE));
+		inOrder.verify(genericLayerStudyManagerService).prepareExportStep(studyDataRequest, Step.CREATE, false);
+		inOrder.verify(transactionManager).commit(any(TransactionStatus.class));
+		inOrder.verify(exportStepCalls.get(Step.CREATE)).call();
+		inOrder.verify(transactionManager).getTransaction(any(TransactionDefinition.class));
+		inOrder.verify(genericLayerStudyManagerService).exportStepPerformed(studyDataRequest, Step.CREATE, "ext1");
+		assertEquals(exportJob.getStatus(), Status.FINISHED);
+	}
+
+	@Test
+	public void executeCreateFailed()
+	{
+		RuntimeProperty runtimeProperty = new RuntimeProperty();
+		when(dataService.findOne(eq(RuntimeProperty.ENTITY_NAME), any(Query.class), eq(RuntimeProperty.class)))
+				.thenReturn(runtimeProperty);
+		when(exportStepCalls.get(Step.CREATE).call()).thenThrow(new RuntimeException("error"));
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.CREATE,
+				Step.REVISE));
+		exportJobService.execute(exportJob);
+
+		// the create request may have reached the Generic Layer
+		assertEquals(runtimeProperty.getValue(), "FAILED;CREATE,REVISE;CREATE");
+	}
+
+	@Test
+	public void executeCreateResumed()
+	{
+		RuntimeProperty runtimeProperty = new RuntimeProperty();
+		runtimeProperty.setValue("FAILED;CREATE,REVISE;CREATE");
+		when(dataService.findOne(eq(RuntimeProperty.ENTITY_NAME), any(Query.class), eq(RuntimeProperty.class)))
+				.thenReturn(runtimeProperty);
+		when(exportStepCalls.get(Step.CREATE).call()).thenReturn("ext1");
+
+		exportJobService.execute(exportJobService.getExportJob("1"));
+		verify(genericLayerStudyManagerService).prepareExportStep(studyDataRequest, Step.CREATE, true);
+		verify(genericLayerStudyManagerService).prepareExportStep(studyDataRequest, Step.REVISE, false);
+		verify(genericLayerStudyManagerService).exportStepPerformed(studyDataRequest, Step.CREATE, "ext1");
+		assertEquals(runtimeProperty.getValue(), "FINISHED;;");
+	}
+
+	@Test
+	public void executeStepFailed()
+	{
+		when(exportStepCalls.get(Step.SUBMIT).call()).thenThrow(new RuntimeException("error"));
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.REVISE,
+				Step.SUBMIT, Step.APPROVE));
+		exportJobService.execute(exportJob);
+
+		verify(exportStepCalls.get(Step.APPROVE), never()).call();
+		verify(genericLayerStudyManagerService, never()).exportStepPerformed(studyDataRequest, Step.SUBMIT, null);
+		assertEquals(exportJob.getStatus(), Status.FAILED);
+		assertEquals(exportJob.getErrorMessage(), "error");
+		// resumes at the failed step
+		assertEquals(exportJob.getRemainingSteps(), Arrays.asList(Step.SUBMIT, Step.APPROVE));
+	}
+
+	@Test
+	public void executeResumed()
+	{
+		RuntimeProperty runtimeProperty = new RuntimeProperty();
+		runtimeProperty.setIdentifier(StudyDefinitionExportJobService.RUNTIME_PROPERTY_IDENTIFIER_PREFIX + "1");
+		runtimeProperty.setName("1");
+		runtimeProperty.setValue("FAILED;APPROVE;error");
+		when(dataService.findOne(eq(RuntimeProperty.ENTITY_NAME), any(Query.class), eq(RuntimeProperty.class)))
+				.thenReturn(runtimeProperty);
+
+		StudyDefinitionExportJob exportJob = exportJobService.getExportJob("1");
+		assertEquals(exportJob.getStatus(), Status.FAILED);
+		exportJobService.execute(exportJob);
+
+		verify(exportStepCalls.get(Step.REVISE), never()).call();
+		verify(exportStepCalls.get(Step.APPROVE)).call();
+		assertEquals(exportJob.getStatus(), Status.FINISHED);
+		assertEquals(runtimeProperty.getValue(), "FINISHED;;");
+	}
+
+	@Test
+	public void exportBulk()
+	{
+		when(studyDataRequest.getId()).thenReturn(Integer.valueOf(1));
+		StudyDataRequest otherStudyDataRequest = mock(StudyDataRequest.class);
+		when(otherStudyDataRequest.getId()).thenReturn(Integer.valueOf(2));
+		when(otherStudyDataRequest.getExternalId()).thenReturn("ext2");
+		when(dataService.findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class), eq(StudyDataRequest.class)))
+				.thenReturn(Arrays.asList(studyDataRequest, otherStudyDataRequest));
+		when(dataService.findAll(eq(RuntimeProperty.ENTITY_NAME), any(Query.class), eq(RuntimeProperty.class)))
+				.thenReturn(Collections.<RuntimeProperty> emptyList());
+
+		Map<String, StudyDefinitionExportJob> exportJobs = exportJobService.export(Arrays.asList("1", "2", "3", "1"));
+		assertEquals(new ArrayList<String>(exportJobs.keySet()), Arrays.asList("1", "2", "3"));
+		assertEquals(exportJobs.get("3").getStatus(), Status.FAILED);
+		assertEquals(exportJobs.get("3").getErrorMessage(), "StudyDataRequest does not exist [3]");
+		// study data requests and stored export jobs are retrieved with one query each
+		verify(dataService, times(1)).findAll(eq(StudyDataRequest.ENTITY_NAME), any(Query.class),
+				eq(StudyDataRequest.class));
+		verify(dataService, times(1)).findAll(eq(RuntimeProperty.ENTITY_NAME), any(Query.class),
+				eq(RuntimeProperty.class));
+	}
+}
@@ -0,0 +1,94 @@
+package org.molgenis.lifelines.studymanager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Status;
+import org.molgenis.lifelines.studymanager.StudyDefinitionExportJob.Step;
+import org.testng.annotations.Test;
+
+public class StudyDefinitionExportJobTest
+{
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StudyDefinitionExportJob()
+	{
+		new StudyDefinitionExportJob(null, Collections.<Step> emptyList());
+	}
+
+	@Test
+	public void stepCompleted()
+	{
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.REVISE,
+				Step.APPROVE));
+		assertEquals(exportJob.getNextStep(), Step.REVISE);
+		exportJob.stepCompleted();
+		assertEquals(exportJob.getNextStep(), Step.APPROVE);
+		exportJob.stepCompleted();
+		assertNull(exportJob.getNextStep());
+	}
+
+	@Test
+	public void toPropertyValue()
+	{
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.SUBMIT,
+				Step.APPROVE));
+		exportJob.failed("error; with separator");
+		assertEquals(exportJob.toPropertyValue(), "FAILED;SUBMIT,APPROVE;");
+	}
+
+	@Test
+	public void toPropertyValueNextStepSent()
+	{
+		StudyDefinitionExportJob exportJob = new StudyDefinitionExportJob("1", Arrays.asList(Step.CREATE,
+				Step.REVISE));
+		exportJob.started();
+		exportJob.nextStepSent();
+		assertEquals(exportJob.toPropertyValue(), "RUNNING;CREATE,REVISE;CREATE");
+		exportJob.stepCompleted();
+		assertEquals(exportJob.toPropertyValue(), "RUNNING;REVISE;");
+	}
+
+	@Test
+	public void valueOf()
+	{
+		StudyDefinitionExportJob exportJob = StudyDefinitionExportJob.valueOf("1",
+				"FAILED;SUBMIT,APPROVE;SUBMIT");
+		assertEquals(exportJob.getStudyDataRequestId(), "1");
+		assertEquals(exportJob.getStatus(), Status.FAILED);
+		assertEquals(exportJob.getRemainingSteps(), Arrays.asList(Step.SUBMIT, Step.APPROVE));
+		assertTrue(exportJob.isNextStepSent());
+		assertNull(exportJob.getErrorMessage());
+	}
+
+	@Test
+	public void valueOfWithErrorMessage()
+	{
+		// error messages were stored in the last field before
+		StudyDefinitionExportJob exportJob = StudyDefinitionExportJob.valueOf("1",
+				"FAILED;SUBMIT,APPROVE;error; with separator");
+		assertEquals(exportJob.getStatus(), Status.FAILED);
+		assertEquals(exportJob.getRemainingSteps(), Arrays.asList(Step.SUBMIT, Step.APPROVE));
+		assertFalse(exportJob.isNextStepSent());
+		assertNull(exportJob.getErrorMessage());
+	}
+
+	@Test
+	public void valueOfFinished()
+	{
+		StudyDefinitionExportJob exportJob = StudyDefinitionExportJob.valueOf("1", "FINISHED;;");
+		assertEquals(exportJob.getStatus(), Status.FINISHED);
+		assertEquals(exportJob.getRemainingSteps(), Collections.emptyList());
+		assertNull(exportJob.getErrorMessage());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void valueOfInvalid()
+	{
+		StudyDefinitionExportJob.valueOf("1", "FINISHED");
+	}
+}
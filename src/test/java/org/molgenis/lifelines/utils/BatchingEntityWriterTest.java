@@ -0,0 +1,103 @@
+package org.molgenis.lifelines.utils;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.data.CrudRepository;
+import org.molgenis.data.DataService;
+import org.molgenis.data.Entity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BatchingEntityWriterTest
+{
+	private DataService dataService;
+	private CrudRepository crudRepository;
+	private List<String> writtenEntities;
+
+	@BeforeMethod
+	public void beforeMethod()
+	{
+		dataService = mock(DataService.class);
+		crudRepository = mock(CrudRepository.class);
+		when(dataService.getCrudRepository(anyString())).thenReturn(crudRepository);
+
+		writtenEntities = new ArrayList<String>();
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				String entityName = (String) invocation.getArguments()[0];
+				for (Object entity : (Iterable<?>) invocation.getArguments()[1])
+				{
+					writtenEntities.add(entityName + ':' + ((Entity) entity).getIdValue());
+				}
+				return null;
+			}
+		}).when(dataService).add(anyString(), any(Iterable.class));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void BatchingEntityWriter()
+	{
+		new BatchingEntityWriter(dataService, 0, "A");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void addUnknownEntityName()
+	{
+		new BatchingEntityWriter(dataService, 10, "A").add("B", createEntity(1));
+	}
+
+	@Test
+	public void addWritesReferencedEntitiesFirst()
+	{
+		BatchingEntityWriter entityWriter = new BatchingEntityWriter(dataService, 3, "A", "B");
+		entityWriter.add("B", createEntity(1));
+		entityWriter.add("A", createEntity(2));
+		verify(dataService, never()).add(anyString(), any(Iterable.class));
+
+		entityWriter.add("B", createEntity(3));
+		assertEquals(writtenEntities.size(), 3);
+		assertEquals(writtenEntities.get(0), "A:2");
+		assertEquals(writtenEntities.get(1), "B:1");
+		assertEquals(writtenEntities.get(2), "B:3");
+		verify(crudRepository, times(1)).clearCache();
+		assertEquals(entityWriter.getNrWrittenEntities(), 3);
+	}
+
+	@Test
+	public void flush()
+	{
+		BatchingEntityWriter entityWriter = new BatchingEntityWriter(dataService, 10, "A", "B");
+		entityWriter.flush();
+		verify(crudRepository, never()).flush();
+
+		entityWriter.add("A", createEntity(1));
+		entityWriter.flush();
+		assertEquals(writtenEntities.size(), 1);
+		verify(crudRepository, times(1)).flush();
+		verify(crudRepository, times(1)).clearCache();
+		assertEquals(entityWriter.getNrWrittenEntities(), 1);
+	}
+
+	private static Entity createEntity(Integer id)
+	{
+		Entity entity = mock(Entity.class);
+		when(entity.getIdValue()).thenReturn(id);
+		return entity;
+	}
+}
@@ -0,0 +1,35 @@
+package org.molgenis.lifelines.utils;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+
+import org.mockito.InOrder;
+import org.molgenis.data.Entity;
+import org.testng.annotations.Test;
+
+public class EntityBufferTest
+{
+	@Test
+	public void writeTo()
+	{
+		Entity entity0 = mock(Entity.class);
+		Entity entity1 = mock(Entity.class);
+		Entity entity2 = mock(Entity.class);
+
+		EntityBuffer entityBuffer = new EntityBuffer();
+		entityBuffer.add("b", entity0);
+		entityBuffer.add("a", entity1);
+		entityBuffer.add("b", entity2);
+		assertEquals(entityBuffer.size(), 3);
+
+		EntityWriter entityWriter = mock(EntityWriter.class);
+		entityBuffer.writeTo(entityWriter);
+
+		InOrder inOrder = inOrder(entityWriter);
+		inOrder.verify(entityWriter).add("b", entity0);
+		inOrder.verify(entityWriter).add("a", entity1);
+		inOrder.verify(entityWriter).add("b", entity2);
+		assertEquals(entityBuffer.size(), 0);
+	}
+}
@@ -35,4 +35,12 @@ public class MeasurementIdConverterTest
 		assertEquals(measurementProtocolIdentifier,
 				"4:2.16.840.1.113883.2.4.3.8.1000.54.5.2_1/2.16.840.1.113883.2.4.3.8.1000.54.5.6_11");
 	}
+
+	@Test
+	public void toOmxCohortProtocolIdentifier()
+	{
+		String cohortProtocolIdentifier = MeasurementIdConverter.toOmxCohortProtocolIdentifier("4", "1",
+				"2.16.840.1.113883.2.4.3.8.1000.54.5.2");
+		assertEquals(cohortProtocolIdentifier, "4:2.16.840.1.113883.2.4.3.8.1000.54.5.2_1");
+	}
 }